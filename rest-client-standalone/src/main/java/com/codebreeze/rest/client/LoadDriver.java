@@ -0,0 +1,265 @@
+package com.codebreeze.rest.client;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.codebreeze.rest.client.config.AppConfig;
+import com.codebreeze.rest.client.http.ConnectionPool;
+import com.codebreeze.rest.client.load.KeyDistribution;
+import com.codebreeze.rest.client.load.LoadGenerator;
+import com.codebreeze.rest.client.services.AccountService;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives the account API at a fixed rate and reports latency percentiles, e.g.
+ * java com.codebreeze.rest.client.LoadDriver --rate=2000 --duration-s=60 --read-ratio=0.9 --keys=zipfian
+ * Raising --rate from run to run until the latency percentiles take off finds the server's saturation point.
+ */
+public class LoadDriver {
+    private static final String SERVER_DRIVER = "com.codebreeze.rest.server.Driver";
+    private static final long SERVER_START_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final long SERVER_POLL_MILLIS = 100;
+
+    public static void main(final String... args) throws Exception {
+        final LoadConfiguration loadConfiguration = new LoadConfiguration();
+        new JCommander(loadConfiguration, args);
+
+        final AnnotationConfigApplicationContext context = newContext(loadConfiguration);
+        final AccountService accountService = context.getBean(AccountService.class);
+        accountService.setHost(loadConfiguration.host);
+        if (loadConfiguration.embeddedServer) {
+            startEmbeddedServer(loadConfiguration, accountService);
+        }
+        if (loadConfiguration.partitioned) {
+            accountService.refreshNodes();
+        }
+
+        final LoadGenerator loadGenerator = new LoadGenerator(
+                accountService,
+                loadConfiguration.rate,
+                loadConfiguration.readRatio,
+                loadConfiguration.keyCount,
+                KeyDistribution.parse(
+                        loadConfiguration.keys, loadConfiguration.keyCount, loadConfiguration.zipfExponent),
+                loadConfiguration.maxOutstanding);
+        if (loadConfiguration.preload) {
+            loadGenerator.preload();
+        }
+        loadGenerator.run(
+                TimeUnit.SECONDS.toNanos(loadConfiguration.warmupSeconds),
+                TimeUnit.SECONDS.toNanos(loadConfiguration.durationSeconds),
+                TimeUnit.SECONDS.toNanos(loadConfiguration.drainSeconds));
+
+        final long completed = loadGenerator.getReads().getCompleted() + loadGenerator.getWrites().getCompleted();
+        System.out.printf("target %.0f requests/s, completed %.0f requests/s%n", loadConfiguration.rate,
+                completed / (double) loadConfiguration.durationSeconds);
+        loadGenerator.getReads().print(System.out);
+        loadGenerator.getWrites().print(System.out);
+        context.getBean(ConnectionPool.class).print(System.out);
+        System.exit(0);
+    }
+
+    /**
+     * the client's beans, with the connection pool sized and timed by the options
+     */
+    private static AnnotationConfigApplicationContext newContext(final LoadConfiguration loadConfiguration) {
+        final Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(AppConfig.HTTP_POOL_MAX_TOTAL, loadConfiguration.maxConnections);
+        properties.put(AppConfig.HTTP_POOL_MAX_PER_ROUTE, loadConfiguration.maxConnectionsPerRoute);
+        properties.put(AppConfig.HTTP_POOL_TIMEOUT_MILLIS, loadConfiguration.poolTimeoutMillis);
+        properties.put(AppConfig.HTTP_POOL_IDLE_TIMEOUT_MILLIS, loadConfiguration.idleTimeoutMillis);
+        properties.put(AppConfig.HTTP_CONNECT_TIMEOUT_MILLIS, loadConfiguration.connectTimeoutMillis);
+        properties.put(AppConfig.HTTP_READ_TIMEOUT_MILLIS, loadConfiguration.readTimeoutMillis);
+        final AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("load", properties));
+        context.register(AppConfig.class);
+        context.refresh();
+        return context;
+    }
+
+    /**
+     * Runs the rest server's own Driver in this process, which needs the server on the class path, and waits
+     * until it answers.
+     */
+    private static void startEmbeddedServer(final LoadConfiguration loadConfiguration,
+                                            final AccountService accountService) throws Exception {
+        final Method main = Class.forName(SERVER_DRIVER).getMethod("main", String[].class);
+        final String[] serverArgs = loadConfiguration.serverArgs.isEmpty()
+                ? new String[0]
+                : loadConfiguration.serverArgs.split(" ");
+        final Thread server = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    main.invoke(null, (Object) serverArgs);
+                } catch (final Exception e) {
+                    throw new IllegalStateException("the embedded server failed", e);
+                }
+            }
+        }, "embedded-server");
+        server.setDaemon(true);
+        server.start();
+
+        final long deadline = System.currentTimeMillis() + SERVER_START_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                accountService.getAccount("0");
+                return;
+            } catch (final RuntimeException e) {
+                if (System.currentTimeMillis() > deadline || !server.isAlive()) {
+                    throw new IllegalStateException("the embedded server did not start", e);
+                }
+                Thread.sleep(SERVER_POLL_MILLIS);
+            }
+        }
+    }
+
+    @Parameters(separators = "= ")
+    private static class LoadConfiguration {
+        @Parameter(
+                names = {"--host"},
+                arity = 1,
+                description = "the base URL of the rest server"
+        )
+        private String host = "http://localhost:8080/";
+
+        @Parameter(
+                names = {"--partitioned"},
+                description = "send each account's requests to the server that owns it, of those --host lists"
+        )
+        private boolean partitioned = false;
+
+        @Parameter(
+                names = {"--embedded-server"},
+                description = "start the rest server in this process, which needs it on the class path"
+        )
+        private boolean embeddedServer = false;
+
+        @Parameter(
+                names = {"--server-args"},
+                arity = 1,
+                description = "the options of the embedded server, separated by spaces"
+        )
+        private String serverArgs = "";
+
+        @Parameter(
+                names = {"--rate"},
+                arity = 1,
+                description = "requests a second, sent on schedule whether or not earlier ones were answered"
+        )
+        private Double rate = 1000d;
+
+        @Parameter(
+                names = {"--read-ratio"},
+                arity = 1,
+                description = "the fraction of requests that read an account; the rest add or update one"
+        )
+        private Double readRatio = 0.9;
+
+        @Parameter(
+                names = {"--key-count"},
+                arity = 1,
+                description = "how many distinct accounts the requests go to"
+        )
+        private Integer keyCount = 10000;
+
+        @Parameter(
+                names = {"--keys"},
+                arity = 1,
+                description = "how requests are spread over the accounts: uniform, or zipfian"
+        )
+        private String keys = "uniform";
+
+        @Parameter(
+                names = {"--zipf-exponent"},
+                arity = 1,
+                description = "how skewed zipfian keys are"
+        )
+        private Double zipfExponent = 0.99;
+
+        @Parameter(
+                names = {"--preload"},
+                arity = 1,
+                description = "whether to add every account before the run, so that reads find them"
+        )
+        private Boolean preload = true;
+
+        @Parameter(
+                names = {"--max-outstanding"},
+                arity = 1,
+                description = "how many requests may be in flight at once; later ones wait, and their wait is measured"
+        )
+        private Integer maxOutstanding = 256;
+
+        @Parameter(
+                names = {"--warmup-s"},
+                arity = 1,
+                description = "how long to send requests before measuring them"
+        )
+        private Long warmupSeconds = 10L;
+
+        @Parameter(
+                names = {"--duration-s"},
+                arity = 1,
+                description = "how long to measure for"
+        )
+        private Long durationSeconds = 60L;
+
+        @Parameter(
+                names = {"--drain-s"},
+                arity = 1,
+                description = "how long to wait for the last requests; those still outstanding are reported "
+                        + "unfinished, with their latency counted up to then"
+        )
+        private Long drainSeconds = 30L;
+
+        @Parameter(
+                names = {"--max-connections"},
+                arity = 1,
+                description = "how many keep-alive connections the client may have open, to all servers together"
+        )
+        private Integer maxConnections = 1024;
+
+        @Parameter(
+                names = {"--max-connections-per-route"},
+                arity = 1,
+                description = "how many connections the client may have open to each server; "
+                        + "requests beyond them wait for one"
+        )
+        private Integer maxConnectionsPerRoute = 256;
+
+        @Parameter(
+                names = {"--pool-timeout-ms"},
+                arity = 1,
+                description = "how long a request may wait for a pooled connection before it fails"
+        )
+        private Integer poolTimeoutMillis = 10000;
+
+        @Parameter(
+                names = {"--idle-timeout-ms"},
+                arity = 1,
+                description = "how long a pooled connection may stay idle before it is closed"
+        )
+        private Long idleTimeoutMillis = 30000L;
+
+        @Parameter(
+                names = {"--connect-timeout-ms"},
+                arity = 1,
+                description = "how long connecting to a server may take"
+        )
+        private Integer connectTimeoutMillis = 2000;
+
+        @Parameter(
+                names = {"--read-timeout-ms"},
+                arity = 1,
+                description = "how long a response may go without data before the request fails"
+        )
+        private Integer readTimeoutMillis = 30000;
+    }
+}
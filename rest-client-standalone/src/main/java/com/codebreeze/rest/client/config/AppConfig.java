@@ -1,14 +1,31 @@
 package com.codebreeze.rest.client.config;
 
+import com.codebreeze.rest.client.converters.AccountBinaryHttpMessageConverter;
+import com.codebreeze.rest.client.http.ConnectionPool;
 import com.codebreeze.rest.client.services.AccountService;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.xml.xpath.Jaxp13XPathTemplate;
 
 
+/**
+ * The client's beans. The connection pool is sized and timed by the properties below, from the Environment, so
+ * from system properties, e.g. -Dhttp.pool.max.per.route=512, or from a property source the LoadDriver adds.
+ */
 @Configuration
 public class AppConfig {
+    public static final String HTTP_POOL_MAX_TOTAL = "http.pool.max.total";
+    public static final String HTTP_POOL_MAX_PER_ROUTE = "http.pool.max.per.route";
+    public static final String HTTP_POOL_TIMEOUT_MILLIS = "http.pool.timeout.millis";
+    public static final String HTTP_POOL_IDLE_TIMEOUT_MILLIS = "http.pool.idle.timeout.millis";
+    public static final String HTTP_CONNECT_TIMEOUT_MILLIS = "http.connect.timeout.millis";
+    public static final String HTTP_READ_TIMEOUT_MILLIS = "http.read.timeout.millis";
+
+    @Autowired
+    private Environment environment;
 
     @Bean
     public Jaxp13XPathTemplate xpathTemplate() {
@@ -16,9 +33,21 @@ public class AppConfig {
         return xpathTemplate;
     }
 
+    @Bean( destroyMethod = "close" )
+    public ConnectionPool connectionPool() {
+        return new ConnectionPool(
+                environment.getProperty(HTTP_POOL_MAX_TOTAL, Integer.class, 1024),
+                environment.getProperty(HTTP_POOL_MAX_PER_ROUTE, Integer.class, 256),
+                environment.getProperty(HTTP_CONNECT_TIMEOUT_MILLIS, Integer.class, 2000),
+                environment.getProperty(HTTP_READ_TIMEOUT_MILLIS, Integer.class, 30000),
+                environment.getProperty(HTTP_POOL_TIMEOUT_MILLIS, Integer.class, 10000),
+                environment.getProperty(HTTP_POOL_IDLE_TIMEOUT_MILLIS, Long.class, 30000L));
+    }
+
     @Bean
     public RestTemplate restTemplate() {
-        RestTemplate restTemplate = new RestTemplate();
+        RestTemplate restTemplate = new RestTemplate(connectionPool().requestFactory());
+        restTemplate.getMessageConverters().add(0, new AccountBinaryHttpMessageConverter());
         return restTemplate;
     }
 
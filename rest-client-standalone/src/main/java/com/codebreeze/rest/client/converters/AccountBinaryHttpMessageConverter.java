@@ -0,0 +1,115 @@
+package com.codebreeze.rest.client.converters;
+
+import com.codebreeze.rest.client.model.Account;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads and writes {@link Account} in the application/x-account encoding of the rest server's
+ * AccountBinaryFormat, all big-endian:
+ * <pre>
+ * byte   format version
+ * short  number length, -1 for null; then the number in UTF-8
+ * short  name length, -1 for null; then the name in UTF-8
+ * byte   balance kind: 0 null, 1 fits a long, 2 does not
+ *        kind 1: int scale, long unscaled value
+ *        kind 2: int scale, short length, unscaled value as two's-complement bytes
+ * </pre>
+ */
+public class AccountBinaryHttpMessageConverter extends AbstractHttpMessageConverter<Account> {
+    public static final MediaType APPLICATION_ACCOUNT = new MediaType("application", "x-account");
+    private static final byte FORMAT_VERSION = 1;
+    private static final short NULL_LENGTH = -1;
+    private static final byte NO_BALANCE = 0;
+    private static final byte LONG_BALANCE = 1;
+    private static final byte BIG_BALANCE = 2;
+
+    public AccountBinaryHttpMessageConverter() {
+        super(APPLICATION_ACCOUNT);
+    }
+
+    @Override
+    protected boolean supports(final Class<?> clazz) {
+        return Account.class.equals(clazz);
+    }
+
+    @Override
+    protected Account readInternal(final Class<? extends Account> clazz, final HttpInputMessage inputMessage)
+            throws IOException, HttpMessageNotReadableException {
+        final DataInputStream in = new DataInputStream(inputMessage.getBody());
+        final byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new HttpMessageNotReadableException("unknown account format version " + version);
+        }
+        final String number = readString(in);
+        final String name = readString(in);
+        final byte kind = in.readByte();
+        BigDecimal balance = null;
+        if (kind == LONG_BALANCE) {
+            final int scale = in.readInt();
+            balance = BigDecimal.valueOf(in.readLong(), scale);
+        } else if (kind == BIG_BALANCE) {
+            final int scale = in.readInt();
+            final byte[] unscaled = new byte[in.readShort()];
+            in.readFully(unscaled);
+            balance = new BigDecimal(new BigInteger(unscaled), scale);
+        } else if (kind != NO_BALANCE) {
+            throw new HttpMessageNotReadableException("unknown balance kind " + kind);
+        }
+        return new Account(number, name, balance);
+    }
+
+    @Override
+    protected void writeInternal(final Account account, final HttpOutputMessage outputMessage) throws IOException {
+        final DataOutputStream out = new DataOutputStream(outputMessage.getBody());
+        out.writeByte(FORMAT_VERSION);
+        writeString(out, account.getNumber());
+        writeString(out, account.getName());
+        final BigDecimal balance = account.getBalance();
+        if (balance == null) {
+            out.writeByte(NO_BALANCE);
+        } else if (balance.unscaledValue().bitLength() < Long.SIZE) {
+            out.writeByte(LONG_BALANCE);
+            out.writeInt(balance.scale());
+            out.writeLong(balance.unscaledValue().longValue());
+        } else {
+            final byte[] unscaled = balance.unscaledValue().toByteArray();
+            out.writeByte(BIG_BALANCE);
+            out.writeInt(balance.scale());
+            out.writeShort(unscaled.length);
+            out.write(unscaled);
+        }
+        out.flush();
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final short length = in.readShort();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeShort(NULL_LENGTH);
+            return;
+        }
+        final byte[] bytes = value.getBytes(UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+}
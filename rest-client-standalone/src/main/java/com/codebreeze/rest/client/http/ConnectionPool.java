@@ -0,0 +1,132 @@
+package com.codebreeze.rest.client.http;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keep-alive connections for the RestTemplate, pooled per route, that is per server, so that requests do not each
+ * pay for TCP setup. A request waits for a connection while maxPerRoute of its server's, or maxTotal in all, are
+ * leased, and fails if none frees up within the pool timeout. Connections idle for longer than the idle timeout
+ * are closed in the background, and one idle for over a second is checked before it is reused, so that a request
+ * is not sent down a connection the server has closed, say while draining.
+ * <p>
+ * The pool is sampled every 100ms for the most connections leased and requests pending at once, to size it by:
+ * a pool that is never fully leased is larger than it needs to be, and pending requests mean it is too small.
+ */
+public class ConnectionPool implements Closeable {
+    private static final long SAMPLE_MILLIS = 100;
+    private static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 1000;
+
+    private final PoolingHttpClientConnectionManager connections;
+    private final CloseableHttpClient client;
+    private final RequestConfig requestConfig;
+    private final ScheduledExecutorService sampler;
+    // written by the sampler only
+    private volatile int peakLeased;
+    private volatile int peakPending;
+
+    public ConnectionPool(final int maxTotal, final int maxPerRoute, final int connectTimeoutMillis,
+                          final int readTimeoutMillis, final int poolTimeoutMillis, final long idleTimeoutMillis) {
+        this.connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(maxTotal);
+        connections.setDefaultMaxPerRoute(maxPerRoute);
+        connections.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+        this.requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setSocketTimeout(readTimeoutMillis)
+                .setConnectionRequestTimeout(poolTimeoutMillis)
+                .build();
+        this.client = HttpClients.custom()
+                .setConnectionManager(connections)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+        this.sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "connection-pool-sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sampler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                final PoolStats stats = connections.getTotalStats();
+                peakLeased = Math.max(peakLeased, stats.getLeased());
+                peakPending = Math.max(peakPending, stats.getPending());
+            }
+        }, SAMPLE_MILLIS, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return a request factory for a RestTemplate, sending its requests over the pool
+     */
+    public ClientHttpRequestFactory requestFactory() {
+        return new HttpComponentsClientHttpRequestFactory(client) {
+            @Override
+            protected HttpContext createHttpContext(final HttpMethod httpMethod, final URI uri) {
+                // the pool's timeouts, rather than a config of the factory's own, which has no pool timeout
+                final HttpClientContext context = HttpClientContext.create();
+                context.setRequestConfig(requestConfig);
+                return context;
+            }
+        };
+    }
+
+    /**
+     * @return the connections leased, the requests pending for one, the connections available, which are idle,
+     * and the most there may be, over all the servers
+     */
+    public PoolStats getStats() {
+        return connections.getTotalStats();
+    }
+
+    public int getPeakLeased() {
+        return peakLeased;
+    }
+
+    public int getPeakPending() {
+        return peakPending;
+    }
+
+    /**
+     * Prints the pool as a whole, and each server's share of it.
+     */
+    public void print(final PrintStream out) {
+        final PoolStats total = connections.getTotalStats();
+        out.printf("connections: %d leased (at most %d), %d pending (at most %d), %d available, of %d%n",
+                total.getLeased(), peakLeased, total.getPending(), peakPending, total.getAvailable(),
+                total.getMax());
+        for (final HttpRoute route : connections.getRoutes()) {
+            final PoolStats stats = connections.getStats(route);
+            out.printf("  %s: %d leased, %d pending, %d available, of %d%n", route.getTargetHost().toURI(),
+                    stats.getLeased(), stats.getPending(), stats.getAvailable(), stats.getMax());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        sampler.shutdownNow();
+        client.close();
+    }
+}
@@ -0,0 +1,68 @@
+package com.codebreeze.rest.client.load;
+
+import java.util.Random;
+
+/**
+ * Which of the keys 0 to keys - 1 a request goes to.
+ */
+public abstract class KeyDistribution {
+    public abstract int next(Random random);
+
+    /**
+     * @param name     uniform, or zipfian
+     * @param exponent how skewed a zipfian distribution is; 0.99 is the usual choice, 1 is not allowed
+     */
+    public static KeyDistribution parse(final String name, final int keys, final double exponent) {
+        if ("uniform".equals(name)) {
+            return uniform(keys);
+        }
+        if ("zipfian".equals(name)) {
+            return zipfian(keys, exponent);
+        }
+        throw new IllegalArgumentException("unknown key distribution " + name + ", expected uniform or zipfian");
+    }
+
+    public static KeyDistribution uniform(final int keys) {
+        return new KeyDistribution() {
+            @Override
+            public int next(final Random random) {
+                return random.nextInt(keys);
+            }
+        };
+    }
+
+    /**
+     * Key 0 is the most popular, key 1 the next, and so on, the k-th with a probability in proportion to
+     * 1 / (k + 1) ^ exponent. Draws take constant time, by the method of Gray et al., "Quickly generating
+     * billion-record synthetic databases", which YCSB also uses; setting up takes time in proportion to the keys.
+     */
+    public static KeyDistribution zipfian(final int keys, final double exponent) {
+        if (keys < 2 || exponent <= 0 || exponent == 1) {
+            throw new IllegalArgumentException("a zipfian distribution needs 2 or more keys and an exponent above 0 "
+                    + "other than 1");
+        }
+        double zeta = 0;
+        for (int i = 1; i <= keys; i++) {
+            zeta += 1 / Math.pow(i, exponent);
+        }
+        final double zetan = zeta;
+        final double zeta2 = 1 + 1 / Math.pow(2, exponent);
+        final double alpha = 1 / (1 - exponent);
+        final double eta = (1 - Math.pow(2.0 / keys, 1 - exponent)) / (1 - zeta2 / zetan);
+        final double secondBound = 1 + Math.pow(0.5, exponent);
+        return new KeyDistribution() {
+            @Override
+            public int next(final Random random) {
+                final double u = random.nextDouble();
+                final double uz = u * zetan;
+                if (uz < 1) {
+                    return 0;
+                }
+                if (uz < secondBound) {
+                    return 1;
+                }
+                return Math.min(keys - 1, (int) (keys * Math.pow(eta * u - eta + 1, alpha)));
+            }
+        };
+    }
+}
@@ -0,0 +1,76 @@
+package com.codebreeze.rest.client.load;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in nanoseconds into log-linear buckets, as HdrHistogram does: values below 64 have a bucket
+ * each, and every power of two above that is split into 32 buckets, so any value is counted within about 3% of
+ * itself. Recording takes no locks, so the threads that complete requests record into it directly.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT = SUB_BUCKETS * 2;
+    private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        long seen = max.get();
+        while (value > seen && !max.compareAndSet(seen, value)) {
+            seen = max.get();
+        }
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * @return the highest value of the bucket holding the given quantile, never above the largest value
+     * recorded, or 0 if nothing was recorded
+     */
+    public long valueAtQuantile(final double quantile) {
+        final long rank = Math.max(1, (long) Math.ceil(quantile * count()));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highest(i), max.get());
+            }
+        }
+        return 0;
+    }
+
+    private static int index(final long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return EXACT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long highest(final int index) {
+        if (index == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        final int next = index + 1;
+        if (next < EXACT) {
+            return index;
+        }
+        final int shift = (next - EXACT) / SUB_BUCKETS + 1;
+        return ((long) ((next - EXACT) % SUB_BUCKETS + SUB_BUCKETS) << shift) - 1;
+    }
+}
@@ -0,0 +1,212 @@
+package com.codebreeze.rest.client.load;
+
+import com.codebreeze.rest.client.services.AccountService;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the account API open loop: request i is due at start + i / rate, whether or not the requests before it
+ * have been answered, as requests from independent users would be. One thread keeps the schedule and hands each
+ * request to a pool of workers; when every worker is busy, requests queue and their wait counts towards their
+ * latency, so a server past its saturation point shows as latency growing without bound rather than as a lower
+ * request rate. Requests still outstanding when the drain time is up are counted as unfinished at that moment.
+ */
+public class LoadGenerator {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final int MAX_BALANCE_CENTS = 100000000;
+
+    private final AccountService accountService;
+    private final double rate;
+    private final double readRatio;
+    private final int keys;
+    private final KeyDistribution keyDistribution;
+    private final ExecutorService workers;
+    private final OperationStats reads = new OperationStats("read");
+    private final OperationStats writes = new OperationStats("write");
+    // only the scheduling thread draws from it
+    private final Random random = new Random();
+    // measured requests that are queued or in flight
+    private final Set<Request> outstanding = Collections.newSetFromMap(new ConcurrentHashMap<Request, Boolean>());
+
+    /**
+     * @param rate           requests a second
+     * @param readRatio      the fraction of requests that are reads; the rest add or update an account
+     * @param maxOutstanding how many requests may be in flight at once
+     */
+    public LoadGenerator(final AccountService accountService, final double rate, final double readRatio,
+                         final int keys, final KeyDistribution keyDistribution, final int maxOutstanding) {
+        if (rate <= 0 || readRatio < 0 || readRatio > 1 || keys <= 0 || maxOutstanding <= 0) {
+            throw new IllegalArgumentException("rate, keys and max outstanding must be positive, "
+                    + "and the read ratio between 0 and 1");
+        }
+        this.accountService = accountService;
+        this.rate = rate;
+        this.readRatio = readRatio;
+        this.keys = keys;
+        this.keyDistribution = keyDistribution;
+        this.workers = Executors.newFixedThreadPool(maxOutstanding, new ThreadFactory() {
+            private final AtomicInteger threads = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "load-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Adds every key once, as fast as the workers can, so that reads find accounts.
+     */
+    public void preload() throws InterruptedException {
+        final CountDownLatch added = new CountDownLatch(keys);
+        for (int key = 0; key < keys; key++) {
+            final int account = key;
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        write(account);
+                    } finally {
+                        added.countDown();
+                    }
+                }
+            });
+        }
+        added.await();
+    }
+
+    /**
+     * Sends requests on schedule for the warm-up and then for the measured duration, and waits for the last of
+     * them for at most the drain time. Only requests due after the warm-up are measured; those outstanding at
+     * the end of the drain time are recorded as unfinished with their latency up to then.
+     */
+    public void run(final long warmupNanos, final long durationNanos, final long drainNanos)
+            throws InterruptedException {
+        final double period = NANOS_PER_SECOND / rate;
+        final long start = System.nanoTime();
+        final long measuredFrom = start + warmupNanos;
+        final long end = measuredFrom + durationNanos;
+        for (long i = 0; ; ) {
+            final long due = start + (long) (i * period);
+            if (due >= end) {
+                break;
+            }
+            final long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            // behind schedule, e.g. after a pause of this thread: send what was due straight away, still
+            // measured from when it was due
+            send(due, due >= measuredFrom);
+            i++;
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(drainNanos, TimeUnit.NANOSECONDS)) {
+            final long deadline = System.nanoTime();
+            // before the interrupts, which fail the requests in flight
+            for (final Request request : outstanding) {
+                request.unfinished(deadline);
+            }
+            workers.shutdownNow();
+        }
+    }
+
+    public OperationStats getReads() {
+        return reads;
+    }
+
+    public OperationStats getWrites() {
+        return writes;
+    }
+
+    private void send(final long due, final boolean measured) {
+        final boolean read = random.nextDouble() < readRatio;
+        final int key = keyDistribution.next(random);
+        final OperationStats stats = read ? reads : writes;
+        if (measured) {
+            stats.sent();
+        }
+        final Request request = new Request(due, read, key, measured ? stats : null);
+        if (measured) {
+            outstanding.add(request);
+        }
+        workers.execute(request);
+    }
+
+    private void write(final int key) {
+        accountService.addAccount("load " + key, number(key),
+                BigDecimal.valueOf(ThreadLocalRandom.current().nextInt(MAX_BALANCE_CENTS), 2));
+    }
+
+    private static String number(final int key) {
+        return "load-" + key;
+    }
+
+    /**
+     * One request, recorded once: by the worker that completes it, or as unfinished at the drain deadline,
+     * whichever comes first.
+     */
+    private final class Request implements Runnable {
+        private final long due;
+        private final boolean read;
+        private final int key;
+        // null when not measured
+        private final OperationStats stats;
+        private final AtomicBoolean recorded = new AtomicBoolean();
+
+        private Request(final long due, final boolean read, final int key, final OperationStats stats) {
+            this.due = due;
+            this.read = read;
+            this.key = key;
+            this.stats = stats;
+        }
+
+        @Override
+        public void run() {
+            final long sentAt = System.nanoTime();
+            try {
+                if (read) {
+                    accountService.getAccount(number(key));
+                } else {
+                    write(key);
+                }
+            } catch (final RuntimeException e) {
+                if (stats != null && record()) {
+                    stats.failed();
+                }
+                return;
+            }
+            final long completedAt = System.nanoTime();
+            if (stats != null && record()) {
+                stats.completed(due, sentAt, completedAt);
+            }
+        }
+
+        private void unfinished(final long deadline) {
+            if (record()) {
+                stats.unfinished(due, deadline);
+            }
+        }
+
+        private boolean record() {
+            outstanding.remove(this);
+            return recorded.compareAndSet(false, true);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.codebreeze.rest.client.load;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What one kind of request measured. The latency of a request runs from when it was due to be sent, not from
+ * when it was sent: a request held up behind slow ones is charged for the wait, as a user would have been, so
+ * that a stall shows in the percentiles instead of being hidden by the requests it stopped from being sent.
+ * The service time runs from when it was actually sent, for comparison. A request still queued or in flight when
+ * the run stops waiting is unfinished, and its latency counts up to that deadline, so that the requests a
+ * stalled server never answers still weigh on the percentiles.
+ */
+public class OperationStats {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999, 0.9999};
+    private static final String[] QUANTILE_LABELS = {"p50", "p90", "p99", "p99.9", "p99.99"};
+
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong unfinished = new AtomicLong();
+
+    public OperationStats(final String name) {
+        this.name = name;
+    }
+
+    void sent() {
+        sent.incrementAndGet();
+    }
+
+    void completed(final long due, final long sentAt, final long completedAt) {
+        latency.record(completedAt - due);
+        serviceTime.record(completedAt - sentAt);
+        completed.incrementAndGet();
+    }
+
+    /**
+     * @param deadline when the run stopped waiting for the request; it may not even have been sent
+     */
+    void unfinished(final long due, final long deadline) {
+        latency.record(deadline - due);
+        unfinished.incrementAndGet();
+    }
+
+    void failed() {
+        errors.incrementAndGet();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getUnfinished() {
+        return unfinished.get();
+    }
+
+    /**
+     * of the completed requests and, up to the deadline, of the unfinished ones
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public LatencyHistogram getServiceTime() {
+        return serviceTime;
+    }
+
+    public void print(final PrintStream out) {
+        out.printf("%s: %d sent, %d completed, %d errors, %d unfinished%n", name, getSent(), getCompleted(),
+                getErrors(), getUnfinished());
+        print(out, "latency", latency);
+        print(out, "service time", serviceTime);
+    }
+
+    private static void print(final PrintStream out, final String label, final LatencyHistogram histogram) {
+        out.printf("  %-13s", label);
+        for (int i = 0; i < QUANTILES.length; i++) {
+            out.printf(" %s %s", QUANTILE_LABELS[i], millis(histogram.valueAtQuantile(QUANTILES[i])));
+        }
+        out.printf(" max %s%n", millis(histogram.max()));
+    }
+
+    private static String millis(final long nanos) {
+        return String.format("%.3fms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
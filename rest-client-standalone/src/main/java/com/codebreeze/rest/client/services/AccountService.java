@@ -1,11 +1,17 @@
 package com.codebreeze.rest.client.services;
 
+import com.google.common.base.Splitter;
 import com.google.common.collect.Maps;
+import com.codebreeze.rest.client.converters.AccountBinaryHttpMessageConverter;
 import com.codebreeze.rest.client.model.Account;
 import org.apache.commons.collections4.Factory;
 import org.apache.commons.collections4.map.LazyMap;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
@@ -18,6 +24,7 @@ import org.w3c.dom.Node;
 
 import java.awt.image.BufferedImage;
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,6 +35,8 @@ import static org.apache.commons.lang3.StringUtils.join;
 
 @Service
 public class AccountService {
+    private static final String VIRTUAL_NODES_HEADER = "X-Virtual-Nodes";
+
     @Autowired
     private RestTemplate restTemplate;
 
@@ -36,17 +45,65 @@ public class AccountService {
 
     private String host = "http://localhost:8080/";
 
+    // null to send every request to the host
+    private volatile HashRing ring;
+
+    /**
+     * @param host the base URL of the rest server, ending in a slash
+     */
+    public void setHost(final String host) {
+        this.host = host;
+    }
+
+    /**
+     * Sends the requests for each account straight to the server that owns it, by the same consistent hashing
+     * the servers partition accounts with.
+     *
+     * @param nodes        the base URLs of all the servers, as the servers list them
+     * @param virtualNodes the number of points each server has on the ring, as the servers have it
+     */
+    public void setNodes(final List<String> nodes, final int virtualNodes) {
+        this.ring = new HashRing(nodes, virtualNodes);
+    }
+
+    /**
+     * Asks the host which servers the accounts are partitioned over, and routes by them from now on; call it again
+     * when the servers change.
+     */
+    public void refreshNodes() {
+        final ResponseEntity<String> response =
+                restTemplate.getForEntity(join(host, "api/partition/nodes"), String.class);
+        setNodes(Splitter.on('\n').trimResults().omitEmptyStrings().splitToList(response.getBody()),
+                Integer.parseInt(response.getHeaders().getFirst(VIRTUAL_NODES_HEADER)));
+    }
+
     public String getAccount(final String number) {
-        String result = restTemplate.getForObject(join(host, "api/account/number/{number}"), String.class, number);
+        String result = restTemplate.getForObject(
+                join(hostFor(number), "api/account/number/{number}"), String.class, number);
 
         return result;
     }
 
+    /**
+     * Fetches the account in the compact application/x-account encoding rather than as text.
+     */
+    public Account findAccount(final String number) {
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(Collections.singletonList(AccountBinaryHttpMessageConverter.APPLICATION_ACCOUNT));
+        return restTemplate.exchange(join(hostFor(number), "api/account/number/{number}"), HttpMethod.GET,
+                new HttpEntity<Void>(headers), Account.class, number).getBody();
+    }
+
     public void addAccount(final String name, final String number, final BigDecimal balance) {
         MultiValueMap<String, String> vars = new LinkedMultiValueMap<String, String>();
         vars.add("name", name);
         vars.add("number", number);
         vars.add("balance", balance.toString());
-        String result = restTemplate.postForObject(join(host, "api/account"), vars, String.class);
+        String result = restTemplate.postForObject(join(hostFor(number), "api/account"), vars, String.class);
+    }
+
+    private String hostFor(final String number) {
+        final HashRing current = ring;
+        return current == null ? host : current.owner(number);
     }
 }
@@ -0,0 +1,83 @@
+package com.codebreeze.rest.client.services;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The servers' consistent hashing of account numbers onto nodes, so that a request goes straight to the node that
+ * owns its account. It must place nodes and hash numbers exactly as com.codebreeze.rest.server.partition.HashRing
+ * does: virtualNodes points per node at the murmur3 hashes of "address#i", the address without a trailing slash,
+ * with a number owned by the node at the first point at or after its hash, and ties going to the smaller address.
+ */
+final class HashRing {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final long[] points;
+    // the base URL, ending in a slash, of the node at each point
+    private final String[] owners;
+
+    HashRing(final Collection<String> nodes, final int virtualNodes) {
+        checkArgument(!nodes.isEmpty(), "a ring needs at least one node");
+        checkArgument(virtualNodes > 0, "virtual nodes must be positive");
+        final TreeSet<String> distinct = new TreeSet<String>();
+        for (final String node : nodes) {
+            distinct.add(node.endsWith("/") ? node.substring(0, node.length() - 1) : node);
+        }
+        final List<Point> all = new ArrayList<Point>(distinct.size() * virtualNodes);
+        for (final String node : distinct) {
+            for (int i = 0; i < virtualNodes; i++) {
+                all.add(new Point(hash(node + "#" + i), node));
+            }
+        }
+        Collections.sort(all, new Comparator<Point>() {
+            @Override
+            public int compare(final Point left, final Point right) {
+                final int byHash = Long.compare(left.hash, right.hash);
+                return byHash != 0 ? byHash : left.node.compareTo(right.node);
+            }
+        });
+        this.points = new long[all.size()];
+        this.owners = new String[all.size()];
+        for (int i = 0; i < all.size(); i++) {
+            points[i] = all.get(i).hash;
+            owners[i] = all.get(i).node + "/";
+        }
+    }
+
+    /**
+     * @return the base URL, ending in a slash, of the node the account number belongs to
+     */
+    String owner(final String number) {
+        final int found = Arrays.binarySearch(points, hash(number));
+        int index = found >= 0 ? found : -found - 1;
+        while (found >= 0 && index > 0 && points[index - 1] == points[index]) {
+            index--;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    private static long hash(final String value) {
+        return HASH.hashString(value, UTF_8).asLong();
+    }
+
+    private static final class Point {
+        private final long hash;
+        private final String node;
+
+        private Point(final long hash, final String node) {
+            this.hash = hash;
+            this.node = node;
+        }
+    }
+}
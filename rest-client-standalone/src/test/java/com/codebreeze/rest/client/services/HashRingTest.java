@@ -0,0 +1,34 @@
+package com.codebreeze.rest.client.services;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The same owners as the server's HashRingTest pins, so that the client sends each account to the node that
+ * owns it.
+ */
+public class HashRingTest {
+    private static final String[][] OWNERS = {
+            {"1", "http://a:8080/"},
+            {"2", "http://a:8080/"},
+            {"3", "http://c:8080/"},
+            {"42", "http://c:8080/"},
+            {"1000", "http://b:8080/"},
+            {"GB29NWBK60161331926819", "http://c:8080/"},
+            {"DE89370400440532013000", "http://b:8080/"},
+            {"FR1420041010050500013M02606", "http://a:8080/"},
+            {"alice", "http://b:8080/"},
+            {"\u00fcn\u00efc\u00f6d\u00e9", "http://c:8080/"},
+    };
+
+    @Test
+    public void placesNumbersWhereTheServersDo() {
+        final HashRing ring = new HashRing(Arrays.asList("http://a:8080", "http://b:8080/", "http://c:8080"), 128);
+        for (final String[] owner : OWNERS) {
+            assertEquals(owner[0], owner[1], ring.owner(owner[0]));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.codebreeze.rest.server.benchmarks;
+
+import com.codebreeze.rest.server.model.Account;
+import com.codebreeze.rest.server.services.AccountService;
+import com.codebreeze.rest.server.store.AccountStore;
+import com.codebreeze.rest.server.store.HeapAccountStore;
+import com.codebreeze.rest.server.store.MappedAccountStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link AccountService} lookups and writes, over a store of a given number of accounts, without a
+ * write-ahead log. Each thread draws from its own precomputed keys, so that neither key generation nor contention
+ * on a shared random number generator is measured.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class AccountServiceBenchmark {
+    private static final int KEYS_PER_THREAD = 1 << 16;
+
+    @Param( {"10000", "1000000"} )
+    private int keys;
+
+    @Param( {"heap", "mapped"} )
+    private String store;
+
+    private AccountStore accountStore;
+    private AccountService accountService;
+    private File file;
+
+    @Setup( Level.Trial )
+    public void setUp() throws IOException {
+        if ("mapped".equals(store)) {
+            file = File.createTempFile("accounts", ".db");
+            file.delete();
+            accountStore = MappedAccountStore.open(file, keys);
+        } else {
+            accountStore = new HeapAccountStore();
+        }
+        for (int i = 0; i < keys; i++) {
+            accountStore.put(new Account(number(i), "holder " + i, BigDecimal.valueOf(i, 2)));
+        }
+        accountService = new AccountService(accountStore);
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws IOException {
+        accountStore.close();
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public Account get(final Lookups lookups) {
+        return accountService.getAccount(lookups.next());
+    }
+
+    /**
+     * Updates existing accounts, so that the store stays the size it was set up with however long this runs.
+     */
+    @Benchmark
+    public Account add(final Updates updates) {
+        return accountService.addAccount(updates.next());
+    }
+
+    private static String number(final int key) {
+        return String.format("%010d", key);
+    }
+
+    /**
+     * Account numbers to look up, of which the hit ratio are in the store; a miss is a number past the last key.
+     */
+    @State( Scope.Thread )
+    public static class Lookups {
+        @Param( {"1.0", "0.9", "0.5"} )
+        private double hitRatio;
+
+        private final String[] numbers = new String[KEYS_PER_THREAD];
+        private int next;
+
+        @Setup( Level.Trial )
+        public void setUp(final AccountServiceBenchmark benchmark) {
+            final Random random = new Random(Thread.currentThread().getId());
+            for (int i = 0; i < numbers.length; i++) {
+                final int key = random.nextInt(benchmark.keys);
+                numbers[i] = number(random.nextDouble() < hitRatio ? key : benchmark.keys + key);
+            }
+        }
+
+        String next() {
+            return numbers[next++ & (KEYS_PER_THREAD - 1)];
+        }
+    }
+
+    @State( Scope.Thread )
+    public static class Updates {
+        private final Account[] accounts = new Account[KEYS_PER_THREAD];
+        private int next;
+
+        @Setup( Level.Trial )
+        public void setUp(final AccountServiceBenchmark benchmark) {
+            final Random random = new Random(Thread.currentThread().getId());
+            for (int i = 0; i < accounts.length; i++) {
+                final int key = random.nextInt(benchmark.keys);
+                accounts[i] = new Account(number(key), "holder " + key,
+                        BigDecimal.valueOf(random.nextInt(1000000), 2));
+            }
+        }
+
+        Account next() {
+            return accounts[next++ & (KEYS_PER_THREAD - 1)];
+        }
+    }
+}
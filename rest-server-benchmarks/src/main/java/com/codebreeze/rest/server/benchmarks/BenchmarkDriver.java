@@ -0,0 +1,72 @@
+package com.codebreeze.rest.server.benchmarks;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks once per thread count, with the gc profiler for allocation rates, and writes all of the
+ * results to one JSON file, e.g.
+ * java -jar target/benchmarks.jar --threads=1,4,16,64 --result=results/$(git rev-parse --short HEAD).json
+ * Each result carries its thread count and parameters, so the files of two commits can be compared row by row.
+ */
+public class BenchmarkDriver {
+    public static void main(final String... args) throws RunnerException {
+        final BenchmarkConfiguration benchmarkConfiguration = new BenchmarkConfiguration();
+        new JCommander(benchmarkConfiguration, args);
+
+        final List<RunResult> results = new ArrayList<RunResult>();
+        for (final Integer threads : benchmarkConfiguration.threads) {
+            final Options options = new OptionsBuilder()
+                    .include(benchmarkConfiguration.include)
+                    .threads(threads)
+                    .forks(benchmarkConfiguration.forks)
+                    .addProfiler(GCProfiler.class)
+                    .build();
+            results.addAll(new Runner(options).run());
+        }
+        ResultFormatFactory.getInstance(ResultFormatType.JSON, benchmarkConfiguration.result).writeOut(results);
+    }
+
+    @Parameters(separators = "= ")
+    private static class BenchmarkConfiguration {
+        @Parameter(
+                names = {"--threads"},
+                description = "the thread counts to run each benchmark at, comma separated"
+        )
+        private List<Integer> threads = Arrays.asList(1, 2, 4, 8, 16, 32, 64);
+
+        @Parameter(
+                names = {"--include"},
+                arity = 1,
+                description = "a regular expression for the benchmarks to run, e.g. AccountServiceBenchmark.get"
+        )
+        private String include = ".*";
+
+        @Parameter(
+                names = {"--forks"},
+                arity = 1,
+                description = "how many fresh JVMs to measure each benchmark in"
+        )
+        private Integer forks = 1;
+
+        @Parameter(
+                names = {"--result"},
+                arity = 1,
+                description = "the JSON file the results of all the runs are written to"
+        )
+        private String result = "jmh-result.json";
+    }
+}
@@ -0,0 +1,120 @@
+package com.codebreeze.rest.server.benchmarks;
+
+import com.codebreeze.rest.server.model.Account;
+import com.codebreeze.rest.server.rs.BinaryAccountProvider;
+import com.codebreeze.rest.server.rs.JsonAccountProvider;
+import com.codebreeze.rest.server.rs.ToStringProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Throughput of the message body readers and writers on a single account, in each media type the server speaks.
+ * Run with the gc profiler, as the {@link BenchmarkDriver} does, for the bytes each call allocates.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class ProviderBenchmark {
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    private final ToStringProvider text = new ToStringProvider();
+    private final JsonAccountProvider json = new JsonAccountProvider();
+    private final BinaryAccountProvider binary = new BinaryAccountProvider();
+    private final MultivaluedMap<String, Object> responseHeaders = new MultivaluedHashMap<String, Object>();
+    private final MultivaluedMap<String, String> requestHeaders = new MultivaluedHashMap<String, String>();
+    private final Account account = new Account("0000012345", "Jane Holder", new BigDecimal("1234.56"), 42);
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+    private byte[] textBody;
+    private byte[] jsonBody;
+    private byte[] binaryBody;
+
+    @Setup( Level.Trial )
+    public void setUp() throws IOException {
+        writeText();
+        textBody = out.toByteArray();
+        writeJson();
+        jsonBody = out.toByteArray();
+        writeBinary();
+        binaryBody = out.toByteArray();
+    }
+
+    @Benchmark
+    public int writeText() throws IOException {
+        out.reset();
+        text.writeTo(account, Account.class, Account.class, NO_ANNOTATIONS, MediaType.TEXT_PLAIN_TYPE,
+                responseHeaders, out);
+        return out.size();
+    }
+
+    /**
+     * the text as ToStringProvider wrote an account before it had AccountTextFormat: reflectionToString, then
+     * encoded, the baseline for the bytes writeText allocates
+     */
+    @Benchmark
+    public int writeReflectiveText() throws IOException {
+        out.reset();
+        out.write(account.toString().getBytes(UTF_8));
+        return out.size();
+    }
+
+    @Benchmark
+    public int writeJson() throws IOException {
+        out.reset();
+        json.writeTo(account, Account.class, Account.class, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE,
+                responseHeaders, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int writeBinary() throws IOException {
+        out.reset();
+        binary.writeTo(account, Account.class, Account.class, NO_ANNOTATIONS,
+                BinaryAccountProvider.APPLICATION_ACCOUNT_TYPE, responseHeaders, out);
+        return out.size();
+    }
+
+    /**
+     * the text format is only read as a String, as a text body is by the resources
+     */
+    @Benchmark
+    public Object readText() throws IOException {
+        return text.readFrom(Object.class, String.class, NO_ANNOTATIONS, MediaType.TEXT_PLAIN_TYPE,
+                requestHeaders, new ByteArrayInputStream(textBody));
+    }
+
+    @Benchmark
+    public Account readJson() throws IOException {
+        return json.readFrom(Account.class, Account.class, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE,
+                requestHeaders, new ByteArrayInputStream(jsonBody));
+    }
+
+    @Benchmark
+    public Account readBinary() throws IOException {
+        return binary.readFrom(Account.class, Account.class, NO_ANNOTATIONS,
+                BinaryAccountProvider.APPLICATION_ACCOUNT_TYPE, requestHeaders, new ByteArrayInputStream(binaryBody));
+    }
+}
@@ -0,0 +1,55 @@
+package com.codebreeze.rest.server;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The JettyDriver's shutdown hook. It fails /echo/ready, waits the drain delay and then stops the server, which
+ * waits up to its stop timeout for the echoes in flight. As a customizer of the connector it closes the
+ * connection after each response while draining, so that keep-alive clients reconnect to another server.
+ */
+public class GracefulShutdown implements Runnable, HttpConfiguration.Customizer {
+    /**
+     * the servlet context attribute the shutdown is published under, for readiness
+     */
+    public static final String ATTRIBUTE = GracefulShutdown.class.getName();
+    private static final Logger LOGGER = Logger.getLogger(GracefulShutdown.class.getName());
+
+    private final Server server;
+    private final long delayMillis;
+    private volatile boolean draining;
+
+    public GracefulShutdown(final Server server, final long delayMillis) {
+        this.server = server;
+        this.delayMillis = delayMillis;
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    @Override
+    public void run() {
+        draining = true;
+        try {
+            Thread.sleep(delayMillis);
+            server.stop();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final Exception e) {
+            LOGGER.log(Level.WARNING, "could not stop the server", e);
+        }
+    }
+
+    @Override
+    public void customize(final Connector connector, final HttpConfiguration configuration, final Request request) {
+        if (draining) {
+            request.getResponse().setHeader("Connection", "close");
+        }
+    }
+}
@@ -4,7 +4,10 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
 import com.codebreeze.rest.server.config.AppConfig;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.springframework.web.context.ContextLoaderListener;
@@ -16,7 +19,14 @@ import org.springframework.web.servlet.DispatcherServlet;
 public class JettyDriver {
     public static void main(final String... args) throws Exception {
         final EchoServiceConfiguration echoServiceConfiguration = parseParamsWithJCommander(args);
-        final Server server = new Server(echoServiceConfiguration.port);
+        final Server server = new Server();
+        final GracefulShutdown shutdown = new GracefulShutdown(server, echoServiceConfiguration.drainDelayMillis);
+        final ServerConnector connector = new ServerConnector(server);
+        connector.setPort(echoServiceConfiguration.port);
+        // the socket the JVM was started with, so that a replacement server can take it over before this one drains
+        connector.setInheritChannel(echoServiceConfiguration.inheritChannel);
+        connector.getConnectionFactory(HttpConnectionFactory.class).getHttpConfiguration().addCustomizer(shutdown);
+        server.addConnector(connector);
 
         final ServletHolder servletHolder = new ServletHolder(new DispatcherServlet(getContext()));
         final ServletContextHandler servletContextHandler = new ServletContextHandler();
@@ -26,7 +36,14 @@ public class JettyDriver {
 
         servletContextHandler.setInitParameter("contextClass", AnnotationConfigWebApplicationContext.class.getName());
 
-        server.setHandler(servletContextHandler);
+        servletContextHandler.setAttribute(GracefulShutdown.ATTRIBUTE, shutdown);
+
+        // counts the requests in flight, for the server to wait for as it stops
+        final StatisticsHandler statistics = new StatisticsHandler();
+        statistics.setHandler(servletContextHandler);
+        server.setHandler(statistics);
+        server.setStopTimeout(echoServiceConfiguration.drainTimeoutMillis);
+        Runtime.getRuntime().addShutdownHook(new Thread(shutdown, "drain"));
         server.start();
         server.join();
     }
@@ -45,6 +62,29 @@ public class JettyDriver {
                 description = "the port number on which the rest service will be listening"
         )
         private Integer port = 8080;
+
+        @Parameter(
+                names = {"--drain-delay-ms"},
+                arity = 1,
+                description = "how long a stopping server keeps taking requests once it is no longer ready, "
+                        + "for load balancers to notice"
+        )
+        private Long drainDelayMillis = 0L;
+
+        @Parameter(
+                names = {"--drain-timeout-ms"},
+                arity = 1,
+                description = "how long a stopping server waits for the requests in flight once it stops accepting"
+        )
+        private Long drainTimeoutMillis = 30000L;
+
+        @Parameter(
+                names = {"--inherit-channel"},
+                arity = 1,
+                description = "whether to listen on the socket the JVM was started with, e.g. by systemd socket "
+                        + "activation, so that servers replacing each other share it; --http-port otherwise"
+        )
+        private Boolean inheritChannel = false;
     }
 
     private static WebApplicationContext getContext() {
@@ -1,13 +1,18 @@
 package com.codebreeze.rest.server.controllers;
 
+import com.codebreeze.rest.server.GracefulShutdown;
 import com.codebreeze.rest.server.services.EchoService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.ServletContext;
+
 import static org.springframework.http.MediaType.APPLICATION_FORM_URLENCODED_VALUE;
 import static org.springframework.http.MediaType.TEXT_XML_VALUE;
 
@@ -17,6 +22,9 @@ public class EchoRestService {
     @Autowired
     private EchoService echoService;
 
+    @Autowired
+    private ServletContext servletContext;
+
     @RequestMapping(
             value = "/once",
             method = RequestMethod.POST,
@@ -33,4 +41,19 @@ public class EchoRestService {
     public String status() {
         return this.getClass().getSimpleName() + " is OK and Alive";
     }
+
+    /**
+     * 503 once the server is draining to shut down, for load balancers to stop sending requests here
+     */
+    @RequestMapping(
+            value = "/ready",
+            method = RequestMethod.GET
+    )
+    public ResponseEntity<String> ready() {
+        final GracefulShutdown shutdown = (GracefulShutdown) servletContext.getAttribute(GracefulShutdown.ATTRIBUTE);
+        if (shutdown != null && shutdown.isDraining()) {
+            return new ResponseEntity<String>("draining", HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return new ResponseEntity<String>("ready", HttpStatus.OK);
+    }
 }
@@ -1,29 +1,486 @@
 package com.codebreeze.rest.server;
 
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.codebreeze.rest.server.concurrent.RequestThreads;
 import com.codebreeze.rest.server.config.AppConfig;
+import com.codebreeze.rest.server.config.FastStartContext;
+import com.codebreeze.rest.server.metrics.Metrics;
+import com.codebreeze.rest.server.metrics.StartupTimer;
+import com.codebreeze.rest.server.web.AdmissionFilter;
+import com.codebreeze.rest.server.web.FollowerFilter;
+import com.codebreeze.rest.server.web.GracefulShutdown;
+import com.codebreeze.rest.server.web.MetricsFilter;
 import org.apache.cxf.transport.servlet.CXFServlet;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.springframework.web.context.ConfigurableWebApplicationContext;
 import org.springframework.web.context.ContextLoaderListener;
 import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
 
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.EnumSet;
+import java.util.logging.Logger;
+
 
 public class Driver {
+    private static final Logger LOGGER = Logger.getLogger(Driver.class.getName());
+    private static final int PROBE_TIMEOUT_MILLIS = 10000;
+    /**
+     * what a training run requests, in each of the media types given, so that the classes that serve them are
+     * loaded and go into the class data sharing archive; reads only, so the accounts are left as they were
+     */
+    private static final String[][] TRAINING_REQUESTS = {
+            {"/api/account/number/0", "text/plain", "application/json", "application/x-account"},
+            {"/api/account/scan?limit=10", "text/plain", "application/json"},
+            {"/api/account/search?name=a&limit=10", "text/plain", "application/json"},
+            {"/api/account/stats?top=10", "text/plain"},
+            {"/api/replication", "text/plain"},
+            {"/api/partition", "text/plain"},
+            {"/api/server/admission", "text/plain"},
+            {"/api/server/metrics", "text/plain"}};
+
     public static void main(final String... args) throws Exception {
-        final Server server = new Server(8080);
+        final StartupTimer startup = new StartupTimer();
+        final long mainNanos = System.nanoTime();
+        final ServerConfiguration serverConfiguration = parseParamsWithJCommander(args);
+        final Server server = newServer(serverConfiguration);
 
         final ServletHolder servletHolder = new ServletHolder(new CXFServlet());
+        // lets resources suspend a request and complete it on another thread
+        servletHolder.setAsyncSupported(true);
+        // initialized as the server starts, rather than by the first request
+        servletHolder.setInitOrder(0);
         final ServletContextHandler context = new ServletContextHandler();
         context.setContextPath("/");
         context.addServlet(servletHolder, "/*");
-        context.addEventListener(new ContextLoaderListener());
+        context.setAttribute(StartupTimer.ATTRIBUTE, startup);
+        context.addEventListener(new ContextLoaderListener() {
+            @Override
+            public void contextInitialized(final ServletContextEvent event) {
+                final long start = System.nanoTime();
+                super.contextInitialized(event);
+                startup.record("context", start);
+            }
 
-        context.setInitParameter("contextClass", AnnotationConfigWebApplicationContext.class.getName());
-        context.setInitParameter("contextConfigLocation", AppConfig.class.getName());
+            @Override
+            protected void customizeContext(final ServletContext servletContext,
+                                            final ConfigurableWebApplicationContext applicationContext) {
+                super.customizeContext(servletContext, applicationContext);
+                startup.timeBeans(applicationContext);
+            }
+        });
+        // filters run in the order they are added: connections are closed while draining, whatever the response,
+        // and requests are timed from before admission control
+        final GracefulShutdown shutdown = addGracefulShutdown(context, server, serverConfiguration);
+        if (serverConfiguration.metrics) {
+            addMetricsFilter(context);
+        }
+        // a follower redirects writes before they take an admission slot
+        if (!serverConfiguration.follow.isEmpty()) {
+            addFollowerFilter(context, serverConfiguration.follow);
+        }
+        addAdmissionFilter(context, serverConfiguration);
 
-        server.setHandler(context);
+        if (serverConfiguration.fastStart) {
+            context.setInitParameter("contextClass", FastStartContext.class.getName());
+        } else {
+            context.setInitParameter("contextClass", AnnotationConfigWebApplicationContext.class.getName());
+            context.setInitParameter("contextConfigLocation", AppConfig.class.getName());
+        }
+        // servlet context init parameters are visible to AppConfig through the spring Environment
+        context.setInitParameter(AppConfig.ACCOUNT_STORE, serverConfiguration.store);
+        context.setInitParameter(AppConfig.ACCOUNT_STORE_PATH, serverConfiguration.storePath);
+        context.setInitParameter(AppConfig.ACCOUNT_STORE_CAPACITY, String.valueOf(serverConfiguration.storeCapacity));
+        context.setInitParameter(AppConfig.WAL_PATH, serverConfiguration.walPath);
+        context.setInitParameter(AppConfig.WAL_DURABILITY, serverConfiguration.walDurability);
+        context.setInitParameter(AppConfig.WAL_FLUSH_INTERVAL_MILLIS, String.valueOf(serverConfiguration.walFlushIntervalMillis));
+        context.setInitParameter(AppConfig.SNAPSHOT_DIR, serverConfiguration.snapshotDir);
+        context.setInitParameter(AppConfig.SNAPSHOT_INTERVAL_SECONDS, String.valueOf(serverConfiguration.snapshotIntervalSeconds));
+        context.setInitParameter(AppConfig.REQUEST_THREADS, serverConfiguration.threads);
+        context.setInitParameter(AppConfig.ASYNC_REQUESTS, String.valueOf(serverConfiguration.async));
+        context.setInitParameter(AppConfig.ASYNC_THREADS, String.valueOf(serverConfiguration.asyncThreads));
+        context.setInitParameter(AppConfig.ASYNC_QUEUE, String.valueOf(serverConfiguration.asyncQueue));
+        context.setInitParameter(AppConfig.NAME_INDEX, String.valueOf(serverConfiguration.nameIndex));
+        context.setInitParameter(AppConfig.BALANCE_INDEX, String.valueOf(serverConfiguration.balanceIndex));
+        context.setInitParameter(AppConfig.CHANGE_LOG_CAPACITY, String.valueOf(serverConfiguration.changeLogCapacity));
+        context.setInitParameter(AppConfig.REPLICATION_LEADER, serverConfiguration.follow);
+        context.setInitParameter(AppConfig.PARTITION_SELF, serverConfiguration.partitionSelf.isEmpty()
+                ? "http://localhost:" + serverConfiguration.port : serverConfiguration.partitionSelf);
+        context.setInitParameter(AppConfig.PARTITION_NODES, serverConfiguration.partitionNodes);
+        context.setInitParameter(AppConfig.PARTITION_VIRTUAL_NODES, String.valueOf(serverConfiguration.virtualNodes));
+
+        // counts the requests in flight, for the server to wait for as it stops
+        final StatisticsHandler statistics = new StatisticsHandler();
+        statistics.setHandler(context);
+        server.setHandler(statistics);
+        server.setStopTimeout(serverConfiguration.drainTimeoutMillis);
+        Runtime.getRuntime().addShutdownHook(new Thread(shutdown, "drain"));
+        startup.record("configuration", mainNanos);
+        final long startNanos = System.nanoTime();
         server.start();
+        startup.record("server start", startNanos);
+        startup.ready();
+        // the first request also warms up the dispatch through CXF before clients get to it
+        try {
+            probe(serverConfiguration.port, "/api/server/startup", "text/plain");
+            startup.firstResponse();
+        } catch (final IOException e) {
+            LOGGER.warning("could not request the server's own startup times: " + e);
+        }
+        LOGGER.info("started " + startup.getStats());
+        if (serverConfiguration.trainingRun) {
+            train(serverConfiguration.port);
+            // stopped by the shutdown hook
+            System.exit(0);
+        }
         server.join();
     }
+
+    /**
+     * Makes the requests a server starting from a class data sharing archive is to be quick at, so that the JVM
+     * archives the classes they loaded when it exits, if it was started with -XX:ArchiveClassesAtExit.
+     */
+    private static void train(final int port) throws IOException {
+        for (final String[] request : TRAINING_REQUESTS) {
+            for (int i = 1; i < request.length; i++) {
+                probe(port, request[0], request[i]);
+            }
+        }
+        LOGGER.info("training run done");
+    }
+
+    /**
+     * GETs a path from the server itself, and reads the response, whatever its status
+     */
+    private static void probe(final int port, final String path, final String accept) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path)
+                .openConnection();
+        connection.setConnectTimeout(PROBE_TIMEOUT_MILLIS);
+        connection.setReadTimeout(PROBE_TIMEOUT_MILLIS);
+        connection.setInstanceFollowRedirects(false);
+        connection.setRequestProperty("Accept", accept);
+        final InputStream in = connection.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST
+                ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            try {
+                final byte[] buffer = new byte[4096];
+                while (in.read(buffer) >= 0) {
+                    // drained, so that the connection can be reused
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Jetty's own pool of platform threads, or an unbounded pool of virtual threads that the acceptor and
+     * selectors share with the requests they dispatch; listening on the port, or on a socket inherited from
+     * whatever started the JVM, which can hand the same socket to the next server before this one drains
+     */
+    private static Server newServer(final ServerConfiguration serverConfiguration) {
+        final RequestThreads threads = RequestThreads.parse(serverConfiguration.threads);
+        final Server server = threads == RequestThreads.PLATFORM
+                ? new Server()
+                // virtual threads are not pooled
+                : new Server(new ExecutorThreadPool(threads.newExecutor("http", Integer.MAX_VALUE, 0)));
+        final ServerConnector connector = new ServerConnector(server);
+        connector.setPort(serverConfiguration.port);
+        connector.setInheritChannel(serverConfiguration.inheritChannel);
+        server.addConnector(connector);
+        return server;
+    }
+
+    /**
+     * drains the server, rather than dropping what it is doing, when the JVM is told to stop
+     */
+    private static GracefulShutdown addGracefulShutdown(final ServletContextHandler context, final Server server,
+                                                        final ServerConfiguration serverConfiguration) {
+        final GracefulShutdown shutdown = new GracefulShutdown(server, serverConfiguration.drainDelayMillis);
+        context.setAttribute(GracefulShutdown.ATTRIBUTE, shutdown);
+        final FilterHolder filterHolder = new FilterHolder(shutdown);
+        filterHolder.setAsyncSupported(true);
+        context.addFilter(filterHolder, "/*", EnumSet.of(DispatcherType.REQUEST));
+        return shutdown;
+    }
+
+    /**
+     * times and counts every request; the metrics are a context attribute, rather than a bean, so that they
+     * are there before the spring context starts and the filter is not tied to it
+     */
+    private static void addMetricsFilter(final ServletContextHandler context) {
+        final Metrics metrics = new Metrics();
+        context.setAttribute(Metrics.ATTRIBUTE, metrics);
+        final FilterHolder filterHolder = new FilterHolder(new MetricsFilter(metrics));
+        filterHolder.setAsyncSupported(true);
+        context.addFilter(filterHolder, "/*", EnumSet.of(DispatcherType.REQUEST));
+    }
+
+    /**
+     * sheds account requests beyond the configured load, and change streams beyond their cap, before they
+     * reach CXF; the server's own endpoints stay reachable, so an overloaded server can still be looked at
+     */
+    private static void addAdmissionFilter(final ServletContextHandler context,
+                                           final ServerConfiguration serverConfiguration) {
+        final AdmissionFilter filter = new AdmissionFilter(
+                serverConfiguration.maxInFlight,
+                serverConfiguration.queueTimeoutMillis,
+                serverConfiguration.rateLimit,
+                serverConfiguration.maxSubscribers);
+        if (filter.isEnabled()) {
+            final FilterHolder filterHolder = new FilterHolder(filter);
+            filterHolder.setAsyncSupported(true);
+            context.addFilter(filterHolder, "/api/account/*", EnumSet.of(DispatcherType.REQUEST));
+        }
+    }
+
+    /**
+     * serves account reads and sends writes to the leader
+     */
+    private static void addFollowerFilter(final ServletContextHandler context, final String leader) {
+        final FilterHolder filterHolder = new FilterHolder(new FollowerFilter(leader));
+        filterHolder.setAsyncSupported(true);
+        context.addFilter(filterHolder, "/api/account/*", EnumSet.of(DispatcherType.REQUEST));
+    }
+
+    private static ServerConfiguration parseParamsWithJCommander(final String... args) {
+        final ServerConfiguration serverConfiguration = new ServerConfiguration();
+        new JCommander(serverConfiguration, args);
+        return serverConfiguration;
+    }
+
+    @Parameters(separators = "= ")
+    private static class ServerConfiguration {
+        @Parameter(
+                names = {"--http-port"},
+                arity = 1,
+                description = "the port number on which the rest service will be listening"
+        )
+        private Integer port = 8080;
+
+        @Parameter(
+                names = {"--store"},
+                arity = 1,
+                description = "where accounts are kept: heap, or mapped for an off-heap memory-mapped table"
+        )
+        private String store = "heap";
+
+        @Parameter(
+                names = {"--store-path"},
+                arity = 1,
+                description = "the file holding the memory-mapped account table"
+        )
+        private String storePath = "accounts.db";
+
+        @Parameter(
+                names = {"--store-capacity"},
+                arity = 1,
+                description = "the number of accounts a new memory-mapped table is sized for"
+        )
+        private Long storeCapacity = 1000000L;
+
+        @Parameter(
+                names = {"--wal-path"},
+                arity = 1,
+                description = "the write-ahead log file; accounts are not logged if this is not given"
+        )
+        private String walPath = "";
+
+        @Parameter(
+                names = {"--wal-durability"},
+                arity = 1,
+                description = "when a write returns: per-write, per-batch (group commit) or async"
+        )
+        private String walDurability = "per-batch";
+
+        @Parameter(
+                names = {"--wal-flush-interval-ms"},
+                arity = 1,
+                description = "how often an async write-ahead log is forced to disk"
+        )
+        private Long walFlushIntervalMillis = 10L;
+
+        @Parameter(
+                names = {"--snapshot-dir"},
+                arity = 1,
+                description = "where snapshots of the heap store are kept; no snapshots are taken if this is not given"
+        )
+        private String snapshotDir = "";
+
+        @Parameter(
+                names = {"--snapshot-interval-s"},
+                arity = 1,
+                description = "how often a snapshot is taken"
+        )
+        private Long snapshotIntervalSeconds = 300L;
+
+        @Parameter(
+                names = {"--threads"},
+                arity = 1,
+                description = "what jetty dispatches requests on: platform, or virtual (needs Java 21)"
+        )
+        private String threads = "platform";
+
+        @Parameter(
+                names = {"--async"},
+                description = "suspend account requests and complete them on a separate executor of --threads threads"
+        )
+        private boolean async = false;
+
+        @Parameter(
+                names = {"--async-threads"},
+                arity = 1,
+                description = "how many platform threads complete --async requests at once"
+        )
+        private Integer asyncThreads = 200;
+
+        @Parameter(
+                names = {"--async-queue"},
+                arity = 1,
+                description = "how many --async requests wait for a platform thread before more are shed with 503"
+        )
+        private Integer asyncQueue = 1000;
+
+        @Parameter(
+                names = {"--name-index"},
+                arity = 1,
+                description = "whether to index account names on the heap for search; off by default, as it is built "
+                        + "by reading every account on startup, which undoes the quick start of the mapped store "
+                        + "and of snapshots; search answers 404 without it"
+        )
+        private Boolean nameIndex = false;
+
+        @Parameter(
+                names = {"--balance-index"},
+                arity = 1,
+                description = "whether to keep balance aggregates and an index by balance on the heap for stats; off "
+                        + "by default, as it is built by reading every account on startup, which undoes the quick "
+                        + "start of the mapped store and of snapshots; stats answers 404 without it"
+        )
+        private Boolean balanceIndex = false;
+
+        @Parameter(
+                names = {"--change-log-capacity"},
+                arity = 1,
+                description = "how many changes /api/account/changes can be resumed from; 0 for no change feed"
+        )
+        private Integer changeLogCapacity = 65536;
+
+        @Parameter(
+                names = {"--follow"},
+                arity = 1,
+                description = "the address of a leader to replicate accounts from, e.g. http://localhost:8080; "
+                        + "reads are then served here and writes redirected to it"
+        )
+        private String follow = "";
+
+        @Parameter(
+                names = {"--partition-nodes"},
+                arity = 1,
+                description = "the comma separated addresses of all the servers to spread accounts over by "
+                        + "consistent hashing, this one included; empty to keep every account here"
+        )
+        private String partitionNodes = "";
+
+        @Parameter(
+                names = {"--partition-self"},
+                arity = 1,
+                description = "this server's address as --partition-nodes lists it; http://localhost:<port> by default"
+        )
+        private String partitionSelf = "";
+
+        @Parameter(
+                names = {"--virtual-nodes"},
+                arity = 1,
+                description = "how many points each server has on the hash ring; clients must use the same"
+        )
+        private Integer virtualNodes = 128;
+
+        @Parameter(
+                names = {"--max-in-flight"},
+                arity = 1,
+                description = "how many account requests are served at once; 0 for no cap"
+        )
+        private Integer maxInFlight = 0;
+
+        @Parameter(
+                names = {"--queue-timeout-ms"},
+                arity = 1,
+                description = "how long a request may wait for one of --max-in-flight before it is shed with 503"
+        )
+        private Long queueTimeoutMillis = 100L;
+
+        @Parameter(
+                names = {"--rate-limit"},
+                arity = 1,
+                description = "how many account requests a second each client address may make; 0 for no limit"
+        )
+        private Double rateLimit = 0d;
+
+        @Parameter(
+                names = {"--max-subscribers"},
+                arity = 1,
+                description = "how many /api/account/changes streams may be open at once, each holding a request "
+                        + "thread; more are turned away with 503. 0 for no cap"
+        )
+        private Integer maxSubscribers = 64;
+
+        @Parameter(
+                names = {"--metrics"},
+                arity = 1,
+                description = "whether to time and count requests per endpoint, for /api/server/metrics"
+        )
+        private Boolean metrics = true;
+
+        @Parameter(
+                names = {"--drain-delay-ms"},
+                arity = 1,
+                description = "how long a stopping server keeps taking requests once it is no longer ready, "
+                        + "for load balancers to notice"
+        )
+        private Long drainDelayMillis = 0L;
+
+        @Parameter(
+                names = {"--drain-timeout-ms"},
+                arity = 1,
+                description = "how long a stopping server waits for the requests in flight once it stops accepting"
+        )
+        private Long drainTimeoutMillis = 30000L;
+
+        @Parameter(
+                names = {"--inherit-channel"},
+                arity = 1,
+                description = "whether to listen on the socket the JVM was started with, e.g. by systemd socket "
+                        + "activation, so that servers replacing each other share it; --http-port otherwise"
+        )
+        private Boolean inheritChannel = false;
+
+        @Parameter(
+                names = {"--fast-start"},
+                arity = 1,
+                description = "whether to register AppConfig's beans directly, without classpath scanning and "
+                        + "configuration class proxies; the time each part of starting takes is at /api/server/startup"
+        )
+        private Boolean fastStart = false;
+
+        @Parameter(
+                names = {"--training-run"},
+                description = "start, make a few requests of every kind and exit, for recording a class data sharing "
+                        + "archive with -XX:ArchiveClassesAtExit"
+        )
+        private boolean trainingRun = false;
+    }
 }
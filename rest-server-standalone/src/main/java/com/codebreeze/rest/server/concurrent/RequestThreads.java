@@ -0,0 +1,92 @@
+package com.codebreeze.rest.server.concurrent;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * What requests run on. A virtual thread costs a small heap object rather than a stack and a kernel thread, so
+ * with {@link #VIRTUAL} concurrency is bounded by memory rather than by the size of a pool. A pool of
+ * {@link #PLATFORM} threads is bounded, and so is its queue, so that a burst is turned away rather than piling
+ * up threads.
+ */
+public enum RequestThreads {
+    /**
+     * ordinary threads, created as needed up to the pool size and reused; idle ones end after a minute
+     */
+    PLATFORM {
+        @Override
+        public ExecutorService newExecutor(final String name, final int maxThreads, final int queueCapacity) {
+            checkArgument(maxThreads > 0, "a pool needs at least one thread");
+            final AtomicInteger threads = new AtomicInteger();
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    maxThreads, maxThreads, IDLE_SECONDS, TimeUnit.SECONDS,
+                    queueCapacity == 0
+                            ? new SynchronousQueue<Runnable>()
+                            : new ArrayBlockingQueue<Runnable>(queueCapacity),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            final Thread thread = new Thread(runnable, name + "-" + threads.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    },
+    /**
+     * a new virtual thread per task; needs Java 21 or later at run time
+     */
+    VIRTUAL {
+        @Override
+        public ExecutorService newExecutor(final String name, final int maxThreads, final int queueCapacity) {
+            if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null) {
+                throw new IllegalStateException("virtual threads need Java 21 or later, this is "
+                        + System.getProperty("java.version"));
+            }
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+            } catch (final IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("cannot create a virtual thread executor", e);
+            }
+        }
+    };
+
+    private static final long IDLE_SECONDS = 60;
+    // looked up reflectively, as this is built for Java 8
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findNewVirtualThreadPerTaskExecutor();
+
+    /**
+     * @param name          what the threads are named after, where the kind of thread has names
+     * @param maxThreads    how many tasks run at once, where the threads are pooled
+     * @param queueCapacity how many tasks wait for a pooled thread, 0 for none to wait
+     * @return an executor that throws RejectedExecutionException for a task it has no room for
+     */
+    public abstract ExecutorService newExecutor(String name, int maxThreads, int queueCapacity);
+
+    /**
+     * parses the command line spelling, e.g. virtual
+     */
+    public static RequestThreads parse(final String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+
+    private static Method findNewVirtualThreadPerTaskExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -1,36 +1,116 @@
 package com.codebreeze.rest.server.config;
 
+import com.codebreeze.rest.server.concurrent.RequestThreads;
+import com.codebreeze.rest.server.metrics.Metrics;
+import com.codebreeze.rest.server.partition.Partitioner;
+import com.codebreeze.rest.server.replication.Follower;
 import com.codebreeze.rest.server.rs.AccountRestService;
+import com.codebreeze.rest.server.rs.BinaryAccountProvider;
+import com.codebreeze.rest.server.rs.EndpointInterceptor;
+import com.codebreeze.rest.server.rs.EntityWriteTimer;
 import com.codebreeze.rest.server.rs.JaxRsApiApplication;
+import com.codebreeze.rest.server.rs.JsonAccountProvider;
+import com.codebreeze.rest.server.rs.PartitionRestService;
+import com.codebreeze.rest.server.rs.ReplicationRestService;
+import com.codebreeze.rest.server.rs.ServerRestService;
 import com.codebreeze.rest.server.rs.ToStringProvider;
 import com.codebreeze.rest.server.services.AccountService;
+import com.codebreeze.rest.server.services.ChangeLog;
+import com.codebreeze.rest.server.services.Snapshotter;
+import com.codebreeze.rest.server.store.AccountStore;
+import com.codebreeze.rest.server.store.HeapAccountStore;
+import com.codebreeze.rest.server.store.MappedAccountStore;
+import com.codebreeze.rest.server.store.SnapshotAccountStore;
+import com.codebreeze.rest.server.wal.Durability;
+import com.codebreeze.rest.server.wal.WriteAheadLog;
+import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.cxf.bus.spring.SpringBus;
 import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.interceptor.Interceptor;
 import org.apache.cxf.jaxrs.JAXRSServerFactoryBean;
+import org.apache.cxf.message.Message;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.type.AnnotatedTypeMetadata;
 
+import javax.servlet.ServletContext;
 import javax.ws.rs.ext.RuntimeDelegate;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import static java.util.Arrays.asList;
 
-
+/**
+ * The server's beans. They are given the beans they need as parameters, rather than calling each other's
+ * methods, so that {@link FastStartContext} can create them from these methods as they are, without the scan,
+ * the parsing and the CGLIB subclass that make the methods of a {@code @Configuration} return shared beans.
+ */
 @Configuration
 @ComponentScan
 public class AppConfig {
+    public static final String ACCOUNT_STORE = "account.store";
+    public static final String ACCOUNT_STORE_PATH = "account.store.path";
+    public static final String ACCOUNT_STORE_CAPACITY = "account.store.capacity";
+    public static final String WAL_PATH = "wal.path";
+    public static final String WAL_DURABILITY = "wal.durability";
+    public static final String WAL_FLUSH_INTERVAL_MILLIS = "wal.flush.interval.millis";
+    public static final String SNAPSHOT_DIR = "snapshot.dir";
+    public static final String SNAPSHOT_INTERVAL_SECONDS = "snapshot.interval.seconds";
+    public static final String REQUEST_THREADS = "request.threads";
+    public static final String ASYNC_REQUESTS = "request.async";
+    public static final String ASYNC_THREADS = "request.async.threads";
+    public static final String ASYNC_QUEUE = "request.async.queue";
+    public static final String NAME_INDEX = "account.name.index";
+    public static final String BALANCE_INDEX = "account.balance.index";
+    public static final String CHANGE_LOG_CAPACITY = "account.change.log.capacity";
+    public static final String REPLICATION_LEADER = "replication.leader";
+    public static final String PARTITION_SELF = "partition.self";
+    public static final String PARTITION_NODES = "partition.nodes";
+    public static final String PARTITION_VIRTUAL_NODES = "partition.virtual.nodes";
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private ServletContext servletContext;
+
     @Bean( destroyMethod = "shutdown" )
     public SpringBus cxf() {
         return new SpringBus();
     }
 
     @Bean
-    public Server jaxRsServer() {
-        JAXRSServerFactoryBean factory = RuntimeDelegate.getInstance().createEndpoint( jaxRsApiApplication(), JAXRSServerFactoryBean.class );
-        factory.setServiceBeans(Arrays.<Object>asList(peopleRestService()));
+    public Server jaxRsServer(final SpringBus cxf, final JaxRsApiApplication jaxRsApiApplication,
+                              final AccountRestService peopleRestService, final ServerRestService serverRestService,
+                              final ReplicationRestService replicationRestService,
+                              final PartitionRestService partitionRestService) {
+        JAXRSServerFactoryBean factory = RuntimeDelegate.getInstance().createEndpoint( jaxRsApiApplication, JAXRSServerFactoryBean.class );
+        factory.setBus(cxf);
+        factory.setServiceBeans(Arrays.<Object>asList(
+                peopleRestService, serverRestService, replicationRestService, partitionRestService));
         factory.setAddress(factory.getAddress());
-        factory.setProviders(asList(new ToStringProvider()));
+        final List<Object> providers = new ArrayList<Object>(
+                asList(new ToStringProvider(), new BinaryAccountProvider(), new JsonAccountProvider()));
+        // set up by the Driver unless metrics are off
+        final Metrics metrics = (Metrics) servletContext.getAttribute(Metrics.ATTRIBUTE);
+        if (metrics != null) {
+            providers.add(new EntityWriteTimer(metrics));
+            factory.setInInterceptors(Collections.<Interceptor<? extends Message>>singletonList(
+                    new EndpointInterceptor(metrics)));
+        }
+        factory.setProviders(providers);
         return factory.create();
     }
 
@@ -45,7 +125,123 @@ public class AppConfig {
     }
 
     @Bean
-    public AccountService accountService() {
-        return new AccountService();
+    public ServerRestService serverRestService() {
+        return new ServerRestService();
+    }
+
+    @Bean
+    public ReplicationRestService replicationRestService() {
+        return new ReplicationRestService();
+    }
+
+    @Bean
+    public PartitionRestService partitionRestService() {
+        return new PartitionRestService();
+    }
+
+    @Bean( destroyMethod = "close" )
+    public AccountService accountService(final AccountStore store) throws IOException {
+        final String walPath = environment.getProperty(WAL_PATH, "");
+        // off unless asked for: each is built by reading every account, on the heap
+        final boolean indexNames = environment.getProperty(NAME_INDEX, Boolean.class, false);
+        final boolean indexBalances = environment.getProperty(BALANCE_INDEX, Boolean.class, false);
+        final int changeLogCapacity = environment.getProperty(CHANGE_LOG_CAPACITY, Integer.class, 65536);
+        final ChangeLog changes = changeLogCapacity == 0 ? null : new ChangeLog(changeLogCapacity);
+        if (walPath.isEmpty()) {
+            return new AccountService(store, null, indexNames, indexBalances, changes);
+        }
+        final WriteAheadLog log = new WriteAheadLog(
+                new File(walPath),
+                Durability.parse(environment.getProperty(WAL_DURABILITY, "per-batch")),
+                environment.getProperty(WAL_FLUSH_INTERVAL_MILLIS, Long.class, 10L));
+        log.replay(store, store instanceof SnapshotAccountStore ? ((SnapshotAccountStore) store).getWalPosition() : 0);
+        return new AccountService(store, log, indexNames, indexBalances, changes);
+    }
+
+    /**
+     * what account requests complete on: the thread that received them, unless they are async
+     */
+    @Bean( destroyMethod = "shutdown" )
+    public ExecutorService requestExecutor() {
+        if (!environment.getProperty(ASYNC_REQUESTS, Boolean.class, false)) {
+            return MoreExecutors.newDirectExecutorService();
+        }
+        return RequestThreads.parse(environment.getProperty(REQUEST_THREADS, "platform")).newExecutor(
+                "request",
+                environment.getProperty(ASYNC_THREADS, Integer.class, 200),
+                environment.getProperty(ASYNC_QUEUE, Integer.class, 1000));
+    }
+
+    @Bean( destroyMethod = "close" )
+    public AccountStore accountStore() throws IOException {
+        if ("mapped".equals(environment.getProperty(ACCOUNT_STORE, "heap"))) {
+            return MappedAccountStore.open(
+                    new File(environment.getProperty(ACCOUNT_STORE_PATH, "accounts.db")),
+                    environment.getProperty(ACCOUNT_STORE_CAPACITY, Long.class, 1000000L));
+        }
+        if (snapshotsEnabled(environment)) {
+            return SnapshotAccountStore.open(new File(environment.getProperty(SNAPSHOT_DIR)));
+        }
+        return new HeapAccountStore();
+    }
+
+    @Bean( initMethod = "start", destroyMethod = "close" )
+    @Conditional( SnapshotsEnabled.class )
+    public Snapshotter snapshotter(final AccountService accountService, final AccountStore accountStore) {
+        return new Snapshotter(
+                accountService,
+                (SnapshotAccountStore) accountStore,
+                environment.getProperty(SNAPSHOT_INTERVAL_SECONDS, Long.class, 300L));
+    }
+
+    /**
+     * keeps the accounts a copy of the leader's, when this server follows one
+     */
+    @Bean( initMethod = "start", destroyMethod = "close" )
+    @Conditional( Following.class )
+    public Follower follower(final AccountService accountService) {
+        return new Follower(environment.getProperty(REPLICATION_LEADER), accountService);
+    }
+
+    /**
+     * this server's share of the accounts, when they are spread over several
+     */
+    @Bean( initMethod = "start", destroyMethod = "close" )
+    @Conditional( Partitioned.class )
+    public Partitioner partitioner(final AccountService accountService) {
+        return new Partitioner(
+                environment.getProperty(PARTITION_SELF),
+                Splitter.on(',').trimResults().omitEmptyStrings().splitToList(environment.getProperty(PARTITION_NODES)),
+                environment.getProperty(PARTITION_VIRTUAL_NODES, Integer.class, 128),
+                accountService);
+    }
+
+    /**
+     * snapshots are taken of the heap store; the mapped store is its own image
+     */
+    private static boolean snapshotsEnabled(final Environment environment) {
+        return !"mapped".equals(environment.getProperty(ACCOUNT_STORE, "heap"))
+                && !environment.getProperty(SNAPSHOT_DIR, "").isEmpty();
+    }
+
+    static class SnapshotsEnabled implements Condition {
+        @Override
+        public boolean matches(final ConditionContext context, final AnnotatedTypeMetadata metadata) {
+            return snapshotsEnabled(context.getEnvironment());
+        }
+    }
+
+    static class Following implements Condition {
+        @Override
+        public boolean matches(final ConditionContext context, final AnnotatedTypeMetadata metadata) {
+            return !context.getEnvironment().getProperty(REPLICATION_LEADER, "").isEmpty();
+        }
+    }
+
+    static class Partitioned implements Condition {
+        @Override
+        public boolean matches(final ConditionContext context, final AnnotatedTypeMetadata metadata) {
+            return !context.getEnvironment().getProperty(PARTITION_NODES, "").isEmpty();
+        }
     }
 }
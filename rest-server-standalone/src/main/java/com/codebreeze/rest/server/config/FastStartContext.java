@@ -0,0 +1,106 @@
+package com.codebreeze.rest.server.config;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.AutowiredAnnotationBeanPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.annotation.AnnotationConfigUtils;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.type.StandardMethodMetadata;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * The beans of {@link AppConfig}, registered one by one from its {@code @Bean} methods, as a context class for
+ * the ContextLoaderListener. An annotation config context scans for components, parses the configuration class
+ * from its bytecode and generates a CGLIB subclass of it before it creates a single bean; this one reads the
+ * methods of the one class by reflection and registers each as a factory method of an AppConfig bean, so its
+ * methods are its index of components. Each bean is named after its method, its parameters are autowired, and
+ * it is skipped if a {@code @Conditional} of its method does not match; the init and destroy methods of
+ * {@code @Bean} apply, and nothing else of it or of AppConfig's other annotations.
+ * <p>
+ * It takes no config location, so the Driver gives none: the configuration is always AppConfig.
+ */
+public class FastStartContext extends GenericWebApplicationContext {
+    private static final String CONFIG_BEAN_NAME = "appConfig";
+
+    @Override
+    protected void postProcessBeanFactory(final ConfigurableListableBeanFactory beanFactory) {
+        super.postProcessBeanFactory(beanFactory);
+        // @Autowired fields, of AppConfig and of the resources
+        registerBeanDefinition(AnnotationConfigUtils.AUTOWIRED_ANNOTATION_PROCESSOR_BEAN_NAME,
+                new RootBeanDefinition(AutowiredAnnotationBeanPostProcessor.class));
+        registerBeanDefinition(CONFIG_BEAN_NAME, new RootBeanDefinition(AppConfig.class));
+        for (final Method method : AppConfig.class.getDeclaredMethods()) {
+            final Bean bean = method.getAnnotation(Bean.class);
+            if (bean != null && matches(method)) {
+                final String name = bean.name().length > 0 ? bean.name()[0] : method.getName();
+                registerBeanDefinition(name, definition(method, bean));
+            }
+        }
+    }
+
+    private static AbstractBeanDefinition definition(final Method method, final Bean bean) {
+        final RootBeanDefinition definition = new RootBeanDefinition();
+        if (Modifier.isStatic(method.getModifiers())) {
+            definition.setBeanClass(AppConfig.class);
+        } else {
+            definition.setFactoryBeanName(CONFIG_BEAN_NAME);
+        }
+        definition.setFactoryMethodName(method.getName());
+        definition.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_CONSTRUCTOR);
+        if (!bean.initMethod().isEmpty()) {
+            definition.setInitMethodName(bean.initMethod());
+        }
+        definition.setDestroyMethodName(bean.destroyMethod());
+        return definition;
+    }
+
+    private boolean matches(final Method method) {
+        final Conditional conditional = method.getAnnotation(Conditional.class);
+        if (conditional == null) {
+            return true;
+        }
+        final ConditionContext context = new ConditionContext() {
+            @Override
+            public BeanDefinitionRegistry getRegistry() {
+                return FastStartContext.this;
+            }
+
+            @Override
+            public ConfigurableListableBeanFactory getBeanFactory() {
+                return FastStartContext.this.getBeanFactory();
+            }
+
+            @Override
+            public Environment getEnvironment() {
+                return FastStartContext.this.getEnvironment();
+            }
+
+            @Override
+            public ResourceLoader getResourceLoader() {
+                return FastStartContext.this;
+            }
+
+            @Override
+            public ClassLoader getClassLoader() {
+                return FastStartContext.this.getClassLoader();
+            }
+        };
+        for (final Class<? extends Condition> type : conditional.value()) {
+            if (!BeanUtils.instantiateClass(type).matches(context, new StandardMethodMetadata(method))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
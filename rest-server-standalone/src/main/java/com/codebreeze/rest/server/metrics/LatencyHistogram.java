@@ -0,0 +1,61 @@
+package com.codebreeze.rest.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in nanoseconds into log-linear buckets, as HdrHistogram does: values below 64 have a bucket
+ * each, and every power of two above that is split into 32 buckets, so any value is counted within about 3% of
+ * itself, over the whole range of a long, in a fixed 15KB. Recording is one increment of an array slot and one
+ * of the sum, without locks; reads see each bucket as it is, not all of them as of one instant.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT = SUB_BUCKETS * 2;
+    private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * @param nanos a duration; a negative one, from a clock that went backwards, counts as 0
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        sum.addAndGet(value);
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long sum() {
+        return sum.get();
+    }
+
+    /**
+     * @return how many durations were at most the given one, give or take those in the bucket it falls in
+     */
+    public long countAtOrBelow(final long nanos) {
+        final int last = nanos < 0 ? -1 : index(nanos);
+        long count = 0;
+        for (int i = 0; i <= last; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    private static int index(final long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return EXACT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+}
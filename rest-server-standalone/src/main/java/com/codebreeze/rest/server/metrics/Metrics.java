@@ -0,0 +1,207 @@
+package com.codebreeze.rest.server.metrics;
+
+import com.codebreeze.rest.server.model.AdmissionStats;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request counters and latency histograms, per resource method, and how long entities took to write, per type
+ * and media type, rendered in the Prometheus text exposition format. Everything is created on first use and then
+ * only looked up, so recording takes no locks and allocates nothing.
+ */
+public class Metrics {
+    /**
+     * the servlet context attribute the metrics are published under, so that the servlet filter created by the
+     * Driver and the spring context share them
+     */
+    public static final String ATTRIBUTE = Metrics.class.getName();
+    /**
+     * what requests are counted under before, or without, being matched to a resource method
+     */
+    public static final String UNMATCHED = "unmatched";
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+    // the bucket bounds of the exported histograms, in seconds
+    private static final double[] BOUNDS = {
+            0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long[] BOUND_NANOS = new long[BOUNDS.length];
+    private static final String[] BOUND_LABELS = new String[BOUNDS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            BOUND_NANOS[i] = (long) (BOUNDS[i] * NANOS_PER_SECOND);
+            BOUND_LABELS[i] = ",le=\"" + BigDecimal.valueOf(BOUNDS[i]).stripTrailingZeros().toPlainString() + "\"";
+        }
+    }
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+    private final ConcurrentMap<Class<?>, ConcurrentMap<String, LatencyHistogram>> writes =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<String, LatencyHistogram>>();
+
+    public Endpoint endpoint(final String name) {
+        final Endpoint endpoint = endpoints.get(name);
+        if (endpoint != null) {
+            return endpoint;
+        }
+        final Endpoint created = new Endpoint();
+        final Endpoint raced = endpoints.putIfAbsent(name, created);
+        return raced == null ? created : raced;
+    }
+
+    /**
+     * @return the histogram of how long entities of the type took to write in the media type, e.g. plain or json
+     */
+    public LatencyHistogram write(final Class<?> type, final String mediaSubtype) {
+        ConcurrentMap<String, LatencyHistogram> byMediaType = writes.get(type);
+        if (byMediaType == null) {
+            final ConcurrentMap<String, LatencyHistogram> created = new ConcurrentHashMap<String, LatencyHistogram>();
+            final ConcurrentMap<String, LatencyHistogram> raced = writes.putIfAbsent(type, created);
+            byMediaType = raced == null ? created : raced;
+        }
+        final LatencyHistogram histogram = byMediaType.get(mediaSubtype);
+        if (histogram != null) {
+            return histogram;
+        }
+        final LatencyHistogram created = new LatencyHistogram();
+        final LatencyHistogram raced = byMediaType.putIfAbsent(mediaSubtype, created);
+        return raced == null ? created : raced;
+    }
+
+    /**
+     * @param admission what admission control has done, or null if it is off
+     */
+    public String expose(final AdmissionStats admission) {
+        final StringBuilder out = new StringBuilder(4096);
+        header(out, "http_server_requests_total", "counter", "Requests served, by resource method.");
+        for (final Map.Entry<String, Endpoint> endpoint : endpoints.entrySet()) {
+            sample(out, "http_server_requests_total", endpointLabel(endpoint.getKey()), endpoint.getValue().requests.get());
+        }
+        header(out, "http_server_errors_total", "counter", "Requests that failed with a 5xx status or an exception.");
+        for (final Map.Entry<String, Endpoint> endpoint : endpoints.entrySet()) {
+            sample(out, "http_server_errors_total", endpointLabel(endpoint.getKey()), endpoint.getValue().errors.get());
+        }
+        header(out, "http_server_request_bytes_total", "counter", "Request body bytes, as declared by Content-Length.");
+        for (final Map.Entry<String, Endpoint> endpoint : endpoints.entrySet()) {
+            sample(out, "http_server_request_bytes_total", endpointLabel(endpoint.getKey()),
+                    endpoint.getValue().requestBytes.get());
+        }
+        header(out, "http_server_response_bytes_total", "counter", "Response body bytes written.");
+        for (final Map.Entry<String, Endpoint> endpoint : endpoints.entrySet()) {
+            sample(out, "http_server_response_bytes_total", endpointLabel(endpoint.getKey()),
+                    endpoint.getValue().responseBytes.get());
+        }
+        header(out, "http_server_request_duration_seconds", "histogram",
+                "Time from a request reaching the servlet to its response being complete.");
+        for (final Map.Entry<String, Endpoint> endpoint : endpoints.entrySet()) {
+            histogram(out, "http_server_request_duration_seconds", endpointLabel(endpoint.getKey()),
+                    endpoint.getValue().latency);
+        }
+        header(out, "jaxrs_entity_write_duration_seconds", "histogram",
+                "Time taken by message body writers, by entity type and media type.");
+        for (final Map.Entry<Class<?>, ConcurrentMap<String, LatencyHistogram>> type : writes.entrySet()) {
+            for (final Map.Entry<String, LatencyHistogram> mediaType : type.getValue().entrySet()) {
+                histogram(out, "jaxrs_entity_write_duration_seconds",
+                        "type=\"" + typeName(type.getKey()) + "\",media_type=\"" + escape(mediaType.getKey()) + "\"",
+                        mediaType.getValue());
+            }
+        }
+        if (admission != null) {
+            header(out, "admission_in_flight", "gauge", "Requests admitted and not yet complete.");
+            sample(out, "admission_in_flight", null, admission.getInFlight());
+            header(out, "admission_admitted_total", "counter", "Requests let in by admission control.");
+            sample(out, "admission_admitted_total", null, admission.getAdmitted());
+            header(out, "admission_shed_total", "counter", "Requests turned away by admission control, by reason.");
+            sample(out, "admission_shed_total", "reason=\"queue_timeout\"", admission.getShedQueueTimeout());
+            sample(out, "admission_shed_total", "reason=\"rate_limited\"", admission.getShedRateLimited());
+            sample(out, "admission_shed_total", "reason=\"max_subscribers\"", admission.getShedSubscribers());
+            header(out, "admission_subscribers", "gauge", "Change streams open.");
+            sample(out, "admission_subscribers", null, admission.getSubscribers());
+        }
+        return out.toString();
+    }
+
+    private static void header(final StringBuilder out, final String name, final String type, final String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(final StringBuilder out, final String name, final String labels, final double value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == (long) value) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static void histogram(final StringBuilder out, final String name, final String labels,
+                                  final LatencyHistogram histogram) {
+        // read the total first, so that no bucket is above it when requests are recorded meanwhile
+        final long count = histogram.count();
+        final long sum = histogram.sum();
+        for (int i = 0; i < BOUNDS.length; i++) {
+            sample(out, name + "_bucket", labels + BOUND_LABELS[i],
+                    Math.min(histogram.countAtOrBelow(BOUND_NANOS[i]), count));
+        }
+        sample(out, name + "_bucket", labels + ",le=\"+Inf\"", count);
+        sample(out, name + "_sum", labels, sum / NANOS_PER_SECOND);
+        sample(out, name + "_count", labels, count);
+    }
+
+    private static String endpointLabel(final String name) {
+        return "endpoint=\"" + escape(name) + "\"";
+    }
+
+    private static String typeName(final Class<?> type) {
+        // streamed responses are anonymous classes
+        if (type.isAnonymousClass() && type.getInterfaces().length > 0) {
+            return type.getInterfaces()[0].getSimpleName();
+        }
+        return type.getSimpleName();
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * What one resource method has served.
+     */
+    public static final class Endpoint {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong requestBytes = new AtomicLong();
+        private final AtomicLong responseBytes = new AtomicLong();
+
+        /**
+         * @param requestBytes  the body length, or a negative number if it is not known
+         * @param responseBytes the body length, or a negative number if it is not known
+         */
+        public void record(final long nanos, final boolean failed, final long requestBytes,
+                           final long responseBytes) {
+            latency.record(nanos);
+            requests.incrementAndGet();
+            if (failed) {
+                errors.incrementAndGet();
+            }
+            if (requestBytes > 0) {
+                this.requestBytes.addAndGet(requestBytes);
+            }
+            if (responseBytes > 0) {
+                this.responseBytes.addAndGet(responseBytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.codebreeze.rest.server.metrics;
+
+import com.codebreeze.rest.server.model.StartupStats;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessorAdapter;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long each part of starting the server took, from the JVM starting to the first response, so that the time
+ * to first request can be tracked from one deploy to the next. The Driver times its own steps; the spring context
+ * is split into reading the bean definitions, which is where classpath scanning and configuration class proxies
+ * go, and creating each bean that took a millisecond or more, not counting the beans it needed created first.
+ */
+public class StartupTimer {
+    /**
+     * the servlet context attribute the timer is published under, for /api/server/startup
+     */
+    public static final String ATTRIBUTE = StartupTimer.class.getName();
+    private static final String SHARED_ARCHIVE_OPTION = "-XX:SharedArchiveFile=";
+
+    private final RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+    private final long mainMillis = runtime.getUptime();
+    // guarded by this
+    private final Map<String, Long> phaseMillis = new LinkedHashMap<String, Long>();
+    private volatile long readyMillis = -1;
+    private volatile long firstResponseMillis = -1;
+
+    /**
+     * @param startNanos the System.nanoTime() the phase began at; it ends now
+     */
+    public synchronized void record(final String phase, final long startNanos) {
+        phaseMillis.put(phase, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * the server is accepting requests
+     */
+    public void ready() {
+        readyMillis = runtime.getUptime();
+    }
+
+    public void firstResponse() {
+        if (firstResponseMillis < 0) {
+            firstResponseMillis = runtime.getUptime();
+        }
+    }
+
+    /**
+     * Times the bean definitions and the beans of a context about to be refreshed.
+     */
+    public void timeBeans(final ConfigurableApplicationContext context) {
+        context.addBeanFactoryPostProcessor(new BeanTimer(System.nanoTime()));
+    }
+
+    public synchronized StartupStats getStats() {
+        String sharedArchive = null;
+        for (final String argument : runtime.getInputArguments()) {
+            if (argument.startsWith(SHARED_ARCHIVE_OPTION)) {
+                sharedArchive = argument.substring(SHARED_ARCHIVE_OPTION.length());
+            }
+        }
+        return new StartupStats(sharedArchive, ManagementFactory.getClassLoadingMXBean().getLoadedClassCount(),
+                mainMillis, new LinkedHashMap<String, Long>(phaseMillis), readyMillis, firstResponseMillis);
+    }
+
+    /**
+     * Runs after the definitions are read, scanned for and post-processed, and then times each bean from before
+     * it is instantiated to after it is initialized, less the time taken by the beans created for it meanwhile.
+     */
+    private final class BeanTimer extends InstantiationAwareBeanPostProcessorAdapter
+            implements BeanFactoryPostProcessor {
+        private final long refreshNanos;
+        // the beans being created, innermost first; beans are created on the thread refreshing the context
+        private final Deque<Creation> creations = new ArrayDeque<Creation>();
+
+        private BeanTimer(final long refreshNanos) {
+            this.refreshNanos = refreshNanos;
+        }
+
+        @Override
+        public void postProcessBeanFactory(final ConfigurableListableBeanFactory beanFactory) {
+            record("context definitions", refreshNanos);
+            beanFactory.addBeanPostProcessor(this);
+        }
+
+        @Override
+        public synchronized Object postProcessBeforeInstantiation(final Class<?> beanClass, final String beanName) {
+            creations.push(new Creation(beanName));
+            return null;
+        }
+
+        @Override
+        public synchronized Object postProcessAfterInitialization(final Object bean, final String beanName)
+                throws BeansException {
+            final Creation creation = creations.peek();
+            if (creation == null || !creation.beanName.equals(beanName)) {
+                return bean;
+            }
+            creations.pop();
+            final long nanos = System.nanoTime() - creation.startNanos;
+            if (!creations.isEmpty()) {
+                creations.peek().dependencyNanos += nanos;
+            }
+            final long ownNanos = nanos - creation.dependencyNanos;
+            if (ownNanos >= TimeUnit.MILLISECONDS.toNanos(1)) {
+                synchronized (StartupTimer.this) {
+                    phaseMillis.put("bean " + beanName, TimeUnit.NANOSECONDS.toMillis(ownNanos));
+                }
+            }
+            return bean;
+        }
+    }
+
+    private static final class Creation {
+        private final String beanName;
+        private final long startNanos = System.nanoTime();
+        private long dependencyNanos;
+
+        private Creation(final String beanName) {
+            this.beanName = beanName;
+        }
+    }
+}
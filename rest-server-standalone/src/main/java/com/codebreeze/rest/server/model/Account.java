@@ -9,11 +9,21 @@ public class Account {
     private final String number;
     private final String name;
     private final BigDecimal balance;
+    // transient keeps it out of toString: two versions with the same fields render the same
+    private final transient long version;
 
     public Account(final String number, final String name, final BigDecimal balance) {
+        this(number, name, balance, 0);
+    }
+
+    /**
+     * @param version orders the writes to one account number; 0 for an account that has not been versioned
+     */
+    public Account(final String number, final String name, final BigDecimal balance, final long version) {
         this.number = number;
         this.name = name;
         this.balance = balance;
+        this.version = version;
     }
 
     public String getNumber() {
@@ -28,6 +38,14 @@ public class Account {
         return balance;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public Account withVersion(final long version) {
+        return new Account(number, name, balance, version);
+    }
+
     @Override
     public String toString() {
         return reflectionToString(this);
@@ -0,0 +1,56 @@
+package com.codebreeze.rest.server.model;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.apache.commons.lang3.builder.ToStringBuilder.reflectionToString;
+
+/**
+ * Balance aggregates over the accounts that have a balance. Each figure is current when it is read, but they
+ * are read one after another, not as one atomic snapshot.
+ */
+public class AccountStats {
+    private final long count;
+    private final BigDecimal total;
+    // null when there are no accounts with a balance
+    private final Account minimum;
+    private final Account maximum;
+    private final List<Account> largest;
+
+    public AccountStats(final long count, final BigDecimal total, final Account minimum, final Account maximum,
+                        final List<Account> largest) {
+        this.count = count;
+        this.total = total;
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.largest = largest;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public BigDecimal getTotal() {
+        return total;
+    }
+
+    public Account getMinimum() {
+        return minimum;
+    }
+
+    public Account getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * @return the accounts with the largest balances, largest first
+     */
+    public List<Account> getLargest() {
+        return largest;
+    }
+
+    @Override
+    public String toString() {
+        return reflectionToString(this);
+    }
+}
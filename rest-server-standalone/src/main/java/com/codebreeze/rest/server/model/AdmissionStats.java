@@ -0,0 +1,77 @@
+package com.codebreeze.rest.server.model;
+
+import static org.apache.commons.lang3.builder.ToStringBuilder.reflectionToString;
+
+/**
+ * What admission control has done since the server started. The counts are read one after another, not as one
+ * atomic snapshot.
+ */
+public class AdmissionStats {
+    // 0 when the number of requests in flight is not capped
+    private final int maxInFlight;
+    private final int inFlight;
+    private final long admitted;
+    // turned away with 503 because no slot freed up within the queue-time budget
+    private final long shedQueueTimeout;
+    // turned away with 429 because the client was over its rate
+    private final long shedRateLimited;
+    // 0 when the number of change stream subscribers is not capped
+    private final int maxSubscribers;
+    private final int subscribers;
+    // turned away with 503 because every change stream was taken
+    private final long shedSubscribers;
+
+    public AdmissionStats(final int maxInFlight, final int inFlight, final long admitted,
+                          final long shedQueueTimeout, final long shedRateLimited,
+                          final int maxSubscribers, final int subscribers, final long shedSubscribers) {
+        this.maxInFlight = maxInFlight;
+        this.inFlight = inFlight;
+        this.admitted = admitted;
+        this.shedQueueTimeout = shedQueueTimeout;
+        this.shedRateLimited = shedRateLimited;
+        this.maxSubscribers = maxSubscribers;
+        this.subscribers = subscribers;
+        this.shedSubscribers = shedSubscribers;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public long getAdmitted() {
+        return admitted;
+    }
+
+    public long getShedQueueTimeout() {
+        return shedQueueTimeout;
+    }
+
+    public long getShedRateLimited() {
+        return shedRateLimited;
+    }
+
+    public int getMaxSubscribers() {
+        return maxSubscribers;
+    }
+
+    public int getSubscribers() {
+        return subscribers;
+    }
+
+    public long getShedSubscribers() {
+        return shedSubscribers;
+    }
+
+    public long getShed() {
+        return shedQueueTimeout + shedRateLimited + shedSubscribers;
+    }
+
+    @Override
+    public String toString() {
+        return reflectionToString(this);
+    }
+}
@@ -0,0 +1,43 @@
+package com.codebreeze.rest.server.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.apache.commons.lang3.builder.ToStringBuilder.reflectionToString;
+
+public class BulkLoadResult {
+    public static final int MAX_REPORTED_REJECTIONS = 100;
+
+    private long accepted;
+    private long rejected;
+    // only the first rejections are kept, so a bad file cannot blow up the response
+    private final List<String> rejections = new ArrayList<String>();
+
+    public void accept() {
+        accepted++;
+    }
+
+    public void reject(final long line, final String reason) {
+        rejected++;
+        if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+            rejections.add("line " + line + ": " + reason);
+        }
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public List<String> getRejections() {
+        return rejections;
+    }
+
+    @Override
+    public String toString() {
+        return reflectionToString(this);
+    }
+}
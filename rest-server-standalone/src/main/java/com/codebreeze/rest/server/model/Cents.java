@@ -0,0 +1,66 @@
+package com.codebreeze.rest.server.model;
+
+import java.math.BigDecimal;
+
+/**
+ * Money as a long number of cents, for arithmetic that should neither allocate a BigDecimal per step nor
+ * round. Balances stay BigDecimal on {@link Account}; they are converted once on the way in and once on the
+ * way out, and overflow is an error rather than a wrap.
+ */
+public final class Cents {
+    private static final int SCALE = 2;
+
+    private Cents() {
+    }
+
+    /**
+     * @param balance a balance with nothing below a cent; null counts as none
+     * @throws ArithmeticException if the balance has a fraction of a cent, or does not fit a long in cents
+     */
+    public static long fromBalance(final BigDecimal balance) {
+        return balance == null ? 0 : balance.movePointRight(SCALE).longValueExact();
+    }
+
+    public static BigDecimal toBalance(final long cents) {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    /**
+     * Parses an amount such as 12, 12.5 or 12.50 straight into cents.
+     *
+     * @throws NumberFormatException if the amount is not digits with at most two of them after a point,
+     *                               or is too large
+     */
+    public static long parse(final String amount) {
+        if (amount == null || amount.isEmpty()) {
+            throw new NumberFormatException("amount is required");
+        }
+        long cents = 0;
+        int fractionDigits = -1;
+        for (int i = 0; i < amount.length(); i++) {
+            final char c = amount.charAt(i);
+            if (c == '.' && fractionDigits < 0 && i > 0) {
+                fractionDigits = 0;
+            } else if (c >= '0' && c <= '9' && fractionDigits < SCALE) {
+                try {
+                    cents = Math.addExact(Math.multiplyExact(cents, 10), c - '0');
+                } catch (final ArithmeticException e) {
+                    throw new NumberFormatException("amount is too large: " + amount);
+                }
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else {
+                throw new NumberFormatException("not an amount in cents: " + amount);
+            }
+        }
+        for (int i = Math.max(fractionDigits, 0); i < SCALE; i++) {
+            try {
+                cents = Math.multiplyExact(cents, 10);
+            } catch (final ArithmeticException e) {
+                throw new NumberFormatException("amount is too large: " + amount);
+            }
+        }
+        return cents;
+    }
+}
@@ -0,0 +1,60 @@
+package com.codebreeze.rest.server.model;
+
+import java.util.List;
+
+import static org.apache.commons.lang3.builder.ToStringBuilder.reflectionToString;
+
+/**
+ * Which accounts this server owns, and how far it is with moving those it no longer owns to their owners. The
+ * counts are read one after another, not as one atomic snapshot.
+ */
+public class PartitionStatus {
+    private final String self;
+    private final List<String> nodes;
+    private final int virtualNodes;
+    // copying the accounts that belong elsewhere, then forwarding later changes to them until the nodes change
+    private final String migration;
+    // accounts sent to their owners since the nodes last changed
+    private final long moved;
+    // batches that failed to send and were retried
+    private final long failures;
+
+    public PartitionStatus(final String self, final List<String> nodes, final int virtualNodes,
+                           final String migration, final long moved, final long failures) {
+        this.self = self;
+        this.nodes = nodes;
+        this.virtualNodes = virtualNodes;
+        this.migration = migration;
+        this.moved = moved;
+        this.failures = failures;
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public String getMigration() {
+        return migration;
+    }
+
+    public long getMoved() {
+        return moved;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return reflectionToString(this);
+    }
+}
@@ -0,0 +1,84 @@
+package com.codebreeze.rest.server.model;
+
+import static org.apache.commons.lang3.builder.ToStringBuilder.reflectionToString;
+
+/**
+ * Where this server stands in replication: a leader, which followers can stream changes from, or a follower
+ * of one. The follower's figures are read one after another, not as one atomic snapshot.
+ */
+public class ReplicationStatus {
+    private final String role;
+    // the leader's address, null on the leader itself
+    private final String leader;
+    // the sequence number this server's own change log is at, -1 when it keeps no changes
+    private final long head;
+    private final boolean connected;
+    // the sequence number of the leader's next change to apply, -1 until the first snapshot is loaded
+    private final long position;
+    // accounts received from the leader, counting those skipped because a later version was already applied
+    private final long applied;
+    private final long snapshots;
+    // how long after the leader published it the last change was applied; 0 once the follower has caught up
+    private final long lagMillis;
+    // how long since anything arrived from the leader, -1 if nothing has yet
+    private final long millisSinceContact;
+
+    public ReplicationStatus(final String role, final String leader, final long head, final boolean connected,
+                             final long position, final long applied, final long snapshots,
+                             final long lagMillis, final long millisSinceContact) {
+        this.role = role;
+        this.leader = leader;
+        this.head = head;
+        this.connected = connected;
+        this.position = position;
+        this.applied = applied;
+        this.snapshots = snapshots;
+        this.lagMillis = lagMillis;
+        this.millisSinceContact = millisSinceContact;
+    }
+
+    public static ReplicationStatus leader(final long head) {
+        return new ReplicationStatus("leader", null, head, false, -1, 0, 0, 0, -1);
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public String getLeader() {
+        return leader;
+    }
+
+    public long getHead() {
+        return head;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getApplied() {
+        return applied;
+    }
+
+    public long getSnapshots() {
+        return snapshots;
+    }
+
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    public long getMillisSinceContact() {
+        return millisSinceContact;
+    }
+
+    @Override
+    public String toString() {
+        return reflectionToString(this);
+    }
+}
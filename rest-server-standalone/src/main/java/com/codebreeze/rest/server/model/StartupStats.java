@@ -0,0 +1,61 @@
+package com.codebreeze.rest.server.model;
+
+import java.util.Map;
+
+import static org.apache.commons.lang3.builder.ToStringBuilder.reflectionToString;
+
+/**
+ * Where the time went between the JVM starting and the server answering its first request, in milliseconds.
+ */
+public class StartupStats {
+    // the class data sharing archive the JVM was started with, or null
+    private final String sharedArchive;
+    private final int loadedClasses;
+    // from the JVM starting to the Driver's main method
+    private final long mainMillis;
+    // in the order they ended; the context includes its definitions and beans, the server start the context
+    private final Map<String, Long> phaseMillis;
+    // from the JVM starting to the server accepting requests, -1 until it does
+    private final long readyMillis;
+    // from the JVM starting to the first response, -1 until there is one
+    private final long firstResponseMillis;
+
+    public StartupStats(final String sharedArchive, final int loadedClasses, final long mainMillis,
+                        final Map<String, Long> phaseMillis, final long readyMillis, final long firstResponseMillis) {
+        this.sharedArchive = sharedArchive;
+        this.loadedClasses = loadedClasses;
+        this.mainMillis = mainMillis;
+        this.phaseMillis = phaseMillis;
+        this.readyMillis = readyMillis;
+        this.firstResponseMillis = firstResponseMillis;
+    }
+
+    public String getSharedArchive() {
+        return sharedArchive;
+    }
+
+    public int getLoadedClasses() {
+        return loadedClasses;
+    }
+
+    public long getMainMillis() {
+        return mainMillis;
+    }
+
+    public Map<String, Long> getPhaseMillis() {
+        return phaseMillis;
+    }
+
+    public long getReadyMillis() {
+        return readyMillis;
+    }
+
+    public long getFirstResponseMillis() {
+        return firstResponseMillis;
+    }
+
+    @Override
+    public String toString() {
+        return reflectionToString(this);
+    }
+}
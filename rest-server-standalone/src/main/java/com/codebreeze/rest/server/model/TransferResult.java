@@ -0,0 +1,29 @@
+package com.codebreeze.rest.server.model;
+
+import static org.apache.commons.lang3.builder.ToStringBuilder.reflectionToString;
+
+/**
+ * Both sides of a transfer as they were stored by it.
+ */
+public class TransferResult {
+    private final Account from;
+    private final Account to;
+
+    public TransferResult(final Account from, final Account to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    public Account getFrom() {
+        return from;
+    }
+
+    public Account getTo() {
+        return to;
+    }
+
+    @Override
+    public String toString() {
+        return reflectionToString(this);
+    }
+}
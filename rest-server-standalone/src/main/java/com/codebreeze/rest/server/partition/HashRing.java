@@ -0,0 +1,108 @@
+package com.codebreeze.rest.server.partition;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Consistent hashing of account numbers onto nodes. Each node is placed at virtualNodes points of a ring of 64-bit
+ * hashes, and owns the numbers that hash to just before each of its points, wrapping around. Adding or removing
+ * a node moves only the numbers next to its points, about 1/N of them, and the many points per node even out how
+ * much each one owns. Ties between points go to the smaller node address, so every ring of the same nodes agrees.
+ * <p>
+ * The client routes with a copy of this class, and the two must hash the same way.
+ */
+public final class HashRing {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final List<String> nodes;
+    private final int virtualNodes;
+    // sorted, with the owner of each point at the same index
+    private final long[] points;
+    private final String[] owners;
+
+    /**
+     * @param nodes base addresses, e.g. http://localhost:8080; a trailing slash is ignored
+     */
+    public HashRing(final Collection<String> nodes, final int virtualNodes) {
+        checkArgument(!nodes.isEmpty(), "a ring needs at least one node");
+        checkArgument(virtualNodes > 0, "virtual nodes must be positive");
+        final TreeSet<String> distinct = new TreeSet<String>();
+        for (final String node : nodes) {
+            distinct.add(normalize(node));
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<String>(distinct));
+        this.virtualNodes = virtualNodes;
+        final List<Point> all = new ArrayList<Point>(distinct.size() * virtualNodes);
+        for (final String node : distinct) {
+            for (int i = 0; i < virtualNodes; i++) {
+                all.add(new Point(hash(node + "#" + i), node));
+            }
+        }
+        Collections.sort(all, new Comparator<Point>() {
+            @Override
+            public int compare(final Point left, final Point right) {
+                final int byHash = Long.compare(left.hash, right.hash);
+                return byHash != 0 ? byHash : left.node.compareTo(right.node);
+            }
+        });
+        this.points = new long[all.size()];
+        this.owners = new String[all.size()];
+        for (int i = 0; i < all.size(); i++) {
+            points[i] = all.get(i).hash;
+            owners[i] = all.get(i).node;
+        }
+    }
+
+    /**
+     * @return the node the account number belongs to
+     */
+    public String owner(final String number) {
+        final int found = Arrays.binarySearch(points, hash(number));
+        // the first point at or after the hash; equal points keep the first of them, the smaller address
+        int index = found >= 0 ? found : -found - 1;
+        while (found >= 0 && index > 0 && points[index - 1] == points[index]) {
+            index--;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * @return the nodes, in address order
+     */
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public static String normalize(final String node) {
+        return node.endsWith("/") ? node.substring(0, node.length() - 1) : node;
+    }
+
+    private static long hash(final String value) {
+        return HASH.hashString(value, UTF_8).asLong();
+    }
+
+    private static final class Point {
+        private final long hash;
+        private final String node;
+
+        private Point(final long hash, final String node) {
+            this.hash = hash;
+            this.node = node;
+        }
+    }
+}
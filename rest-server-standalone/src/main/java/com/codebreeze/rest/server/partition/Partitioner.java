@@ -0,0 +1,267 @@
+package com.codebreeze.rest.server.partition;
+
+import com.codebreeze.rest.server.model.Account;
+import com.codebreeze.rest.server.model.PartitionStatus;
+import com.codebreeze.rest.server.rs.AccountJson;
+import com.codebreeze.rest.server.rs.ReplicationRestService;
+import com.codebreeze.rest.server.services.AccountService;
+import com.codebreeze.rest.server.services.ChangeLog;
+import com.codebreeze.rest.server.store.AccountVisitor;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * This server's share of the accounts, by consistent hashing over the nodes. Clients route each account to its
+ * owner themselves, so the server only has to move accounts when the nodes change: a background migration copies
+ * every account this server holds but no longer owns to its owner, and then keeps forwarding changes to such
+ * accounts from the change log, for clients that still route by the old nodes, until the nodes change again.
+ * Only the accounts whose owner changed move.
+ * <p>
+ * Accounts travel with their versions and are applied with {@link AccountService#replicate}, so sending one
+ * twice, or after its owner has a newer write, changes nothing. The store cannot delete, so moved accounts stay
+ * here, unrouted; should their range come back, the owner's newer versions win over them.
+ */
+public class Partitioner {
+    private static final Logger LOGGER = Logger.getLogger(Partitioner.class.getName());
+    private static final int SCAN_PAGE_SIZE = 1000;
+    private static final int BATCH_SIZE = 1000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+    private static final long RETRY_MILLIS = 1000;
+    private static final long AWAIT_CHANGES_MILLIS = 1000;
+    private static final long STOP_TIMEOUT_SECONDS = 5;
+
+    private final String self;
+    private final AccountService accountService;
+    private volatile HashRing ring;
+    // guarded by this
+    private Migration migration;
+
+    /**
+     * @param self  this server's address as the nodes list it
+     * @param nodes the addresses of all the servers the accounts are spread over
+     */
+    public Partitioner(final String self, final List<String> nodes, final int virtualNodes,
+                       final AccountService accountService) {
+        this.self = HashRing.normalize(self);
+        this.accountService = accountService;
+        this.ring = new HashRing(nodes, virtualNodes);
+    }
+
+    /**
+     * Starts moving away whatever the store holds that this server does not own, say after a restart with
+     * different nodes.
+     */
+    public synchronized void start() {
+        migrate();
+    }
+
+    public HashRing getRing() {
+        return ring;
+    }
+
+    public boolean owns(final String number) {
+        return self.equals(ring.owner(number));
+    }
+
+    /**
+     * Switches to the new nodes, and moves the accounts that now belong to another node there. A node that is
+     * leaving is given the nodes without itself, and moves everything out.
+     */
+    public synchronized void setNodes(final List<String> nodes) {
+        ring = new HashRing(nodes, ring.getVirtualNodes());
+        migrate();
+    }
+
+    public synchronized PartitionStatus getStatus() {
+        final HashRing current = ring;
+        return new PartitionStatus(self, current.getNodes(), current.getVirtualNodes(),
+                migration == null ? "none" : migration.state, migration == null ? 0 : migration.moved.get(),
+                migration == null ? 0 : migration.failures.get());
+    }
+
+    public synchronized void close() {
+        if (migration != null) {
+            migration.stop();
+            migration = null;
+        }
+    }
+
+    // called holding the lock
+    private void migrate() {
+        if (migration != null) {
+            migration.stop();
+        }
+        migration = new Migration(ring);
+        migration.thread.start();
+    }
+
+    /**
+     * One pass over the store for one ring, and then the changes since the pass began.
+     */
+    private final class Migration implements Runnable {
+        private final HashRing target;
+        private final Thread thread = new Thread(this, "migration");
+        private final Map<String, List<Account>> batches = new HashMap<String, List<Account>>();
+        private final AtomicLong moved = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private volatile boolean stopped;
+        private volatile String state = "copying";
+
+        private Migration(final HashRing target) {
+            this.target = target;
+            thread.setDaemon(true);
+        }
+
+        private void stop() {
+            stopped = true;
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(STOP_TIMEOUT_SECONDS));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                final ChangeLog changes = accountService.getChanges();
+                long next = changes == null ? -1 : changes.head();
+                copy();
+                if (changes == null) {
+                    state = "done, without a change log to forward from";
+                    return;
+                }
+                state = "forwarding";
+                while (!stopped) {
+                    final ChangeLog.Change change = changes.get(next);
+                    if (change != null) {
+                        add(change.getAccount());
+                        next++;
+                    } else if (changes.isOverwritten(next)) {
+                        // changes were missed: copy everything again, and forward from here
+                        state = "copying";
+                        next = changes.head();
+                        copy();
+                        state = "forwarding";
+                    } else {
+                        flush();
+                        changes.await(next, AWAIT_CHANGES_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                // stopped
+            }
+        }
+
+        /**
+         * Sends every account held here that another node owns.
+         */
+        private void copy() throws InterruptedException {
+            final List<Account> page = new ArrayList<Account>(SCAN_PAGE_SIZE);
+            final AccountVisitor visitor = new AccountVisitor() {
+                @Override
+                public void visit(final Account account) {
+                    page.add(account);
+                }
+            };
+            String cursor = null;
+            do {
+                page.clear();
+                cursor = accountService.scanAccounts(cursor, SCAN_PAGE_SIZE, visitor);
+                for (final Account account : page) {
+                    add(account);
+                }
+            } while (cursor != null && !stopped);
+            flush();
+        }
+
+        private void add(final Account account) throws InterruptedException {
+            final String owner = target.owner(account.getNumber());
+            if (owner.equals(self)) {
+                return;
+            }
+            List<Account> batch = batches.get(owner);
+            if (batch == null) {
+                batch = new ArrayList<Account>(BATCH_SIZE);
+                batches.put(owner, batch);
+            }
+            batch.add(account);
+            if (batch.size() == BATCH_SIZE) {
+                send(owner, batch);
+            }
+        }
+
+        private void flush() throws InterruptedException {
+            for (final Map.Entry<String, List<Account>> batch : batches.entrySet()) {
+                if (!batch.getValue().isEmpty()) {
+                    send(batch.getKey(), batch.getValue());
+                }
+            }
+        }
+
+        /**
+         * Retries until the owner takes the batch, or the migration is stopped.
+         */
+        private void send(final String owner, final List<Account> batch) throws InterruptedException {
+            while (!stopped) {
+                try {
+                    post(owner, batch);
+                    moved.addAndGet(batch.size());
+                    batch.clear();
+                    return;
+                } catch (final IOException e) {
+                    failures.incrementAndGet();
+                    LOGGER.warning("could not move " + batch.size() + " accounts to " + owner + ", retrying: " + e);
+                    Thread.sleep(RETRY_MILLIS);
+                }
+            }
+            throw new InterruptedException("migration stopped");
+        }
+    }
+
+    private static void post(final String owner, final List<Account> batch) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream(batch.size() * 96);
+        final JsonGenerator generator = AccountJson.generator(body);
+        generator.setRootValueSeparator(null);
+        for (final Account account : batch) {
+            AccountJson.writeVersioned(generator, account);
+            generator.writeRaw('\n');
+        }
+        generator.flush();
+
+        final HttpURLConnection connection = (HttpURLConnection) new URL(owner + "/api/partition/accounts")
+                .openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", ReplicationRestService.APPLICATION_NDJSON);
+        connection.setFixedLengthStreamingMode(body.size());
+        final OutputStream out = connection.getOutputStream();
+        try {
+            body.writeTo(out);
+        } finally {
+            out.close();
+        }
+        final int status = connection.getResponseCode();
+        // read to the end, so that the connection can be kept alive for the next batch
+        connection.getInputStream().close();
+        if (status != HttpURLConnection.HTTP_OK) {
+            throw new IOException(owner + " answered " + status);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.codebreeze.rest.server.replication;
+
+import com.codebreeze.rest.server.model.Account;
+import com.codebreeze.rest.server.model.ReplicationStatus;
+import com.codebreeze.rest.server.rs.AccountJson;
+import com.codebreeze.rest.server.rs.ReplicationRestService;
+import com.codebreeze.rest.server.services.AccountService;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keeps this server's accounts a copy of a leader's, by log shipping: it streams the leader's change log, the
+ * server-sent events of /api/account/changes, and applies each change with {@link AccountService#replicate}, in
+ * the order the leader applied them. A follower that has no position yet, or whose position the leader's log no
+ * longer holds, because it fell a whole ring behind or the leader restarted, first loads a snapshot of the
+ * leader's accounts and then streams from where the snapshot began. Applying is idempotent by version, so the
+ * changes that overlap the snapshot do no harm.
+ * <p>
+ * One thread does it all, reconnecting a second after the leader goes away, and starting over from a snapshot a
+ * second after a change it cannot apply. A transfer reaches the follower as its two accounts, one after the
+ * other, so a read between them can see the money in neither or both.
+ */
+public class Follower {
+    private static final Logger LOGGER = Logger.getLogger(Follower.class.getName());
+    private static final String TEXT_EVENT_STREAM = "text/event-stream";
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    // the leader sends a heartbeat after 15 quiet seconds, so a stream silent for much longer has lost it
+    private static final int READ_TIMEOUT_MILLIS = 45000;
+    private static final long RETRY_MILLIS = 1000;
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    private final String leader;
+    private final AccountService accountService;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    // the epoch of the leader's log that the position is in
+    private volatile long epoch;
+    private volatile long position = -1;
+    private volatile boolean connected;
+    private volatile long lagMillis;
+    private volatile long lastContactMillis = -1;
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+
+    /**
+     * @param leader the leader's base address, e.g. http://localhost:8080
+     */
+    public Follower(final String leader, final AccountService accountService) {
+        this.leader = leader.endsWith("/") ? leader.substring(0, leader.length() - 1) : leader;
+        this.accountService = accountService;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                follow();
+            }
+        }, "follower");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public String getLeader() {
+        return leader;
+    }
+
+    /**
+     * @param head where this server's own change log is, -1 if it keeps none
+     */
+    public ReplicationStatus getStatus(final long head) {
+        final long contact = lastContactMillis;
+        return new ReplicationStatus("follower", leader, head, connected, position, applied.get(),
+                snapshots.get(), lagMillis, contact < 0 ? -1 : System.currentTimeMillis() - contact);
+    }
+
+    /**
+     * Stops following at the next line from the leader, at most a heartbeat away; disconnecting from here would
+     * wait for the read in progress anyway.
+     */
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void follow() {
+        while (!closed) {
+            try {
+                if (position < 0) {
+                    loadSnapshot();
+                }
+                streamChanges();
+            } catch (final JsonProcessingException | RuntimeException e) {
+                // a malformed event, or an account this store refuses: what was applied is no longer known to
+                // match the position, so start over from a snapshot rather than skip the change or end the thread
+                connected = false;
+                position = -1;
+                if (closed) {
+                    return;
+                }
+                LOGGER.log(Level.WARNING, "could not apply what the leader at " + leader + " sent, resyncing", e);
+                if (!pause()) {
+                    return;
+                }
+            } catch (final IOException e) {
+                // the position is kept, to carry on from it
+                connected = false;
+                if (closed) {
+                    return;
+                }
+                LOGGER.warning("lost the leader at " + leader + ", retrying: " + e);
+                if (!pause()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the follower was interrupted, to stop
+     */
+    private static boolean pause() {
+        try {
+            Thread.sleep(RETRY_MILLIS);
+            return true;
+        } catch (final InterruptedException interrupted) {
+            return false;
+        }
+    }
+
+    private void loadSnapshot() throws IOException {
+        final HttpURLConnection snapshot = open("/api/replication/snapshot", ReplicationRestService.APPLICATION_NDJSON);
+        final InputStream in = snapshot.getInputStream();
+        try {
+            final long snapshotEpoch = longHeader(snapshot, ReplicationRestService.EPOCH_HEADER);
+            final long from = longHeader(snapshot, ReplicationRestService.FROM_HEADER);
+            lastContactMillis = System.currentTimeMillis();
+            final JsonParser parser = AccountJson.parser(in);
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                apply(parser);
+            }
+            epoch = snapshotEpoch;
+            position = from;
+            snapshots.incrementAndGet();
+            LOGGER.info("loaded a snapshot from " + leader + ", following from change " + from);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns when the stream ends, normally because the position has to be caught up from a snapshot.
+     */
+    private void streamChanges() throws IOException {
+        final HttpURLConnection changes = open("/api/account/changes?from=" + position, TEXT_EVENT_STREAM);
+        if (changes.getResponseCode() == HttpURLConnection.HTTP_BAD_REQUEST) {
+            // the position is past the leader's head: it restarted with a new log
+            changes.disconnect();
+            position = -1;
+            return;
+        }
+        final InputStream in = changes.getInputStream();
+        try {
+            if (longHeader(changes, ReplicationRestService.EPOCH_HEADER) != epoch) {
+                position = -1;
+                return;
+            }
+            connected = true;
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+            String event = null;
+            String data = null;
+            long id = -1;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (closed) {
+                    return;
+                }
+                lastContactMillis = System.currentTimeMillis();
+                if (line.isEmpty()) {
+                    if ("account".equals(event)) {
+                        final long time = apply(AccountJson.parser(new ByteArrayInputStream(data.getBytes(UTF_8))));
+                        position = id + 1;
+                        lagMillis = Math.max(0, System.currentTimeMillis() - time);
+                    } else if ("resync".equals(event)) {
+                        position = -1;
+                        return;
+                    }
+                    event = null;
+                    data = null;
+                } else if (line.startsWith(":")) {
+                    // a heartbeat: the leader had nothing more to send
+                    lagMillis = 0;
+                } else if (line.startsWith("event: ")) {
+                    event = line.substring("event: ".length());
+                } else if (line.startsWith("data: ")) {
+                    data = line.substring("data: ".length());
+                } else if (line.startsWith("id: ")) {
+                    id = Long.parseLong(line.substring("id: ".length()));
+                }
+            }
+            throw new IOException("the leader ended the stream");
+        } finally {
+            connected = false;
+            // a stream left unread would otherwise be drained for reuse
+            changes.disconnect();
+        }
+    }
+
+    /**
+     * Applies the versioned account the parser is at, or about to read.
+     *
+     * @return when the leader published it, 0 if it does not say
+     */
+    private long apply(final JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() == null) {
+            parser.nextToken();
+        }
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("expected a versioned account", parser.getCurrentLocation());
+        }
+        long version = 0;
+        long time = 0;
+        Account account = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            if (AccountJson.VERSION.equals(field)) {
+                version = Long.parseLong(parser.getText(), 16);
+            } else if (AccountJson.TIME.equals(field)) {
+                time = parser.getLongValue();
+            } else if (AccountJson.ACCOUNT.equals(field)) {
+                account = AccountJson.read(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (account == null) {
+            throw new JsonParseException("a versioned account without the account", parser.getCurrentLocation());
+        }
+        accountService.replicate(account.withVersion(version));
+        applied.incrementAndGet();
+        return time;
+    }
+
+    private HttpURLConnection open(final String path, final String accept) throws IOException {
+        final HttpURLConnection opened = (HttpURLConnection) new URL(leader + path).openConnection();
+        opened.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        opened.setReadTimeout(READ_TIMEOUT_MILLIS);
+        opened.setRequestProperty("Accept", accept);
+        return opened;
+    }
+
+    private static long longHeader(final HttpURLConnection connection, final String name) throws IOException {
+        final String value = connection.getHeaderField(name);
+        try {
+            return Long.parseLong(value);
+        } catch (final NumberFormatException e) {
+            throw new IOException("the leader sent no " + name + " header");
+        }
+    }
+}
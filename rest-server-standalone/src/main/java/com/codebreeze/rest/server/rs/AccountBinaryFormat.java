@@ -0,0 +1,144 @@
+package com.codebreeze.rest.server.rs;
+
+import com.codebreeze.rest.server.model.Account;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The application/x-account encoding of an {@link Account}, all big-endian:
+ * <pre>
+ * byte   format version
+ * short  number length, -1 for null; then the number in UTF-8
+ * short  name length, -1 for null; then the name in UTF-8
+ * byte   balance kind: 0 null, 1 fits a long, 2 does not
+ *        kind 1: int scale, long unscaled value
+ *        kind 2: int scale, short length, unscaled value as two's-complement bytes
+ * </pre>
+ * The size is known before anything is encoded, so responses carry a Content-Length. Lengths are shorts, so an
+ * account with a longer string or balance cannot be encoded, and input that is cut short or has lengths out of
+ * range cannot be decoded. rest-client-standalone has the matching decoder.
+ */
+final class AccountBinaryFormat {
+    static final byte FORMAT_VERSION = 1;
+    private static final short NULL_LENGTH = -1;
+    private static final byte NO_BALANCE = 0;
+    private static final byte LONG_BALANCE = 1;
+    private static final byte BIG_BALANCE = 2;
+
+    private AccountBinaryFormat() {
+    }
+
+    static int size(final Account account) {
+        int size = 1 + 2 + stringLength(account.getNumber()) + 2 + stringLength(account.getName()) + 1;
+        final BigDecimal balance = account.getBalance();
+        if (balance != null) {
+            size += fitsInLong(balance) ? 4 + 8 : 4 + 2 + balance.unscaledValue().toByteArray().length;
+        }
+        return size;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a length of the account does not fit in a short
+     */
+    static byte[] encode(final Account account) {
+        checkLength("account number", stringLength(account.getNumber()));
+        checkLength("account name", stringLength(account.getName()));
+        final byte[] bytes = new byte[size(account)];
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.put(FORMAT_VERSION);
+        putString(buffer, account.getNumber());
+        putString(buffer, account.getName());
+        final BigDecimal balance = account.getBalance();
+        if (balance == null) {
+            buffer.put(NO_BALANCE);
+        } else if (fitsInLong(balance)) {
+            buffer.put(LONG_BALANCE);
+            buffer.putInt(balance.scale());
+            buffer.putLong(balance.unscaledValue().longValue());
+        } else {
+            final byte[] unscaled = balance.unscaledValue().toByteArray();
+            checkLength("account balance", unscaled.length);
+            buffer.put(BIG_BALANCE);
+            buffer.putInt(balance.scale());
+            buffer.putShort((short) unscaled.length);
+            buffer.put(unscaled);
+        }
+        return bytes;
+    }
+
+    /**
+     * @throws EOFException if the input ends before the account does
+     * @throws IOException  if the input is not an account in this format
+     */
+    static Account decode(final DataInputStream in) throws IOException {
+        final byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("unknown account format version " + version);
+        }
+        final String number = readString(in);
+        final String name = readString(in);
+        final byte kind = in.readByte();
+        BigDecimal balance = null;
+        if (kind == LONG_BALANCE) {
+            final int scale = in.readInt();
+            balance = BigDecimal.valueOf(in.readLong(), scale);
+        } else if (kind == BIG_BALANCE) {
+            final int scale = in.readInt();
+            final short length = in.readShort();
+            if (length <= 0) {
+                throw new IOException("malformed balance length " + length);
+            }
+            final byte[] unscaled = new byte[length];
+            in.readFully(unscaled);
+            balance = new BigDecimal(new BigInteger(unscaled), scale);
+        } else if (kind != NO_BALANCE) {
+            throw new IOException("unknown balance kind " + kind);
+        }
+        return new Account(number, name, balance);
+    }
+
+    private static int stringLength(final String value) {
+        return value == null ? 0 : Utf8.length(value);
+    }
+
+    private static void putString(final ByteBuffer buffer, final String value) {
+        if (value == null) {
+            buffer.putShort(NULL_LENGTH);
+            return;
+        }
+        final int start = buffer.position() + 2;
+        final int end = Utf8.encode(value, buffer.array(), start);
+        buffer.putShort((short) (end - start));
+        buffer.position(end);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final short length = in.readShort();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        if (length < NULL_LENGTH) {
+            throw new IOException("malformed string length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void checkLength(final String what, final int length) {
+        checkArgument(length <= Short.MAX_VALUE, "%s of %s bytes is too long for %s", what, length,
+                BinaryAccountProvider.APPLICATION_ACCOUNT);
+    }
+
+    private static boolean fitsInLong(final BigDecimal balance) {
+        return balance.unscaledValue().bitLength() < Long.SIZE;
+    }
+}
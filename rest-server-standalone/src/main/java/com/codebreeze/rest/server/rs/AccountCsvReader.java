@@ -0,0 +1,189 @@
+package com.codebreeze.rest.server.rs;
+
+import com.codebreeze.rest.server.model.Account;
+import com.codebreeze.rest.server.model.BulkLoadResult;
+import com.codebreeze.rest.server.services.AccountService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads number,name,balance lines straight off a request body and adds them to the {@link AccountService}
+ * in batches. Lines are cut out of a fixed buffer, so the body is never held in memory as a whole, and a
+ * balance is parsed from the bytes without an intermediate String. A first line starting with "number," is
+ * taken as a header and skipped. Fields are not quoted, so a name cannot contain a comma.
+ */
+public class AccountCsvReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LONG_DIGITS = 18;
+    private static final byte[] HEADER = "number,".getBytes(UTF_8);
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    public AccountCsvReader(final InputStream in) {
+        this.in = in;
+    }
+
+    public BulkLoadResult loadInto(final AccountService accountService, final int batchSize) throws IOException {
+        final BulkLoadResult result = new BulkLoadResult();
+        final List<Account> batch = new ArrayList<Account>(batchSize);
+        final List<Long> lines = new ArrayList<Long>(batchSize);
+        long line = 0;
+        int start = 0;
+        int end = 0;
+        boolean skippingLongLine = false;
+        while (true) {
+            final int read = in.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                break;
+            }
+            end += read;
+            int newline;
+            while ((newline = indexOf(buffer, start, end, (byte) '\n')) >= 0) {
+                line++;
+                if (skippingLongLine) {
+                    skippingLongLine = false;
+                } else {
+                    parseLine(line, start, newline, batch, lines, result);
+                }
+                start = newline + 1;
+                if (batch.size() == batchSize) {
+                    flush(accountService, batch, lines, result);
+                }
+            }
+            if (start == 0 && end == buffer.length) {
+                // a line longer than the buffer: drop what we have and skip to its end
+                if (!skippingLongLine) {
+                    result.reject(line + 1, "line is longer than " + BUFFER_SIZE + " bytes");
+                }
+                skippingLongLine = true;
+                end = 0;
+            } else {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+        }
+        if (end > start && !skippingLongLine) {
+            parseLine(++line, start, end, batch, lines, result);
+        }
+        flush(accountService, batch, lines, result);
+        return result;
+    }
+
+    private void parseLine(final long line, final int start, final int newline,
+                           final List<Account> batch, final List<Long> lines, final BulkLoadResult result) {
+        int end = newline;
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        if (end == start) {
+            return;
+        }
+        if (line == 1 && startsWith(start, end, HEADER)) {
+            return;
+        }
+        final int firstComma = indexOf(buffer, start, end, (byte) ',');
+        final int secondComma = firstComma < 0 ? -1 : indexOf(buffer, firstComma + 1, end, (byte) ',');
+        if (secondComma < 0 || indexOf(buffer, secondComma + 1, end, (byte) ',') >= 0) {
+            result.reject(line, "expected number,name,balance");
+            return;
+        }
+        if (firstComma == start) {
+            result.reject(line, "account number is required");
+            return;
+        }
+        final BigDecimal balance = parseBalance(secondComma + 1, end);
+        if (balance == null) {
+            result.reject(line, "balance is not a decimal number");
+            return;
+        }
+        batch.add(new Account(
+                new String(buffer, start, firstComma - start, UTF_8),
+                new String(buffer, firstComma + 1, secondComma - firstComma - 1, UTF_8),
+                balance));
+        lines.add(line);
+    }
+
+    /**
+     * @return the balance, or null if the bytes are not a plain decimal number
+     */
+    private BigDecimal parseBalance(final int start, final int end) {
+        int i = start;
+        final boolean negative = i < end && buffer[i] == '-';
+        if (negative || i < end && buffer[i] == '+') {
+            i++;
+        }
+        long unscaled = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            final byte b = buffer[i];
+            if (b == '.' && scale < 0) {
+                scale = 0;
+            } else if (b >= '0' && b <= '9') {
+                unscaled = unscaled * 10 + (b - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else {
+                return null;
+            }
+        }
+        if (digits == 0) {
+            return null;
+        }
+        if (digits > MAX_LONG_DIGITS) {
+            // too long to be exact in a long; rare enough to take the slow path
+            return new BigDecimal(new String(buffer, start, end - start, UTF_8));
+        }
+        return BigDecimal.valueOf(negative ? -unscaled : unscaled, Math.max(scale, 0));
+    }
+
+    private static void flush(final AccountService accountService, final List<Account> batch,
+                              final List<Long> lines, final BulkLoadResult result) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final Map<Integer, String> failures = accountService.addAccounts(batch);
+        for (int i = 0; i < batch.size(); i++) {
+            final String failure = failures.get(i);
+            if (failure == null) {
+                result.accept();
+            } else {
+                result.reject(lines.get(i), failure);
+            }
+        }
+        batch.clear();
+        lines.clear();
+    }
+
+    private boolean startsWith(final int start, final int end, final byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(final byte[] bytes, final int from, final int to, final byte b) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,164 @@
+package com.codebreeze.rest.server.rs;
+
+import com.codebreeze.rest.server.model.Account;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+
+/**
+ * Streams {@link Account} as {"number":"1234","name":"aj","balance":123.44} straight to and from the entity
+ * streams with Jackson's generator and parser: no String of the whole body and no tree model. Absent fields are
+ * null, and unknown fields are skipped. The entity streams are left open for the container to close.
+ * <p>
+ * Changes and snapshots wrap the account with its version, and changes with the time they were published, as
+ * {"version":"5a1b2c3d00001","time":1414141414141,"account":{...}}; followers read them back with the parser.
+ */
+public final class AccountJson {
+    public static final String VERSION = "version";
+    public static final String TIME = "time";
+    public static final String ACCOUNT = "account";
+    static final String NUMBER = "number";
+    static final String NAME = "name";
+    static final String BALANCE = "balance";
+
+    // thread safe, and holds the symbol tables and buffer recyclers the generators and parsers share
+    private static final JsonFactory FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    private AccountJson() {
+    }
+
+    public static JsonGenerator generator(final OutputStream out) throws IOException {
+        return FACTORY.createGenerator(out, JsonEncoding.UTF8);
+    }
+
+    public static JsonParser parser(final InputStream in) throws IOException {
+        return FACTORY.createParser(in);
+    }
+
+    static void write(final JsonGenerator generator, final Account account) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField(NUMBER, account.getNumber());
+        generator.writeStringField(NAME, account.getName());
+        if (account.getBalance() == null) {
+            generator.writeNullField(BALANCE);
+        } else {
+            generator.writeNumberField(BALANCE, account.getBalance());
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Reads the object the parser is at the start of.
+     *
+     * @throws JsonParseException if the parser is not at an object, or a field has the wrong type
+     */
+    public static Account read(final JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("expected an account object", parser.getCurrentLocation());
+        }
+        String number = null;
+        String name = null;
+        BigDecimal balance = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if (NUMBER.equals(field)) {
+                number = readString(parser, value);
+            } else if (NAME.equals(field)) {
+                name = readString(parser, value);
+            } else if (BALANCE.equals(field)) {
+                balance = readDecimal(parser, value);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (parser.getCurrentToken() != JsonToken.END_OBJECT) {
+            throw new JsonParseException("unterminated account object", parser.getCurrentLocation());
+        }
+        return new Account(number, name, balance);
+    }
+
+    /**
+     * Writes the account wrapped with its version, as in a snapshot.
+     */
+    public static void writeVersioned(final JsonGenerator generator, final Account account) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField(VERSION, Long.toHexString(account.getVersion()));
+        generator.writeFieldName(ACCOUNT);
+        write(generator, account);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Reads the versioned account the parser is at the start of, ignoring when it was published.
+     *
+     * @throws JsonParseException if the parser is not at an object, or the account or its version is missing
+     */
+    public static Account readVersioned(final JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("expected a versioned account object", parser.getCurrentLocation());
+        }
+        String version = null;
+        Account account = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if (VERSION.equals(field)) {
+                version = readString(parser, value);
+            } else if (ACCOUNT.equals(field)) {
+                account = read(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (version == null || account == null) {
+            throw new JsonParseException("a versioned account needs both", parser.getCurrentLocation());
+        }
+        try {
+            return account.withVersion(Long.parseLong(version, 16));
+        } catch (final NumberFormatException e) {
+            throw new JsonParseException("version is not hexadecimal", parser.getCurrentLocation());
+        }
+    }
+
+    private static String readString(final JsonParser parser, final JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (value != JsonToken.VALUE_STRING) {
+            throw new JsonParseException(parser.getCurrentName() + " must be a string", parser.getCurrentLocation());
+        }
+        return parser.getText();
+    }
+
+    /**
+     * Accepts the balance as a JSON number or, for clients that keep decimals out of doubles, as a string.
+     */
+    private static BigDecimal readDecimal(final JsonParser parser, final JsonToken value) throws IOException {
+        switch (value) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDecimalValue();
+            case VALUE_STRING:
+                try {
+                    return new BigDecimal(parser.getText());
+                } catch (final NumberFormatException e) {
+                    throw new JsonParseException("balance is not a number", parser.getCurrentLocation());
+                }
+            default:
+                throw new JsonParseException("balance must be a number", parser.getCurrentLocation());
+        }
+    }
+}
@@ -1,34 +1,521 @@
 package com.codebreeze.rest.server.rs;
 
 import com.codebreeze.rest.server.model.Account;
+import com.codebreeze.rest.server.model.AccountStats;
+import com.codebreeze.rest.server.model.BulkLoadResult;
+import com.codebreeze.rest.server.model.Cents;
+import com.codebreeze.rest.server.model.TransferResult;
 import com.codebreeze.rest.server.services.AccountService;
+import com.codebreeze.rest.server.services.ChangeLog;
+import com.codebreeze.rest.server.store.AccountVisitor;
+import com.codebreeze.rest.server.web.GracefulShutdown;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.io.BaseEncoding;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
+import javax.servlet.ServletContext;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 @Component
 @Path( "/account" )
 public class AccountRestService {
+    private static final int BULK_BATCH_SIZE = 1024;
+    private static final int MAX_LOOKUP_NUMBERS = 10000;
+    private static final byte[] MISS_MARKER = "MISS ".getBytes(UTF_8);
+    private static final int MAX_SCAN_LIMIT = 10000;
+    private static final int MAX_SEARCH_LIMIT = 1000;
+    private static final int MAX_STATS_TOP = 1000;
+    private static final byte[] NEXT_MARKER = "NEXT ".getBytes(UTF_8);
+    private static final byte[] END_MARKER = "END".getBytes(UTF_8);
+
     @Autowired
     private AccountService accountService;
 
-    @Produces( { "text/plain" } )
+    @Autowired
+    private ExecutorService requestExecutor;
+
+    @Context
+    private ServletContext servletContext;
+
+    /**
+     * Tags the account with its version, and answers 304 Not Modified, without a body, to an If-None-Match
+     * that has it, e.g.
+     * curl -v -H 'If-None-Match: W/"5a1b2c3d00001"' http://localhost:8080/api/account/number/123
+     * The tag is weak because the text rendering of equal accounts can differ in its identity hash.
+     */
+    @Produces( { "text/plain", "application/json", BinaryAccountProvider.APPLICATION_ACCOUNT } )
     @GET
     @Path("/number/{number}")
-    public Account getAccount(@PathParam("number") final String number) {
-        return accountService.getAccount(number);
+    public void getAccount(@PathParam("number") final String number,
+                           @HeaderParam(HttpHeaders.IF_NONE_MATCH) final String ifNoneMatch,
+                           @Suspended final AsyncResponse response) {
+        complete(response, new Callable<Response>() {
+            @Override
+            public Response call() {
+                final Account account = accountService.getAccount(number);
+                if (account == Account.NULL_ACCOUNT) {
+                    return Response.ok(account).build();
+                }
+                final EntityTag tag = new EntityTag(Long.toHexString(account.getVersion()), true);
+                if (anyMatches(ifNoneMatch, tag)) {
+                    return Response.notModified(tag).build();
+                }
+                return Response.ok(account).tag(tag).build();
+            }
+        });
     }
 
+    /**
+     * Looks up the account numbers in the body, one per line, and streams back one line per number in the
+     * same order: the account as {@link #getAccount} renders it, or the miss marker followed by the number, e.g.
+     * curl -v -H "Content-Type: text/plain" --data-binary @numbers.txt http://localhost:8080/api/account/lookup
+     */
     @Produces( {"text/plain"} )
+    @Consumes( {"text/plain"} )
+    @POST
+    @Path("/lookup")
+    public StreamingOutput getAccounts(final InputStream body) throws IOException {
+        final List<String> numbers = readNumbers(body);
+        return new StreamingOutput() {
+            @Override
+            public void write(final OutputStream output) throws IOException {
+                final OutputStream out = new BufferedOutputStream(output);
+                for (final String number : numbers) {
+                    final Account account = accountService.getAccount(number);
+                    if (account == Account.NULL_ACCOUNT) {
+                        out.write(MISS_MARKER);
+                        out.write(number.getBytes(UTF_8));
+                    } else {
+                        writeAccount(account, out);
+                    }
+                    out.write('\n');
+                }
+                out.flush();
+            }
+        };
+    }
+
+    /**
+     * As {@link #getAccounts}, but streams a JSON array with null in place of each miss, e.g.
+     * curl -v -H "Content-Type: text/plain" -H "Accept: application/json" --data-binary @numbers.txt
+     * http://localhost:8080/api/account/lookup
+     */
+    @Produces( {"application/json"} )
+    @Consumes( {"text/plain"} )
     @POST
-    public Account addAccount(@FormParam("number") final String number,
-                              @FormParam("name") final String name,
-                              @FormParam("balance") final String balance) {
-        final Account account = new Account(number, name, new BigDecimal(balance));
-        accountService.addAccount(account);
-        return account;
+    @Path("/lookup")
+    public StreamingOutput getAccountsAsJson(final InputStream body) throws IOException {
+        final List<String> numbers = readNumbers(body);
+        return new StreamingOutput() {
+            @Override
+            public void write(final OutputStream output) throws IOException {
+                final JsonGenerator generator = AccountJson.generator(output);
+                generator.writeStartArray();
+                for (final String number : numbers) {
+                    final Account account = accountService.getAccount(number);
+                    if (account == Account.NULL_ACCOUNT) {
+                        generator.writeNull();
+                    } else {
+                        AccountJson.write(generator, account);
+                    }
+                }
+                generator.writeEndArray();
+                generator.flush();
+            }
+        };
+    }
+
+    /**
+     * Streams up to limit accounts, one per line, followed by a line with the cursor for the next page,
+     * "NEXT cursor", or "END" when there are no more, e.g.
+     * curl -v "http://localhost:8080/api/account/scan?limit=1000&cursor=..."
+     */
+    @Produces( {"text/plain"} )
+    @GET
+    @Path("/scan")
+    public StreamingOutput scanAccounts(@QueryParam("cursor") final String cursor,
+                                        @QueryParam("limit") @DefaultValue("1000") final int limit) {
+        final String from = scanStart(cursor, limit);
+        return new StreamingOutput() {
+            @Override
+            public void write(final OutputStream output) throws IOException {
+                final OutputStream out = new BufferedOutputStream(output);
+                final String next;
+                try {
+                    next = accountService.scanAccounts(from, limit, new AccountVisitor() {
+                        @Override
+                        public void visit(final Account account) {
+                            try {
+                                writeAccount(account, out);
+                                out.write('\n');
+                            } catch (final IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    });
+                } catch (final UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                if (next == null) {
+                    out.write(END_MARKER);
+                } else {
+                    out.write(NEXT_MARKER);
+                    out.write(encodeCursor(next).getBytes(UTF_8));
+                }
+                out.write('\n');
+                out.flush();
+            }
+        };
+    }
+
+    /**
+     * As {@link #scanAccounts}, but streams {"accounts":[...],"next":"cursor"}, with a null next on the last page
+     */
+    @Produces( {"application/json"} )
+    @GET
+    @Path("/scan")
+    public StreamingOutput scanAccountsAsJson(@QueryParam("cursor") final String cursor,
+                                              @QueryParam("limit") @DefaultValue("1000") final int limit) {
+        final String from = scanStart(cursor, limit);
+        return new StreamingOutput() {
+            @Override
+            public void write(final OutputStream output) throws IOException {
+                final JsonGenerator generator = AccountJson.generator(output);
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("accounts");
+                final String next;
+                try {
+                    next = accountService.scanAccounts(from, limit, new AccountVisitor() {
+                        @Override
+                        public void visit(final Account account) {
+                            try {
+                                AccountJson.write(generator, account);
+                            } catch (final IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    });
+                } catch (final UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                generator.writeEndArray();
+                generator.writeStringField("next", next == null ? null : encodeCursor(next));
+                generator.writeEndObject();
+                generator.flush();
+            }
+        };
+    }
+
+    @Produces( {"text/plain", "application/json", BinaryAccountProvider.APPLICATION_ACCOUNT} )
+    @POST
+    public void addAccount(@FormParam("number") final String number,
+                           @FormParam("name") final String name,
+                           @FormParam("balance") final String balance,
+                           @Suspended final AsyncResponse response) {
+        complete(response, new Callable<Account>() {
+            @Override
+            public Account call() {
+                try {
+                    return accountService.addAccount(new Account(number, name, new BigDecimal(balance)));
+                } catch (final IllegalArgumentException e) {
+                    // a missing number, or a balance that is not a number
+                    throw badRequest(e.getMessage());
+                }
+            }
+        });
+    }
+
+    @Produces( {"text/plain", "application/json", BinaryAccountProvider.APPLICATION_ACCOUNT} )
+    @Consumes( {"application/json", BinaryAccountProvider.APPLICATION_ACCOUNT} )
+    @POST
+    public void addAccount(final Account account, @Suspended final AsyncResponse response) {
+        complete(response, new Callable<Account>() {
+            @Override
+            public Account call() {
+                try {
+                    return accountService.addAccount(account);
+                } catch (final IllegalArgumentException e) {
+                    throw badRequest(e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Streams up to limit accounts whose names start with the given prefix, ignoring case, one per line in
+     * name order, e.g.
+     * curl -v "http://localhost:8080/api/account/search?name=aj&limit=10"
+     */
+    @Produces( {"text/plain"} )
+    @GET
+    @Path("/search")
+    public StreamingOutput findAccounts(@QueryParam("name") final String prefix,
+                                        @QueryParam("limit") @DefaultValue("10") final int limit) {
+        final List<Account> accounts = findByName(prefix, limit);
+        return new StreamingOutput() {
+            @Override
+            public void write(final OutputStream output) throws IOException {
+                final OutputStream out = new BufferedOutputStream(output);
+                for (final Account account : accounts) {
+                    writeAccount(account, out);
+                    out.write('\n');
+                }
+                out.flush();
+            }
+        };
+    }
+
+    /**
+     * As {@link #findAccounts}, but as a JSON array
+     */
+    @Produces( {"application/json"} )
+    @GET
+    @Path("/search")
+    public List<Account> findAccountsAsJson(@QueryParam("name") final String prefix,
+                                            @QueryParam("limit") @DefaultValue("10") final int limit) {
+        return findByName(prefix, limit);
+    }
+
+    /**
+     * The count, total, minimum and maximum of the balances, and the accounts with the top largest, e.g.
+     * curl -v "http://localhost:8080/api/account/stats?top=10"
+     */
+    @Produces( {"text/plain"} )
+    @GET
+    @Path("/stats")
+    public AccountStats getStats(@QueryParam("top") @DefaultValue("10") final int top) {
+        if (top < 0 || top > MAX_STATS_TOP) {
+            throw badRequest("top must be between 0 and " + MAX_STATS_TOP);
+        }
+        try {
+            return accountService.getStats(top);
+        } catch (final IllegalStateException e) {
+            throw new WebApplicationException(Response
+                    .status(Response.Status.NOT_FOUND)
+                    .entity(e.getMessage())
+                    .build());
+        }
+    }
+
+    /**
+     * Every add and update from now on, or from a sequence number still in the change log, as server-sent
+     * events, e.g.
+     * curl -N -H "Accept: text/event-stream" http://localhost:8080/api/account/changes
+     * curl -N -H "Accept: text/event-stream" -H "Last-Event-ID: 41" http://localhost:8080/api/account/changes
+     * An EventSource resumes by itself with Last-Event-ID, the id of the last event it got; from is the first
+     * sequence number to send, for clients that keep their own position.
+     */
+    @Produces( { ChangeEventStream.TEXT_EVENT_STREAM } )
+    @GET
+    @Path("/changes")
+    public Response getChanges(@QueryParam("from") final Long from,
+                               @HeaderParam("Last-Event-ID") final String lastEventId) {
+        final ChangeLog changes = accountService.getChanges();
+        if (changes == null) {
+            throw new WebApplicationException(Response
+                    .status(Response.Status.NOT_FOUND)
+                    .entity("the change log is off")
+                    .build());
+        }
+        final long head = changes.head();
+        final long start;
+        if (lastEventId != null && !lastEventId.isEmpty()) {
+            try {
+                start = Long.parseLong(lastEventId.trim()) + 1;
+            } catch (final NumberFormatException e) {
+                throw badRequest("Last-Event-ID must be a sequence number");
+            }
+        } else {
+            start = from == null ? head : from;
+        }
+        if (start < 0 || start > head) {
+            throw badRequest("the sequence number must be between 0 and " + head);
+        }
+        return Response.ok(new ChangeEventStream(changes, start,
+                (GracefulShutdown) servletContext.getAttribute(GracefulShutdown.ATTRIBUTE)))
+                .header("Cache-Control", "no-cache")
+                .header(ReplicationRestService.EPOCH_HEADER, changes.getEpoch())
+                .build();
+    }
+
+    /**
+     * Moves an amount, in at most two decimals, from one account to another, atomically, e.g.
+     * curl -v --data "from=1234&to=5678&amount=10.50" http://localhost:8080/api/account/transfer
+     * A missing account or a malformed request is a 400, too little money in the debited account a 409.
+     */
+    @Produces( {"text/plain"} )
+    @POST
+    @Path("/transfer")
+    public void transfer(@FormParam("from") final String from,
+                         @FormParam("to") final String to,
+                         @FormParam("amount") final String amount,
+                         @Suspended final AsyncResponse response) {
+        complete(response, new Callable<TransferResult>() {
+            @Override
+            public TransferResult call() {
+                try {
+                    return accountService.transfer(from, to, Cents.parse(amount));
+                } catch (final IllegalArgumentException e) {
+                    throw badRequest(e.getMessage());
+                } catch (final IllegalStateException e) {
+                    throw new WebApplicationException(Response
+                            .status(Response.Status.CONFLICT)
+                            .entity(e.getMessage())
+                            .build());
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads number,name,balance lines from a streamed body, e.g.
+     * curl -v -H "Content-Type: text/csv" --data-binary @accounts.csv http://localhost:8080/api/account/bulk
+     */
+    @Produces( {"text/plain"} )
+    @Consumes( {"text/csv"} )
+    @POST
+    @Path("/bulk")
+    public BulkLoadResult addAccounts(final InputStream body) throws IOException {
+        return new AccountCsvReader(body).loadInto(accountService, BULK_BATCH_SIZE);
+    }
+
+    /**
+     * Runs the request on the request executor, which with --async hands it to another thread and frees the
+     * container thread at once, and otherwise runs it here. Only what the request needs from the container
+     * is read before, on the container thread.
+     */
+    private void complete(final AsyncResponse response, final Callable<?> request) {
+        try {
+            requestExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        response.resume(request.call());
+                    } catch (final Exception e) {
+                        response.resume(e);
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            response.resume(new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE));
+        }
+    }
+
+    /**
+     * weak comparison against an If-None-Match list, e.g. W/"1a", "2b" or *
+     */
+    private static boolean anyMatches(final String ifNoneMatch, final EntityTag tag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        final String quoted = '"' + tag.getValue() + '"';
+        for (final String candidate : ifNoneMatch.split(",")) {
+            final String trimmed = candidate.trim();
+            if ("*".equals(trimmed) || quoted.equals(trimmed.startsWith("W/") ? trimmed.substring(2) : trimmed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> readNumbers(final InputStream body) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(body, UTF_8));
+        final List<String> numbers = new ArrayList<String>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final String number = line.trim();
+            if (number.isEmpty()) {
+                continue;
+            }
+            if (numbers.size() == MAX_LOOKUP_NUMBERS) {
+                throw new WebApplicationException(Response
+                        .status(Response.Status.REQUEST_ENTITY_TOO_LARGE)
+                        .entity("at most " + MAX_LOOKUP_NUMBERS + " numbers per lookup")
+                        .build());
+            }
+            numbers.add(number);
+        }
+        return numbers;
+    }
+
+    /**
+     * Writes the account as its toString would, without building the String.
+     */
+    private static void writeAccount(final Account account, final OutputStream out) throws IOException {
+        if (AccountTextFormat.supports(account)) {
+            AccountTextFormat.write(account, out);
+        } else {
+            out.write(account.toString().getBytes(UTF_8));
+        }
+    }
+
+    private List<Account> findByName(final String prefix, final int limit) {
+        if (prefix == null || prefix.isEmpty()) {
+            throw badRequest("a name prefix is required");
+        }
+        if (limit < 1 || limit > MAX_SEARCH_LIMIT) {
+            throw badRequest("limit must be between 1 and " + MAX_SEARCH_LIMIT);
+        }
+        try {
+            return accountService.findByName(prefix, limit);
+        } catch (final IllegalStateException e) {
+            throw new WebApplicationException(Response
+                    .status(Response.Status.NOT_FOUND)
+                    .entity(e.getMessage())
+                    .build());
+        }
+    }
+
+    /**
+     * @return the number to scan after, or null to scan from the start
+     */
+    private static String scanStart(final String cursor, final int limit) {
+        if (limit < 1 || limit > MAX_SCAN_LIMIT) {
+            throw badRequest("limit must be between 1 and " + MAX_SCAN_LIMIT);
+        }
+        return cursor == null || cursor.isEmpty() ? null : decodeCursor(cursor);
+    }
+
+    private static String encodeCursor(final String cursor) {
+        return BaseEncoding.base64Url().omitPadding().encode(cursor.getBytes(UTF_8));
+    }
+
+    private static String decodeCursor(final String cursor) {
+        try {
+            return new String(BaseEncoding.base64Url().omitPadding().decode(cursor), UTF_8);
+        } catch (final IllegalArgumentException e) {
+            throw badRequest("not a cursor this server returned");
+        }
+    }
+
+    private static WebApplicationException badRequest(final String message) {
+        return new WebApplicationException(Response
+                .status(Response.Status.BAD_REQUEST)
+                .entity(message)
+                .build());
     }
 }
@@ -0,0 +1,177 @@
+package com.codebreeze.rest.server.rs;
+
+import com.codebreeze.rest.server.model.Account;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Renders an {@link Account} byte for byte as {@link Account#toString} does, i.e. as
+ * ToStringBuilder.reflectionToString with the default style, but straight into a reusable per-thread buffer:
+ * no reflection, no StringBuilder, no String and no byte[] per account. A balance that BigDecimal would print
+ * in plain notation and that has at most 18 digits is formatted from its unscaled value; any other balance
+ * falls back to BigDecimal.toString.
+ */
+final class AccountTextFormat {
+    private static final byte[] PREFIX = (Account.class.getName() + "@").getBytes(UTF_8);
+    private static final byte[] NUMBER = "[number=".getBytes(UTF_8);
+    private static final byte[] NAME = ",name=".getBytes(UTF_8);
+    private static final byte[] BALANCE = ",balance=".getBytes(UTF_8);
+    private static final byte[] NULL = "<null>".getBytes(UTF_8);
+    private static final byte END = ']';
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(UTF_8);
+    private static final int FIXED_LENGTH = PREFIX.length + NUMBER.length + NAME.length + BALANCE.length + 1;
+    private static final int MAX_PLAIN_DIGITS = 18;
+    private static final int MAX_HASH_LENGTH = 8;
+    // sign, 18 digits, decimal point, "0." and up to 6 leading zeros
+    private static final int MAX_PLAIN_LENGTH = 1 + MAX_PLAIN_DIGITS + 1 + 2 + 6;
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[INITIAL_BUFFER_SIZE];
+        }
+    };
+
+    private AccountTextFormat() {
+    }
+
+    /**
+     * @return true if the object is rendered here rather than by its toString; subclasses are not, as their
+     * reflective rendering has other fields
+     */
+    static boolean supports(final Object object) {
+        return object != null && object.getClass() == Account.class;
+    }
+
+    /**
+     * @return the exact number of bytes {@link #write} writes
+     */
+    static int length(final Account account) {
+        return FIXED_LENGTH
+                + hexLength(System.identityHashCode(account))
+                + stringLength(account.getNumber())
+                + stringLength(account.getName())
+                + balanceLength(account.getBalance());
+    }
+
+    static void write(final Account account, final OutputStream out) throws IOException {
+        final BigDecimal balance = account.getBalance();
+        final String fallback = balance == null || isPlain(balance) ? null : balance.toString();
+        final int maxLength = FIXED_LENGTH + MAX_HASH_LENGTH
+                + maxStringLength(account.getNumber())
+                + maxStringLength(account.getName())
+                + (fallback == null ? Math.max(NULL.length, MAX_PLAIN_LENGTH) : maxStringLength(fallback));
+        byte[] buffer = BUFFERS.get();
+        if (buffer.length < maxLength) {
+            buffer = new byte[Math.max(maxLength, buffer.length * 2)];
+            BUFFERS.set(buffer);
+        }
+        int position = put(PREFIX, buffer, 0);
+        position = putHex(System.identityHashCode(account), buffer, position);
+        position = put(NUMBER, buffer, position);
+        position = putString(account.getNumber(), buffer, position);
+        position = put(NAME, buffer, position);
+        position = putString(account.getName(), buffer, position);
+        position = put(BALANCE, buffer, position);
+        if (balance == null) {
+            position = put(NULL, buffer, position);
+        } else if (fallback == null) {
+            position = putPlain(balance, buffer, position);
+        } else {
+            position = Utf8.encode(fallback, buffer, position);
+        }
+        buffer[position++] = END;
+        out.write(buffer, 0, position);
+    }
+
+    /**
+     * @return true if BigDecimal.toString would not use an exponent, and the unscaled value fits 18 digits
+     */
+    private static boolean isPlain(final BigDecimal balance) {
+        final int scale = balance.scale();
+        final int precision = balance.precision();
+        return scale >= 0 && precision <= MAX_PLAIN_DIGITS && precision - 1 - scale >= -6;
+    }
+
+    private static int putPlain(final BigDecimal balance, final byte[] buffer, final int offset) {
+        final long unscaled = balance.unscaledValue().longValue();
+        final int scale = balance.scale();
+        final int digits = balance.precision();
+        int position = offset;
+        if (unscaled < 0) {
+            buffer[position++] = '-';
+        }
+        // leading zeros of a value below one, e.g. 0.005
+        final int integerDigits = digits - scale;
+        if (integerDigits <= 0) {
+            buffer[position++] = '0';
+            buffer[position++] = '.';
+            for (int i = integerDigits; i < 0; i++) {
+                buffer[position++] = '0';
+            }
+        }
+        final int length = digits + (scale > 0 && integerDigits > 0 ? 1 : 0);
+        long remaining = Math.abs(unscaled);
+        int index = position + length - 1;
+        for (int i = 0; i < digits; i++) {
+            if (i == scale && integerDigits > 0 && scale > 0) {
+                buffer[index--] = '.';
+            }
+            buffer[index--] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        return position + length;
+    }
+
+    private static int balanceLength(final BigDecimal balance) {
+        if (balance == null) {
+            return NULL.length;
+        }
+        if (!isPlain(balance)) {
+            return balance.toString().length();
+        }
+        final int digits = balance.precision();
+        final int integerDigits = digits - balance.scale();
+        final int sign = balance.signum() < 0 ? 1 : 0;
+        if (integerDigits <= 0) {
+            return sign + 2 - integerDigits + digits;
+        }
+        return sign + digits + (balance.scale() > 0 ? 1 : 0);
+    }
+
+    private static int stringLength(final String value) {
+        return value == null ? NULL.length : Utf8.length(value);
+    }
+
+    private static int maxStringLength(final String value) {
+        return value == null ? NULL.length : value.length() * 3;
+    }
+
+    private static int putString(final String value, final byte[] buffer, final int offset) {
+        return value == null ? put(NULL, buffer, offset) : Utf8.encode(value, buffer, offset);
+    }
+
+    private static int put(final byte[] bytes, final byte[] buffer, final int offset) {
+        System.arraycopy(bytes, 0, buffer, offset, bytes.length);
+        return offset + bytes.length;
+    }
+
+    private static int hexLength(final int value) {
+        return value == 0 ? 1 : (Integer.SIZE - Integer.numberOfLeadingZeros(value) + 3) / 4;
+    }
+
+    private static int putHex(final int value, final byte[] buffer, final int offset) {
+        final int length = hexLength(value);
+        int shifted = value;
+        for (int i = offset + length - 1; i >= offset; i--) {
+            buffer[i] = HEX_DIGITS[shifted & 0xf];
+            shifted >>>= 4;
+        }
+        return offset + length;
+    }
+}
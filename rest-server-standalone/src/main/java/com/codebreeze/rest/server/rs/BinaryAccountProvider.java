@@ -0,0 +1,90 @@
+package com.codebreeze.rest.server.rs;
+
+import com.codebreeze.rest.server.model.Account;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Reads and writes {@link Account} in the compact {@link AccountBinaryFormat}, for service-to-service calls that
+ * ask for it with Accept: application/x-account. Unlike {@link ToStringProvider} it knows the size up front.
+ */
+@Produces( BinaryAccountProvider.APPLICATION_ACCOUNT )
+@Consumes( BinaryAccountProvider.APPLICATION_ACCOUNT )
+@Provider
+public class BinaryAccountProvider implements MessageBodyReader<Account>,
+        MessageBodyWriter<Account> {
+    public static final String APPLICATION_ACCOUNT = "application/x-account";
+    public static final MediaType APPLICATION_ACCOUNT_TYPE = new MediaType ( "application", "x-account" );
+
+    @Override
+    public boolean isWriteable ( Class<?> type, Type genericType,
+                                 Annotation[] annotations, MediaType mediaType ) {
+        return Account.class.isAssignableFrom ( type ) && APPLICATION_ACCOUNT_TYPE.isCompatible ( mediaType );
+    }
+
+    @Override
+    public long getSize ( Account account, Class<?> type, Type genericType,
+                          Annotation[] annotations, MediaType mediaType ) {
+        return AccountBinaryFormat.size ( account );
+    }
+
+    @Override
+    public void writeTo ( Account account, Class<?> type, Type genericType,
+                          Annotation[] annotations, MediaType mediaType,
+                          MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream )
+            throws IOException, WebApplicationException {
+        final byte[] bytes;
+        try {
+            bytes = AccountBinaryFormat.encode ( account );
+        } catch ( final IllegalArgumentException e ) {
+            // nothing is written yet, so the status can still change
+            throw new WebApplicationException ( Response
+                    .status ( Response.Status.NOT_ACCEPTABLE )
+                    .entity ( e.getMessage () )
+                    .build () );
+        }
+        entityStream.write ( bytes );
+    }
+
+    @Override
+    public boolean isReadable ( Class<?> type, Type genericType,
+                                Annotation[] annotations, MediaType mediaType ) {
+        return Account.class.equals ( type ) && APPLICATION_ACCOUNT_TYPE.isCompatible ( mediaType );
+    }
+
+    @Override
+    public Account readFrom ( Class<Account> type, Type genericType,
+                              Annotation[] annotations, MediaType mediaType,
+                              MultivaluedMap<String, String> httpHeaders, InputStream entityStream )
+            throws IOException, WebApplicationException {
+        try {
+            return AccountBinaryFormat.decode ( new DataInputStream ( entityStream ) );
+        } catch ( final EOFException e ) {
+            throw badRequest ( "account is truncated" );
+        } catch ( final IOException e ) {
+            throw badRequest ( e.getMessage () );
+        }
+    }
+
+    private static WebApplicationException badRequest ( final String message ) {
+        return new WebApplicationException ( Response
+                .status ( Response.Status.BAD_REQUEST )
+                .entity ( message )
+                .build () );
+    }
+}
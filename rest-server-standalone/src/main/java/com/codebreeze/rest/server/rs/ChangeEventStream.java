@@ -0,0 +1,108 @@
+package com.codebreeze.rest.server.rs;
+
+import com.codebreeze.rest.server.services.ChangeLog;
+import com.codebreeze.rest.server.web.GracefulShutdown;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Streams changes as server-sent events from a position in the {@link ChangeLog}, until the client goes away:
+ * <pre>
+ * id: 42
+ * event: account
+ * data: {"version":"5a1b2c3d00001","time":1414141414141,"account":{"number":"1234","name":"aj","balance":123.44}}
+ * </pre>
+ * The id is the sequence number to resume after, and the time when the change was published, in milliseconds.
+ * A client that falls so far behind that its next change has been overwritten gets a resync event, with the
+ * sequence number to resume from once it has re-read the accounts, and the stream ends; nothing is buffered for
+ * it beyond the ring every client shares. Events are flushed whenever the stream catches up, and a comment goes
+ * out when nothing has changed for a while, to keep the connection open. The stream also ends, within a second,
+ * when the server starts draining, and the client resumes from another server with the last id it got. Each
+ * stream holds a request thread while it is open, so the admission filter caps how many are open at once.
+ */
+final class ChangeEventStream implements StreamingOutput {
+    static final String TEXT_EVENT_STREAM = "text/event-stream";
+
+    private static final int HEARTBEAT_SECONDS = 15;
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(UTF_8);
+    private static final byte[] RETRY = "retry: 1000\n\n".getBytes(UTF_8);
+
+    private final ChangeLog changes;
+    // null if the server is not drained on shutdown
+    private final GracefulShutdown shutdown;
+    private long next;
+
+    ChangeEventStream(final ChangeLog changes, final long from, final GracefulShutdown shutdown) {
+        this.changes = changes;
+        this.next = from;
+        this.shutdown = shutdown;
+    }
+
+    @Override
+    public void write(final OutputStream output) throws IOException {
+        final OutputStream out = new BufferedOutputStream(output);
+        out.write(RETRY);
+        out.flush();
+        try {
+            int quietSeconds = 0;
+            while (shutdown == null || !shutdown.isDraining()) {
+                final ChangeLog.Change change = changes.get(next);
+                if (change != null) {
+                    out.write(event(change));
+                    next++;
+                    quietSeconds = 0;
+                } else if (changes.isOverwritten(next)) {
+                    out.write(resync(changes.head()));
+                    out.flush();
+                    return;
+                } else {
+                    out.flush();
+                    // a second at a time, to notice a drain
+                    if (!changes.await(next, 1, TimeUnit.SECONDS) && ++quietSeconds == HEARTBEAT_SECONDS) {
+                        out.write(HEARTBEAT);
+                        quietSeconds = 0;
+                    }
+                }
+            }
+            out.flush();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted streaming changes");
+        }
+    }
+
+    private static byte[] event(final ChangeLog.Change change) throws IOException {
+        final byte[] rendered = change.getEvent();
+        if (rendered != null) {
+            return rendered;
+        }
+        final ByteArrayOutputStream event = new ByteArrayOutputStream(256);
+        event.write(("id: " + change.getSequence() + "\nevent: account\ndata: ").getBytes(UTF_8));
+        final JsonGenerator generator = AccountJson.generator(event);
+        generator.writeStartObject();
+        generator.writeStringField(AccountJson.VERSION, Long.toHexString(change.getAccount().getVersion()));
+        generator.writeNumberField(AccountJson.TIME, change.getTime());
+        generator.writeFieldName(AccountJson.ACCOUNT);
+        AccountJson.write(generator, change.getAccount());
+        generator.writeEndObject();
+        generator.flush();
+        event.write("\n\n".getBytes(UTF_8));
+        // two readers may both render it; either rendering will do
+        final byte[] bytes = event.toByteArray();
+        change.setEvent(bytes);
+        return bytes;
+    }
+
+    private static byte[] resync(final long from) {
+        return ("event: resync\ndata: {\"from\":" + from + "}\n\n").getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,47 @@
+package com.codebreeze.rest.server.rs;
+
+import com.codebreeze.rest.server.metrics.Metrics;
+import com.codebreeze.rest.server.web.MetricsFilter;
+import org.apache.cxf.jaxrs.model.OperationResourceInfo;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+import org.apache.cxf.transport.http.AbstractHTTPDestination;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tells the {@link MetricsFilter} which resource method a request was matched to, by the time it is invoked.
+ */
+public class EndpointInterceptor extends AbstractPhaseInterceptor<Message> {
+    private final Metrics metrics;
+    private final ConcurrentMap<Method, Metrics.Endpoint> endpoints = new ConcurrentHashMap<Method, Metrics.Endpoint>();
+
+    public EndpointInterceptor(final Metrics metrics) {
+        super(Phase.PRE_INVOKE);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void handleMessage(final Message message) {
+        final OperationResourceInfo operation = message.getExchange().get(OperationResourceInfo.class);
+        final HttpServletRequest request = (HttpServletRequest) message.get(AbstractHTTPDestination.HTTP_REQUEST);
+        if (operation != null && request != null) {
+            request.setAttribute(MetricsFilter.ENDPOINT, endpoint(operation.getAnnotatedMethod()));
+        }
+    }
+
+    private Metrics.Endpoint endpoint(final Method method) {
+        final Metrics.Endpoint endpoint = endpoints.get(method);
+        if (endpoint != null) {
+            return endpoint;
+        }
+        final Metrics.Endpoint found =
+                metrics.endpoint(method.getDeclaringClass().getSimpleName() + "." + method.getName());
+        endpoints.putIfAbsent(method, found);
+        return found;
+    }
+}
@@ -0,0 +1,32 @@
+package com.codebreeze.rest.server.rs;
+
+import com.codebreeze.rest.server.metrics.Metrics;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+
+/**
+ * Times the message body writers, e.g. {@link ToStringProvider}, by the type and media type they write. A
+ * streamed response is timed as a whole, so its time includes the lookups that feed the stream.
+ */
+@Provider
+public class EntityWriteTimer implements WriterInterceptor {
+    private final Metrics metrics;
+
+    public EntityWriteTimer(final Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void aroundWriteTo(final WriterInterceptorContext context) throws IOException, WebApplicationException {
+        final long start = System.nanoTime();
+        try {
+            context.proceed();
+        } finally {
+            metrics.write(context.getType(), context.getMediaType().getSubtype()).record(System.nanoTime() - start);
+        }
+    }
+}
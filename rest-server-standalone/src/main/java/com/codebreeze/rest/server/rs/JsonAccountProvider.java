@@ -0,0 +1,97 @@
+package com.codebreeze.rest.server.rs;
+
+import com.codebreeze.rest.server.model.Account;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
+/**
+ * Reads and writes {@link Account} as JSON, and writes any Iterable of accounts as a JSON array, one account
+ * at a time as the Iterable yields them, so a list-style response never exists as a whole in memory.
+ * See {@link AccountJson} for the format.
+ */
+@Produces( MediaType.APPLICATION_JSON )
+@Consumes( MediaType.APPLICATION_JSON )
+@Provider
+public class JsonAccountProvider implements MessageBodyReader<Account>,
+        MessageBodyWriter<Object> {
+
+    @Override
+    public boolean isWriteable ( Class<?> type, Type genericType,
+                                 Annotation[] annotations, MediaType mediaType ) {
+        return MediaType.APPLICATION_JSON_TYPE.isCompatible ( mediaType )
+                && ( Account.class.isAssignableFrom ( type ) || isIterableOfAccounts ( type, genericType ) );
+    }
+
+    @Override
+    public long getSize ( Object t, Class<?> type, Type genericType,
+                          Annotation[] annotations, MediaType mediaType ) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo ( Object t, Class<?> type, Type genericType,
+                          Annotation[] annotations, MediaType mediaType,
+                          MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream )
+            throws IOException, WebApplicationException {
+        final JsonGenerator generator = AccountJson.generator ( entityStream );
+        if ( t instanceof Account ) {
+            AccountJson.write ( generator, ( Account ) t );
+        } else {
+            generator.writeStartArray ();
+            for ( final Object account : ( Iterable<?> ) t ) {
+                AccountJson.write ( generator, ( Account ) account );
+            }
+            generator.writeEndArray ();
+        }
+        generator.flush ();
+    }
+
+    @Override
+    public boolean isReadable ( Class<?> type, Type genericType,
+                                Annotation[] annotations, MediaType mediaType ) {
+        return Account.class.equals ( type ) && MediaType.APPLICATION_JSON_TYPE.isCompatible ( mediaType );
+    }
+
+    @Override
+    public Account readFrom ( Class<Account> type, Type genericType,
+                              Annotation[] annotations, MediaType mediaType,
+                              MultivaluedMap<String, String> httpHeaders, InputStream entityStream )
+            throws IOException, WebApplicationException {
+        try {
+            final JsonParser parser = AccountJson.parser ( entityStream );
+            parser.nextToken ();
+            return AccountJson.read ( parser );
+        } catch ( final JsonProcessingException e ) {
+            throw new WebApplicationException ( Response
+                    .status ( Response.Status.BAD_REQUEST )
+                    .entity ( e.getOriginalMessage () )
+                    .build () );
+        }
+    }
+
+    private static boolean isIterableOfAccounts ( Class<?> type, Type genericType ) {
+        if ( !Iterable.class.isAssignableFrom ( type ) || !( genericType instanceof ParameterizedType ) ) {
+            return false;
+        }
+        final Type[] arguments = ( ( ParameterizedType ) genericType ).getActualTypeArguments ();
+        return arguments.length == 1 && arguments[0] instanceof Class
+                && Account.class.isAssignableFrom ( ( Class<?> ) arguments[0] );
+    }
+}
@@ -0,0 +1,123 @@
+package com.codebreeze.rest.server.rs;
+
+import com.codebreeze.rest.server.model.Account;
+import com.codebreeze.rest.server.model.PartitionStatus;
+import com.codebreeze.rest.server.partition.HashRing;
+import com.codebreeze.rest.server.partition.Partitioner;
+import com.codebreeze.rest.server.services.AccountService;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.FormParam;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How the accounts are partitioned across servers, for clients to route by and for operators to change, and
+ * where servers send each other the accounts that changed owner.
+ */
+@Component
+@Path( "/partition" )
+public class PartitionRestService {
+    /**
+     * the response header with the number of points each node has on the ring
+     */
+    public static final String VIRTUAL_NODES_HEADER = "X-Virtual-Nodes";
+
+    @Autowired
+    private AccountService accountService;
+
+    // only when accounts are partitioned
+    @Autowired( required = false )
+    private Partitioner partitioner;
+
+    /**
+     * e.g. curl -v http://localhost:8080/api/partition
+     */
+    @Produces( {"text/plain"} )
+    @GET
+    public PartitionStatus getStatus() {
+        return partitioner().getStatus();
+    }
+
+    /**
+     * The nodes, one per line, with the virtual nodes each has in a header: all a client needs to route, e.g.
+     * curl -v http://localhost:8080/api/partition/nodes
+     */
+    @Produces( {"text/plain"} )
+    @GET
+    @Path("/nodes")
+    public Response getNodes() {
+        final HashRing ring = partitioner().getRing();
+        return Response.ok(Joiner.on('\n').join(ring.getNodes()) + '\n')
+                .header(VIRTUAL_NODES_HEADER, ring.getVirtualNodes())
+                .build();
+    }
+
+    /**
+     * Changes the nodes on this server; every server, the leaving ones too, has to be given the same nodes, e.g.
+     * curl -v -X PUT --data "nodes=http://localhost:8080,http://localhost:8081"
+     * http://localhost:8080/api/partition/nodes
+     */
+    @Produces( {"text/plain"} )
+    @PUT
+    @Path("/nodes")
+    public PartitionStatus setNodes(@FormParam("nodes") final String nodes) {
+        final Partitioner current = partitioner();
+        final List<String> list = nodes == null
+                ? null : Splitter.on(',').trimResults().omitEmptyStrings().splitToList(nodes);
+        if (list == null || list.isEmpty()) {
+            throw new WebApplicationException(Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity("nodes must be a comma separated list of addresses")
+                    .build());
+        }
+        current.setNodes(list);
+        return current.getStatus();
+    }
+
+    /**
+     * Applies accounts another server moved here, one versioned account per line, as a snapshot has them. An
+     * account already here at that version or a later one is left as it is. It answers once the accounts are as
+     * durable as the log makes writes, as the other server drops them then.
+     *
+     * @return how many of them were newer than what was here
+     */
+    @Produces( {"text/plain"} )
+    @Consumes( {ReplicationRestService.APPLICATION_NDJSON} )
+    @POST
+    @Path("/accounts")
+    public String receiveAccounts(final InputStream body) throws IOException {
+        partitioner();
+        final JsonParser parser = AccountJson.parser(body);
+        final List<Account> accounts = new ArrayList<Account>();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            accounts.add(AccountJson.readVersioned(parser));
+        }
+        return String.valueOf(accountService.receive(accounts));
+    }
+
+    private Partitioner partitioner() {
+        if (partitioner == null) {
+            throw new WebApplicationException(Response
+                    .status(Response.Status.NOT_FOUND)
+                    .entity("accounts are not partitioned")
+                    .build());
+        }
+        return partitioner;
+    }
+}
@@ -0,0 +1,115 @@
+package com.codebreeze.rest.server.rs;
+
+import com.codebreeze.rest.server.model.Account;
+import com.codebreeze.rest.server.model.ReplicationStatus;
+import com.codebreeze.rest.server.replication.Follower;
+import com.codebreeze.rest.server.services.AccountService;
+import com.codebreeze.rest.server.services.ChangeLog;
+import com.codebreeze.rest.server.store.AccountVisitor;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * What a follower needs from its leader besides the change feed, and where this server stands in replication.
+ */
+@Component
+@Path( "/replication" )
+public class ReplicationRestService {
+    /**
+     * the response header with the epoch of the change log that the sequence numbers of a response belong to
+     */
+    public static final String EPOCH_HEADER = "X-Change-Log-Epoch";
+    /**
+     * the response header with the sequence number to stream changes from once a snapshot is loaded
+     */
+    public static final String FROM_HEADER = "X-Change-Log-From";
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    private static final int SNAPSHOT_PAGE_SIZE = 1000;
+
+    @Autowired
+    private AccountService accountService;
+
+    // only on a follower
+    @Autowired( required = false )
+    private Follower follower;
+
+    /**
+     * e.g. curl -v http://localhost:8081/api/replication
+     */
+    @Produces( {"text/plain"} )
+    @GET
+    public ReplicationStatus getStatus() {
+        final ChangeLog changes = accountService.getChanges();
+        final long head = changes == null ? -1 : changes.head();
+        return follower == null ? ReplicationStatus.leader(head) : follower.getStatus(head);
+    }
+
+    /**
+     * Streams every account, with its version, one JSON object per line, e.g.
+     * curl -v http://localhost:8080/api/replication/snapshot
+     * The accounts are scanned while writes go on, so each is as of some moment during the scan; the changes
+     * from the sequence number in {@link #FROM_HEADER} on cover every write the scan may have missed.
+     */
+    @Produces( {APPLICATION_NDJSON} )
+    @GET
+    @Path("/snapshot")
+    public Response getSnapshot() {
+        final ChangeLog changes = accountService.getChanges();
+        if (changes == null) {
+            throw new WebApplicationException(Response
+                    .status(Response.Status.NOT_FOUND)
+                    .entity("the change log is off, so there is nothing to follow")
+                    .build());
+        }
+        // taken before the scan starts, so no write during it is left out
+        final long from = changes.head();
+        return Response.ok(new StreamingOutput() {
+                    @Override
+                    public void write(final OutputStream output) throws IOException {
+                        writeSnapshot(new BufferedOutputStream(output));
+                    }
+                })
+                .header(EPOCH_HEADER, changes.getEpoch())
+                .header(FROM_HEADER, from)
+                .build();
+    }
+
+    private void writeSnapshot(final OutputStream out) throws IOException {
+        final JsonGenerator generator = AccountJson.generator(out);
+        generator.setRootValueSeparator(null);
+        final AccountVisitor visitor = new AccountVisitor() {
+            @Override
+            public void visit(final Account account) {
+                try {
+                    AccountJson.writeVersioned(generator, account);
+                    generator.writeRaw('\n');
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        String cursor = null;
+        try {
+            do {
+                cursor = accountService.scanAccounts(cursor, SNAPSHOT_PAGE_SIZE, visitor);
+            } while (cursor != null);
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+        generator.flush();
+        out.flush();
+    }
+}
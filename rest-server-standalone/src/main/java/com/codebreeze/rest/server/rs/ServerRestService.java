@@ -0,0 +1,96 @@
+package com.codebreeze.rest.server.rs;
+
+import com.codebreeze.rest.server.metrics.Metrics;
+import com.codebreeze.rest.server.metrics.StartupTimer;
+import com.codebreeze.rest.server.model.AdmissionStats;
+import com.codebreeze.rest.server.model.StartupStats;
+import com.codebreeze.rest.server.web.AdmissionFilter;
+import com.codebreeze.rest.server.web.GracefulShutdown;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.ServletContext;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+
+/**
+ * What the server itself is doing, as opposed to the accounts it serves.
+ */
+@Component
+@Path( "/server" )
+public class ServerRestService {
+    @Context
+    private ServletContext servletContext;
+
+    /**
+     * 200 while the server takes requests, and 503 once it is draining to shut down, for load balancers, e.g.
+     * curl -v http://localhost:8080/api/server/ready
+     */
+    @Produces( {"text/plain"} )
+    @GET
+    @Path("/ready")
+    public Response getReadiness() {
+        final GracefulShutdown shutdown = (GracefulShutdown) servletContext.getAttribute(GracefulShutdown.ATTRIBUTE);
+        if (shutdown != null && shutdown.isDraining()) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity("draining").build();
+        }
+        return Response.ok("ready").build();
+    }
+
+    /**
+     * How many requests admission control let in and how many it shed, e.g.
+     * curl -v http://localhost:8080/api/server/admission
+     */
+    @Produces( {"text/plain"} )
+    @GET
+    @Path("/admission")
+    public AdmissionStats getAdmissionStats() {
+        final AdmissionFilter filter = (AdmissionFilter) servletContext.getAttribute(AdmissionFilter.ATTRIBUTE);
+        if (filter == null) {
+            throw notFound("admission control is off");
+        }
+        return filter.getStats();
+    }
+
+    /**
+     * Request counts, errors, bytes and latency histograms per resource method, the time taken by message body
+     * writers, and admission counts, in the Prometheus text format, e.g.
+     * curl -v http://localhost:8080/api/server/metrics
+     */
+    @Produces( {Metrics.CONTENT_TYPE} )
+    @GET
+    @Path("/metrics")
+    public String getMetrics() {
+        final Metrics metrics = (Metrics) servletContext.getAttribute(Metrics.ATTRIBUTE);
+        if (metrics == null) {
+            throw notFound("metrics are off");
+        }
+        final AdmissionFilter filter = (AdmissionFilter) servletContext.getAttribute(AdmissionFilter.ATTRIBUTE);
+        return metrics.expose(filter == null ? null : filter.getStats());
+    }
+
+    /**
+     * How long the server took to start, by phase, and when it first answered, e.g.
+     * curl -v http://localhost:8080/api/server/startup
+     */
+    @Produces( {"text/plain"} )
+    @GET
+    @Path("/startup")
+    public StartupStats getStartupStats() {
+        final StartupTimer timer = (StartupTimer) servletContext.getAttribute(StartupTimer.ATTRIBUTE);
+        if (timer == null) {
+            throw notFound("startup was not timed");
+        }
+        return timer.getStats();
+    }
+
+    private static WebApplicationException notFound(final String message) {
+        return new WebApplicationException(Response
+                .status(Response.Status.NOT_FOUND)
+                .entity(message)
+                .build());
+    }
+}
@@ -1,5 +1,6 @@
 package com.codebreeze.rest.server.rs;
 
+import com.codebreeze.rest.server.model.Account;
 import org.apache.commons.io.IOUtils;
 
 import javax.ws.rs.Consumes;
@@ -7,6 +8,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.ext.MessageBodyReader;
 import javax.ws.rs.ext.MessageBodyWriter;
 import javax.ws.rs.ext.Provider;
@@ -28,15 +30,16 @@ public class ToStringProvider implements MessageBodyReader<Object>,
     @Override
     public boolean isWriteable ( Class<?> type, Type genericType,
                                  Annotation[] annotations, MediaType mediaType ) {
-        return MediaType.TEXT_PLAIN_TYPE.equals ( mediaType );
-//                && type.equals ( Sometype.class );
+        // streamed responses write themselves
+        return MediaType.TEXT_PLAIN_TYPE.equals ( mediaType )
+                && !StreamingOutput.class.isAssignableFrom ( type );
     }
 
     @Override
     public long getSize ( Object t, Class<?> type, Type genericType,
                           Annotation[] annotations, MediaType mediaType ) {
-        // I'm being lazy - should compute the actual size
-        return -1;
+        // accounts are rendered without a String, so their size is known up front
+        return AccountTextFormat.supports ( t ) ? AccountTextFormat.length ( ( Account ) t ) : -1;
     }
 
     @Override
@@ -44,14 +47,19 @@ public class ToStringProvider implements MessageBodyReader<Object>,
                           Annotation[] annotations, MediaType mediaType,
                           MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream )
             throws IOException, WebApplicationException {
-        entityStream.write(nullSafeToString(t).getBytes(UTF_8));
+        if ( AccountTextFormat.supports ( t ) ) {
+            AccountTextFormat.write ( ( Account ) t, entityStream );
+        } else {
+            entityStream.write(nullSafeToString(t).getBytes(UTF_8));
+        }
     }
 
     @Override
     public boolean isReadable ( Class<?> type, Type genericType,
                                 Annotation[] annotations, MediaType mediaType ) {
-        return MediaType.TEXT_PLAIN_TYPE.equals ( mediaType );
-//                && type.equals ( Sometype.class );
+        // the body is read as a String; an InputStream parameter gets the body as it streams in
+        return MediaType.TEXT_PLAIN_TYPE.equals ( mediaType )
+                && type.isAssignableFrom ( String.class );
     }
 
     @Override
@@ -0,0 +1,65 @@
+package com.codebreeze.rest.server.rs;
+
+/**
+ * UTF-8 length and encoding without the intermediate byte[] of {@link String#getBytes}.
+ * A lone surrogate is encoded as '?', as String.getBytes does.
+ */
+final class Utf8 {
+    private Utf8() {
+    }
+
+    static int length(final CharSequence value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (!Character.isSurrogate(c)) {
+                length += 3;
+            } else if (isPair(value, i)) {
+                length += 4;
+                i++;
+            } else {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return the offset just past the encoded value; the target must have room for {@link #length} bytes
+     */
+    static int encode(final CharSequence value, final byte[] target, final int offset) {
+        int position = offset;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                target[position++] = (byte) c;
+            } else if (c < 0x800) {
+                target[position++] = (byte) (0xc0 | c >> 6);
+                target[position++] = (byte) (0x80 | c & 0x3f);
+            } else if (!Character.isSurrogate(c)) {
+                target[position++] = (byte) (0xe0 | c >> 12);
+                target[position++] = (byte) (0x80 | c >> 6 & 0x3f);
+                target[position++] = (byte) (0x80 | c & 0x3f);
+            } else if (isPair(value, i)) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                target[position++] = (byte) (0xf0 | codePoint >> 18);
+                target[position++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                target[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                target[position++] = (byte) (0x80 | codePoint & 0x3f);
+            } else {
+                target[position++] = '?';
+            }
+        }
+        return position;
+    }
+
+    private static boolean isPair(final CharSequence value, final int i) {
+        return Character.isHighSurrogate(value.charAt(i))
+                && i + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(i + 1));
+    }
+}
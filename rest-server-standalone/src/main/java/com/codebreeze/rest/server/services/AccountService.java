@@ -1,30 +1,434 @@
 package com.codebreeze.rest.server.services;
 
-import com.google.common.collect.Maps;
 import com.codebreeze.rest.server.model.Account;
-import org.apache.commons.collections4.Factory;
-import org.apache.commons.collections4.map.LazyMap;
+import com.codebreeze.rest.server.model.AccountStats;
+import com.codebreeze.rest.server.model.Cents;
+import com.codebreeze.rest.server.model.TransferResult;
+import com.codebreeze.rest.server.store.AccountStore;
+import com.codebreeze.rest.server.store.AccountVisitor;
+import com.codebreeze.rest.server.wal.WriteAheadLog;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
-import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Arrays.asList;
 
 
 @Service
 public class AccountService {
-    private final Map<String, Account> accounts = LazyMap.<String, Account>lazyMap(Maps.<String, Account>newHashMap(), new Factory<Account>() {
-        @Override
-        public Account create() {
+    private static final int LOCK_STRIPES = 1024;
+    private static final int MAX_FOUND_CAPACITY = 1000;
+    // room for a million writes per millisecond before versions could run into those of a later start
+    private static final int VERSIONS_PER_MILLISECOND_BITS = 20;
+
+    private final AccountStore store;
+    private final WriteAheadLog log;
+    private final NameIndex names;
+    private final BalanceIndex balances;
+    // null when changes are not kept
+    private final ChangeLog changes;
+    // keeps the log and the store in the same order for any one account
+    private final Striped<Lock> locks = Striped.lock(LOCK_STRIPES);
+    // seeded from the clock, so versions stored or logged before a restart are below any issued after it, and
+    // moved past any version another server gave an account here, whose clock may be ahead of this one's
+    private final AtomicLong versions = new AtomicLong(System.currentTimeMillis() << VERSIONS_PER_MILLISECOND_BITS);
+
+    public AccountService(final AccountStore store) {
+        this(store, null);
+    }
+
+    public AccountService(final AccountStore store, final WriteAheadLog log) {
+        this(store, log, false, false);
+    }
+
+    public AccountService(final AccountStore store, final WriteAheadLog log,
+                          final boolean indexNames, final boolean indexBalances) {
+        this(store, log, indexNames, indexBalances, null);
+    }
+
+    /**
+     * The indexes are built from the store here, so the store should be fully loaded.
+     *
+     * @param log           where writes are made durable, or null to keep accounts only in the store
+     * @param indexNames    whether to keep an index of account names on the heap, for {@link #findByName}
+     * @param indexBalances whether to keep balance aggregates and an index by balance on the heap,
+     *                      for {@link #getStats}
+     * @param changes       where every change is published from now on, or null to keep no changes
+     */
+    public AccountService(final AccountStore store, final WriteAheadLog log,
+                          final boolean indexNames, final boolean indexBalances, final ChangeLog changes) {
+        this.store = store;
+        this.log = log;
+        this.names = indexNames ? NameIndex.build(store) : null;
+        this.balances = indexBalances ? BalanceIndex.build(store) : null;
+        this.changes = changes;
+    }
+
+    /**
+     * @return the account stored under the number, or {@link Account#NULL_ACCOUNT} if there is none.
+     * a miss leaves the store untouched, so bad lookups do not cost memory.
+     */
+    public Account getAccount(final String number) {
+        if (number == null) {
             return Account.NULL_ACCOUNT;
         }
-    });
+        final Account account = store.get(number);
+        return account == null ? Account.NULL_ACCOUNT : account;
+    }
 
-    public Account getAccount(final String number) {
-        return accounts.get(number);
+    /**
+     * @return up to limit accounts whose names start with the prefix, ignoring case, in name order
+     * @throws IllegalStateException if names are not indexed
+     */
+    public List<Account> findByName(final String prefix, final int limit) {
+        checkState(names != null, "accounts are not indexed by name");
+        final List<Account> found = new ArrayList<Account>(Math.min(limit, MAX_FOUND_CAPACITY));
+        final Iterator<String> numbers = names.numbersByPrefix(prefix);
+        while (found.size() < limit && numbers.hasNext()) {
+            final Account account = store.get(numbers.next());
+            // the index is read without locks, so the account may have been renamed meanwhile
+            if (account != null && NameIndex.matches(account, prefix)) {
+                found.add(account);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Costs the same however many accounts there are: the aggregates are kept up to date by every write, and
+     * the largest accounts are the first of an index by balance.
+     *
+     * @param top how many of the accounts with the largest balances to include
+     * @throws IllegalStateException if balances are not indexed
+     */
+    public AccountStats getStats(final int top) {
+        checkState(balances != null, "balances are not indexed");
+        final List<Account> largest = new ArrayList<Account>(Math.min(top, MAX_FOUND_CAPACITY));
+        final Iterator<String> numbers = balances.largest();
+        while (largest.size() < top && numbers.hasNext()) {
+            final Account account = store.get(numbers.next());
+            if (account != null) {
+                largest.add(account);
+            }
+        }
+        return new AccountStats(
+                balances.count(),
+                balances.total(),
+                first(balances.smallest()),
+                first(balances.largest()),
+                largest);
+    }
+
+    /**
+     * @return the latest changes, or null if changes are not kept
+     */
+    public ChangeLog getChanges() {
+        return changes;
+    }
+
+    /**
+     * @see AccountStore#scan
+     */
+    public String scanAccounts(final String cursor, final int limit, final AccountVisitor visitor) {
+        return store.scan(cursor, limit, visitor);
+    }
+
+    /**
+     * The account is visible to readers once it is in the store; this returns once it is as durable
+     * as the log is configured to make it.
+     *
+     * @return the account as stored, with the version this write gave it
+     */
+    public Account addAccount(final Account account) {
+        checkArgument(!isNullOrEmpty(account.getNumber()), "account number is required");
+        final Write write = write(account);
+        if (write.batch != null) {
+            log.awaitDurable(write.batch);
+        }
+        return write.account;
+    }
+
+    /**
+     * Adds the accounts one by one, but waits for the log only once, after the last of them. An account that is
+     * refused, because it is malformed, the store is full or the log failed, is reported and the rest go on.
+     *
+     * @return the reason each account that was refused was refused, by its position in the list
+     */
+    public Map<Integer, String> addAccounts(final List<Account> accounts) {
+        final Map<Integer, String> failures = new HashMap<Integer, String>();
+        WriteAheadLog.Batch last = null;
+        try {
+            for (int i = 0; i < accounts.size(); i++) {
+                try {
+                    checkArgument(!isNullOrEmpty(accounts.get(i).getNumber()), "account number is required");
+                    final WriteAheadLog.Batch batch = write(accounts.get(i)).batch;
+                    last = batch == null ? last : batch;
+                } catch (final IllegalArgumentException | IllegalStateException e) {
+                    failures.put(i, e.getMessage());
+                }
+            }
+        } finally {
+            // batches are written in order, so the last one covers the others
+            if (last != null) {
+                log.awaitDurable(last);
+            }
+        }
+        return failures;
     }
 
-    public void addAccount(Account account) {
-        accounts.put(account.getNumber(), account);
+    /**
+     * Moves money from one account to another: both are changed or neither is, in the store and, as a single
+     * record, in the log. The two stripe locks are taken in stripe order, the order {@link #quiesce} takes
+     * them in, so opposite transfers cannot deadlock, while transfers between other accounts run in parallel.
+     * The arithmetic is on long cents.
+     *
+     * @return both accounts as the transfer stored them
+     * @throws IllegalArgumentException if the request is malformed or an account does not exist
+     * @throws IllegalStateException    if the debited account has less than the amount, or a balance is not
+     *                                  in whole cents or would overflow
+     */
+    public TransferResult transfer(final String from, final String to, final long cents) {
+        checkArgument(from != null && to != null, "both account numbers are required");
+        checkArgument(!from.equals(to), "cannot transfer from an account to itself");
+        checkArgument(cents > 0, "amount must be positive");
+        // both numbers may share a stripe; the locks are reentrant, so it is then taken twice
+        final List<Lock> ordered = Lists.newArrayList(locks.bulkGet(asList(from, to)));
+        for (final Lock lock : ordered) {
+            lock.lock();
+        }
+        final Account debited;
+        final Account credited;
+        final WriteAheadLog.Batch batch;
+        try {
+            final Account source = store.get(from);
+            final Account target = store.get(to);
+            checkArgument(source != null, "no account %s", from);
+            checkArgument(target != null, "no account %s", to);
+            final long remaining;
+            final long received;
+            try {
+                remaining = Math.subtractExact(Cents.fromBalance(source.getBalance()), cents);
+                received = Math.addExact(Cents.fromBalance(target.getBalance()), cents);
+            } catch (final ArithmeticException e) {
+                throw new IllegalStateException("balances must be whole cents within range", e);
+            }
+            checkState(remaining >= 0, "account %s has less than the amount", from);
+            debited = new Account(from, source.getName(), Cents.toBalance(remaining), nextVersion(source));
+            credited = new Account(to, target.getName(), Cents.toBalance(received), nextVersion(target));
+            // both accounts exist and keep their names: the store has no reason to refuse either, and the
+            // name index stays as it is
+            store.put(debited);
+            store.put(credited);
+            try {
+                batch = log == null ? null : log.append(debited, credited);
+            } catch (final RuntimeException e) {
+                store.put(source);
+                store.put(target);
+                throw e;
+            }
+            if (balances != null) {
+                balances.update(source, debited);
+                balances.update(target, credited);
+            }
+            if (changes != null) {
+                changes.publish(debited);
+                changes.publish(credited);
+            }
+        } finally {
+            for (final Lock lock : Lists.reverse(ordered)) {
+                lock.unlock();
+            }
+        }
+        if (batch != null) {
+            log.awaitDurable(batch);
+        }
+        return new TransferResult(debited, credited);
+    }
+
+    /**
+     * Applies an account as the leader stored it, version and all, unless this store already has it at that
+     * version or a later one. Versions of one account only rise, so a change applied twice, or one older than
+     * the snapshot a follower caught up from, changes nothing, and the follower's ETags are the leader's. It does
+     * not wait for the log: a follower that loses writes on a crash catches up from the leader again.
+     *
+     * @return whether the account was applied
+     */
+    public boolean replicate(final Account account) {
+        return replicated(account) != null;
+    }
+
+    /**
+     * Applies accounts their previous owner moved here, as {@link #replicate} does, and waits for the log once,
+     * after the last of them: the previous owner drops the accounts once this returns, so they have to survive
+     * a crash here.
+     *
+     * @return how many of them were applied
+     */
+    public int receive(final List<Account> accounts) {
+        int applied = 0;
+        WriteAheadLog.Batch last = null;
+        for (final Account account : accounts) {
+            final Write write = replicated(account);
+            if (write != null) {
+                applied++;
+                last = write.batch == null ? last : write.batch;
+            }
+        }
+        // batches are written in order, so the last one covers the others
+        if (last != null) {
+            log.awaitDurable(last);
+        }
+        return applied;
+    }
+
+    /**
+     * Runs the task while no write is in progress, so that every write is either both in the log and in the
+     * store, or in neither. Writers wait for the task; readers do not.
+     *
+     * @return the log position the task ran at, 0 if there is no log
+     */
+    public long quiesce(final Runnable task) {
+        for (int i = 0; i < locks.size(); i++) {
+            locks.getAt(i).lock();
+        }
+        try {
+            task.run();
+            return log == null ? 0 : log.position();
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.getAt(i).unlock();
+            }
+        }
+    }
+
+    /**
+     * Blocks until every write so far is on disk, whatever the configured durability.
+     */
+    public void syncLog() {
+        if (log != null) {
+            log.sync();
+        }
+    }
+
+    /**
+     * The version is taken under the lock, so the versions of one account rise in the order its writes are
+     * applied.
+     */
+    private Write write(final Account account) {
+        final Lock lock = locks.get(account.getNumber());
+        lock.lock();
+        try {
+            final Account previous = store.get(account.getNumber());
+            return apply(previous, account.withVersion(nextVersion(previous)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the write, or null if this store already has the account at its version or a later one
+     */
+    private Write replicated(final Account account) {
+        checkArgument(!isNullOrEmpty(account.getNumber()), "account number is required");
+        final Lock lock = locks.get(account.getNumber());
+        lock.lock();
+        try {
+            final Account previous = store.get(account.getNumber());
+            if (previous != null && previous.getVersion() >= account.getVersion()) {
+                return null;
+            }
+            advanceVersions(account.getVersion());
+            return apply(previous, account);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called under the account's lock. Above the version the account has here, even if another server gave it
+     * that version, or this one did before a restart with its clock set back: a copy of the account from
+     * elsewhere is only applied over a lower version, so a write here must not be lower than any before it.
+     */
+    private long nextVersion(final Account previous) {
+        if (previous != null) {
+            advanceVersions(previous.getVersion());
+        }
+        return versions.incrementAndGet();
+    }
+
+    private void advanceVersions(final long seen) {
+        long current = versions.get();
+        while (current < seen && !versions.compareAndSet(current, seen)) {
+            current = versions.get();
+        }
+    }
+
+    /**
+     * Called under the account's lock. The store refuses an account before anything else sees it, and the
+     * indexes and the change log only see it once it is in the log: a write the log refuses is taken back out
+     * of the store, so that neither readers nor followers keep what a restart would not.
+     */
+    private Write apply(final Account previous, final Account versioned) {
+        store.put(versioned);
+        final WriteAheadLog.Batch batch;
+        try {
+            batch = log == null ? null : log.append(versioned);
+        } catch (final RuntimeException e) {
+            if (previous == null) {
+                store.remove(versioned.getNumber());
+            } else {
+                store.put(previous);
+            }
+            throw e;
+        }
+        if (names != null) {
+            names.update(previous, versioned);
+        }
+        if (balances != null) {
+            balances.update(previous, versioned);
+        }
+        if (changes != null) {
+            changes.publish(versioned);
+        }
+        return new Write(versioned, batch);
+    }
+
+    public void close() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    private Account first(final Iterator<String> numbers) {
+        while (numbers.hasNext()) {
+            final Account account = store.get(numbers.next());
+            if (account != null) {
+                return account;
+            }
+        }
+        return null;
+    }
+
+    private static final class Write {
+        private final Account account;
+        // null without a log
+        private final WriteAheadLog.Batch batch;
+
+        private Write(final Account account, final WriteAheadLog.Batch batch) {
+            this.account = account;
+            this.batch = batch;
+        }
     }
 }
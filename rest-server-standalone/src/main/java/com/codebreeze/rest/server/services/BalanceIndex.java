@@ -0,0 +1,153 @@
+package com.codebreeze.rest.server.services;
+
+import com.codebreeze.rest.server.model.Account;
+import com.codebreeze.rest.server.store.AccountStore;
+import com.codebreeze.rest.server.store.AccountVisitor;
+import com.google.common.collect.AbstractIterator;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Balance aggregates kept up to date write by write: the exact total and the count of accounts with a balance,
+ * and every such account ordered by balance, so the minimum, the maximum and the largest N are read off the
+ * ends of a skip list instead of a scan. The total is split into slots with a lock each, so writers to
+ * different accounts rarely meet. Accounts without a balance are not counted. Callers serialise updates of any
+ * one account.
+ */
+final class BalanceIndex {
+    private static final int SCAN_PAGE = 10000;
+    private static final int TOTAL_SLOTS = 64;
+
+    // largest balance first
+    private final ConcurrentSkipListSet<Entry> byBalance = new ConcurrentSkipListSet<Entry>();
+    // each slot of the total is guarded by the lock of the same index
+    private final BigDecimal[] totals = new BigDecimal[TOTAL_SLOTS];
+    private final Object[] totalLocks = new Object[TOTAL_SLOTS];
+    private final AtomicLong count = new AtomicLong();
+
+    private BalanceIndex() {
+        for (int i = 0; i < TOTAL_SLOTS; i++) {
+            totals[i] = BigDecimal.ZERO;
+            totalLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Indexes every account in the store, inserting in balance order, which a skip list takes faster.
+     */
+    static BalanceIndex build(final AccountStore store) {
+        final BalanceIndex balances = new BalanceIndex();
+        final List<Entry> scanned = new ArrayList<Entry>();
+        final AccountVisitor collector = new AccountVisitor() {
+            @Override
+            public void visit(final Account account) {
+                if (account.getBalance() != null) {
+                    scanned.add(new Entry(account));
+                    balances.add(account.getNumber(), account.getBalance());
+                }
+            }
+        };
+        String cursor = null;
+        do {
+            cursor = store.scan(cursor, SCAN_PAGE, collector);
+        } while (cursor != null);
+        final Entry[] sorted = scanned.toArray(new Entry[scanned.size()]);
+        scanned.clear();
+        Arrays.parallelSort(sorted);
+        for (final Entry entry : sorted) {
+            balances.byBalance.add(entry);
+        }
+        balances.count.set(sorted.length);
+        return balances;
+    }
+
+    /**
+     * @param previous the account as it was before the update, or null if it is new
+     */
+    void update(final Account previous, final Account current) {
+        final BigDecimal before = previous == null ? null : previous.getBalance();
+        final BigDecimal after = current.getBalance();
+        if (before == null ? after == null : after != null && before.compareTo(after) == 0) {
+            return;
+        }
+        if (before != null) {
+            byBalance.remove(new Entry(previous));
+            add(previous.getNumber(), before.negate());
+            count.decrementAndGet();
+        }
+        if (after != null) {
+            byBalance.add(new Entry(current));
+            add(current.getNumber(), after);
+            count.incrementAndGet();
+        }
+    }
+
+    BigDecimal total() {
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < TOTAL_SLOTS; i++) {
+            synchronized (totalLocks[i]) {
+                total = total.add(totals[i]);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of accounts with a balance
+     */
+    long count() {
+        return count.get();
+    }
+
+    /**
+     * @return account numbers from the largest balance down
+     */
+    Iterator<String> largest() {
+        return numbers(byBalance.iterator());
+    }
+
+    /**
+     * @return account numbers from the smallest balance up
+     */
+    Iterator<String> smallest() {
+        return numbers(byBalance.descendingIterator());
+    }
+
+    private void add(final String number, final BigDecimal amount) {
+        final int slot = (number.hashCode() & Integer.MAX_VALUE) % TOTAL_SLOTS;
+        synchronized (totalLocks[slot]) {
+            totals[slot] = totals[slot].add(amount);
+        }
+    }
+
+    private static Iterator<String> numbers(final Iterator<Entry> entries) {
+        return new AbstractIterator<String>() {
+            @Override
+            protected String computeNext() {
+                return entries.hasNext() ? entries.next().number : endOfData();
+            }
+        };
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        private final BigDecimal balance;
+        private final String number;
+
+        private Entry(final Account account) {
+            this.balance = account.getBalance();
+            this.number = account.getNumber();
+        }
+
+        @Override
+        public int compareTo(final Entry other) {
+            final int byBalance = other.balance.compareTo(balance);
+            return byBalance != 0 ? byBalance : number.compareTo(other.number);
+        }
+    }
+}
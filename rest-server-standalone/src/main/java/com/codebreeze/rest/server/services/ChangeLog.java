@@ -0,0 +1,145 @@
+package com.codebreeze.rest.server.services;
+
+import com.codebreeze.rest.server.model.Account;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The latest changes to accounts, numbered in the order they were applied, in a ring of fixed capacity. Readers
+ * keep their own position and share the ring, so however many there are the memory is that of the ring; a reader
+ * that falls a whole ring behind finds its next change overwritten and has to resynchronise from the accounts.
+ * <p>
+ * Writers claim a sequence number and then fill its slot, without locks. A reader waiting for a change parks on
+ * a monitor that writers only touch when someone is waiting.
+ * <p>
+ * Sequence numbers start from 0 with every log, so each log has a random epoch too: a reader that kept its
+ * position across a restart of the server can tell the numbers no longer mean what they did.
+ */
+public class ChangeLog {
+    private final int capacity;
+    private final AtomicReferenceArray<Change> ring;
+    private final AtomicLong next = new AtomicLong();
+    private final Object monitor = new Object();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final long epoch = ThreadLocalRandom.current().nextLong();
+
+    /**
+     * @param capacity how many changes are kept, rounded up to a power of two
+     */
+    public ChangeLog(final int capacity) {
+        checkArgument(capacity > 0 && capacity <= 1 << 30, "capacity must be between 1 and %s", 1 << 30);
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.ring = new AtomicReferenceArray<Change>(this.capacity);
+    }
+
+    /**
+     * The account service calls this under the account's lock, so the changes of one account are numbered in the
+     * order they were applied.
+     */
+    void publish(final Account account) {
+        final long sequence = next.getAndIncrement();
+        ring.set(slot(sequence), new Change(sequence, account));
+        if (waiting.get() > 0) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the sequence number the next change will get
+     */
+    public long head() {
+        return next.get();
+    }
+
+    /**
+     * @return the change with the sequence number, or null if it has not been published yet or has been
+     * overwritten; {@link #isOverwritten} tells which
+     */
+    public Change get(final long sequence) {
+        final Change change = ring.get(slot(sequence));
+        return change != null && change.sequence == sequence ? change : null;
+    }
+
+    public boolean isOverwritten(final long sequence) {
+        return sequence < next.get() - capacity;
+    }
+
+    /**
+     * Waits until the change with the sequence number is published, or overwritten, or the time is up.
+     *
+     * @return false if the time ran out first
+     */
+    public boolean await(final long sequence, final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        waiting.incrementAndGet();
+        try {
+            synchronized (monitor) {
+                while (get(sequence) == null && !isOverwritten(sequence)) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+                }
+                return true;
+            }
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    private int slot(final long sequence) {
+        return (int) (sequence & (capacity - 1));
+    }
+
+    /**
+     * An account as a change left it.
+     */
+    public static final class Change {
+        private final long sequence;
+        private final Account account;
+        private final long time = System.currentTimeMillis();
+        // the event every reader sends, rendered by the first of them to get here
+        private volatile byte[] event;
+
+        private Change(final long sequence, final Account account) {
+            this.sequence = sequence;
+            this.account = account;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Account getAccount() {
+            return account;
+        }
+
+        /**
+         * @return when the change was published, in milliseconds since the epoch
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public byte[] getEvent() {
+            return event;
+        }
+
+        public void setEvent(final byte[] event) {
+            this.event = event;
+        }
+    }
+}
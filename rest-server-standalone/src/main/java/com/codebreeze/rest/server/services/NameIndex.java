@@ -0,0 +1,100 @@
+package com.codebreeze.rest.server.services;
+
+import com.codebreeze.rest.server.model.Account;
+import com.codebreeze.rest.server.store.AccountStore;
+import com.codebreeze.rest.server.store.AccountVisitor;
+import com.google.common.collect.AbstractIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Account numbers by lower-cased name, for prefix search: a sorted set of "name\0number" keys, so that the
+ * accounts whose names start with a prefix are one contiguous run of the set, found in logarithmic time.
+ * Accounts without a name are not indexed. Callers serialise updates of any one account.
+ */
+final class NameIndex {
+    private static final char SEPARATOR = '\u0000';
+
+    private static final int SCAN_PAGE = 10000;
+
+    private final ConcurrentSkipListSet<String> keys = new ConcurrentSkipListSet<String>();
+
+    /**
+     * Indexes every account in the store. The keys are sorted before they are inserted: a skip list takes
+     * ascending inserts several times faster than ones in the number order the store is scanned in.
+     */
+    static NameIndex build(final AccountStore store) {
+        final List<String> scanned = new ArrayList<String>();
+        final AccountVisitor collector = new AccountVisitor() {
+            @Override
+            public void visit(final Account account) {
+                if (account.getName() != null) {
+                    scanned.add(key(account));
+                }
+            }
+        };
+        String cursor = null;
+        do {
+            cursor = store.scan(cursor, SCAN_PAGE, collector);
+        } while (cursor != null);
+        final String[] sorted = scanned.toArray(new String[scanned.size()]);
+        scanned.clear();
+        Arrays.parallelSort(sorted);
+        final NameIndex names = new NameIndex();
+        for (final String key : sorted) {
+            names.keys.add(key);
+        }
+        return names;
+    }
+
+    /**
+     * @param previous the account as it was before the update, or null if it is new
+     */
+    void update(final Account previous, final Account current) {
+        final String key = current.getName() == null ? null : key(current);
+        if (previous != null && previous.getName() != null) {
+            final String previousKey = key(previous);
+            if (!previousKey.equals(key)) {
+                keys.remove(previousKey);
+            }
+        }
+        if (key != null) {
+            keys.add(key);
+        }
+    }
+
+    /**
+     * @return the numbers of the accounts whose names start with the prefix, ignoring case, in name order
+     */
+    Iterator<String> numbersByPrefix(final String prefix) {
+        final String from = normalize(prefix);
+        final Iterator<String> tail = keys.tailSet(from).iterator();
+        return new AbstractIterator<String>() {
+            @Override
+            protected String computeNext() {
+                if (!tail.hasNext()) {
+                    return endOfData();
+                }
+                final String key = tail.next();
+                return key.startsWith(from) ? key.substring(key.lastIndexOf(SEPARATOR) + 1) : endOfData();
+            }
+        };
+    }
+
+    static boolean matches(final Account account, final String prefix) {
+        return account.getName() != null && normalize(account.getName()).startsWith(normalize(prefix));
+    }
+
+    private static String key(final Account account) {
+        return normalize(account.getName()) + SEPARATOR + account.getNumber();
+    }
+
+    private static String normalize(final String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,93 @@
+package com.codebreeze.rest.server.services;
+
+import com.codebreeze.rest.server.model.Account;
+import com.codebreeze.rest.server.store.SnapshotAccountStore;
+import com.codebreeze.rest.server.store.SnapshotImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes a {@link SnapshotImage} of the accounts in the background at a fixed interval, and once more on close,
+ * so that a restart maps the newest image and only replays the write-ahead log written since.
+ * <p>
+ * Writers are held back only while the store switches to a new live overlay; the image is then written from
+ * the frozen overlay and the old image while writes continue.
+ */
+public class Snapshotter {
+    private static final Logger LOGGER = Logger.getLogger(Snapshotter.class.getName());
+
+    private final AccountService accountService;
+    private final SnapshotAccountStore store;
+    private final long intervalSeconds;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public Snapshotter(final AccountService accountService, final SnapshotAccountStore store, final long intervalSeconds) {
+        this.accountService = accountService;
+        this.store = store;
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    snapshot();
+                } catch (final IOException e) {
+                    // the next run tries again; the frozen overlay is merged into it
+                    LOGGER.log(Level.WARNING, "snapshot failed", e);
+                }
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the image written
+     */
+    public synchronized File snapshot() throws IOException {
+        final AtomicReference<Iterable<Account>> frozen = new AtomicReference<Iterable<Account>>();
+        final long walPosition = accountService.quiesce(new Runnable() {
+            @Override
+            public void run() {
+                frozen.set(store.freeze());
+            }
+        });
+        // the image must never be ahead of the log it resumes from
+        accountService.syncLog();
+
+        final File file = store.snapshotFile(walPosition);
+        final File temporary = new File(file.getPath() + ".tmp");
+        SnapshotImage.write(temporary, walPosition, frozen.get());
+        if (!temporary.renameTo(file)) {
+            throw new IOException("cannot rename " + temporary + " to " + file);
+        }
+        store.install(SnapshotImage.open(file));
+        return file;
+    }
+
+    public void close() throws IOException {
+        // periodic runs are cancelled; one in progress is left to finish
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshot();
+    }
+}
@@ -0,0 +1,23 @@
+package com.codebreeze.rest.server.store;
+
+/**
+ * The hash the on-disk indexes are built with. It is part of the file formats, so it must not change.
+ */
+final class AccountHash {
+    private AccountHash() {
+    }
+
+    static int hash(final String number) {
+        int h = number.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    static long nextPowerOfTwo(final long value) {
+        return value <= 1 ? 1 : Long.highestOneBit(value - 1) << 1;
+    }
+}
@@ -0,0 +1,36 @@
+package com.codebreeze.rest.server.store;
+
+import com.codebreeze.rest.server.model.Account;
+
+import java.io.Closeable;
+
+/**
+ * Storage engine behind {@link com.codebreeze.rest.server.services.AccountService}.
+ * Implementations must be safe for concurrent readers and writers.
+ */
+public interface AccountStore extends Closeable {
+
+    /**
+     * @return the account stored under the number, or null if there is none
+     */
+    Account get(String number);
+
+    void put(Account account);
+
+    /**
+     * Takes back an account that {@link #put} has just added, whose write could not be logged. It is not for
+     * accounts the store held before that put, and callers must not put the number concurrently.
+     */
+    void remove(String number);
+
+    long size();
+
+    /**
+     * Visits up to limit accounts that come after the cursor, in an order that is stable for the store, without
+     * copying the store or holding writers back. Accounts added during a scan may or may not be visited.
+     *
+     * @param cursor null to start at the beginning, or a cursor this method returned
+     * @return the cursor to continue from, or null if the scan reached the end
+     */
+    String scan(String cursor, int limit, AccountVisitor visitor);
+}
@@ -0,0 +1,7 @@
+package com.codebreeze.rest.server.store;
+
+import com.codebreeze.rest.server.model.Account;
+
+public interface AccountVisitor {
+    void visit(Account account);
+}
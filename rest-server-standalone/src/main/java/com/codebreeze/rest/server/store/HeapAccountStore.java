@@ -0,0 +1,68 @@
+package com.codebreeze.rest.server.store;
+
+import com.codebreeze.rest.server.model.Account;
+
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+public class HeapAccountStore implements AccountStore {
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    // reads never lock; writes only contend with writers hashing into the same bin
+    private final ConcurrentMap<String, Account> accounts = new ConcurrentHashMap<String, Account>(
+            INITIAL_CAPACITY, LOAD_FACTOR, Runtime.getRuntime().availableProcessors());
+    // the numbers in order, for scans; lookups stay on the hash map
+    private final NavigableSet<String> numbers = new ConcurrentSkipListSet<String>();
+
+    @Override
+    public Account get(final String number) {
+        return accounts.get(number);
+    }
+
+    @Override
+    public void put(final Account account) {
+        if (accounts.put(account.getNumber(), account) == null) {
+            numbers.add(account.getNumber());
+        }
+    }
+
+    @Override
+    public void remove(final String number) {
+        if (accounts.remove(number) != null) {
+            numbers.remove(number);
+        }
+    }
+
+    @Override
+    public long size() {
+        return accounts.size();
+    }
+
+    /**
+     * Scans in account number order; the cursor is the last number visited.
+     */
+    @Override
+    public String scan(final String cursor, final int limit, final AccountVisitor visitor) {
+        String last = null;
+        int visited = 0;
+        for (final String number : cursor == null ? numbers : numbers.tailSet(cursor, false)) {
+            if (visited == limit) {
+                return last;
+            }
+            final Account account = accounts.get(number);
+            if (account != null) {
+                visitor.visit(account);
+                last = number;
+                visited++;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+    }
+}
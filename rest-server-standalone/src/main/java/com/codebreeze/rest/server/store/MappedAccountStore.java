@@ -0,0 +1,349 @@
+package com.codebreeze.rest.server.store;
+
+import com.codebreeze.rest.server.model.Account;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.codebreeze.rest.server.store.AccountHash.hash;
+import static com.codebreeze.rest.server.store.AccountHash.nextPowerOfTwo;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keeps accounts off the java heap, in fixed-width records of a memory-mapped file, with an open-addressing
+ * hash index on the account number in the same file. Nothing is loaded on startup: an existing file is mapped
+ * and served as it is, and an {@link Account} is only materialised when a lookup returns it.
+ * <p>
+ * File layout: a 4KB header, then the index, then the records. The index is split into segments, each with
+ * its own read-write lock, so readers share a segment and writers to different segments do not contend.
+ * Records are appended and never moved; an update of an existing account rewrites its record in place. A
+ * removed account leaves its record and its index entry behind, marked removed, and still counts in the size:
+ * removal only takes back an account whose write could not be logged, so the space is not worth reclaiming.
+ */
+public class MappedAccountStore implements AccountStore {
+    public static final int MAX_NUMBER_BYTES = 32;
+    public static final int MAX_NAME_BYTES = 64;
+
+    private static final int MAGIC = 0x41434354;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 4096;
+    private static final int SEGMENT_BITS = 10;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int MIN_SLOTS_PER_SEGMENT = 16;
+
+    // header
+    private static final int MAGIC_OFFSET = 0;
+    private static final int FORMAT_VERSION_OFFSET = 4;
+    private static final int RECORD_SIZE_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 16;
+    private static final int COUNT_OFFSET = 24;
+
+    // index entry: the hash of the number and a 1-based record reference, 0 when the slot is free
+    private static final int INDEX_ENTRY_SIZE = 8;
+    private static final int ENTRY_HASH = 0;
+    private static final int ENTRY_RECORD = 4;
+    private static final int EMPTY = 0;
+    // an entry that probes go past, as they would a taken one, but that holds no account
+    private static final int REMOVED = -1;
+
+    // record
+    private static final int RECORD_SIZE = 128;
+    private static final int NUMBER_LENGTH = 0;
+    private static final int NUMBER = 2;
+    private static final int NAME_LENGTH = NUMBER + MAX_NUMBER_BYTES;
+    private static final int NAME = NAME_LENGTH + 2;
+    private static final int BALANCE_SCALE = 100;
+    private static final int BALANCE_UNSCALED = 104;
+    private static final int BALANCE_PRESENT = 112;
+    // in what was zeroed padding, so records written before versions read as version 0
+    private static final int VERSION = 120;
+    private static final short NULL_LENGTH = -1;
+    // the number length of a removed account's record
+    private static final short REMOVED_LENGTH = -2;
+
+    private final MappedFile file;
+    private final long capacity;
+    private final int slotsPerSegment;
+    private final long recordsOffset;
+    private final ReadWriteLock[] locks = new ReadWriteLock[SEGMENTS];
+    private final Object allocationLock = new Object();
+    private long count;
+    // records up to here that are not in the index were orphaned by a crash between allocation and indexing
+    private final long recoveredCount;
+
+    private MappedAccountStore(final File path, final long capacity) throws IOException {
+        checkArgument(capacity > 0 && capacity < Integer.MAX_VALUE, "capacity must be between 1 and %s", Integer.MAX_VALUE);
+        this.capacity = capacity;
+        this.slotsPerSegment = (int) Math.max(MIN_SLOTS_PER_SEGMENT, nextPowerOfTwo(capacity * 2) / SEGMENTS);
+        this.recordsOffset = HEADER_SIZE + (long) SEGMENTS * slotsPerSegment * INDEX_ENTRY_SIZE;
+        this.file = new MappedFile(path, recordsOffset + capacity * RECORD_SIZE);
+        for (int i = 0; i < SEGMENTS; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        if (file.existed()) {
+            checkHeader(path);
+            this.count = file.getLong(COUNT_OFFSET);
+            this.recoveredCount = count;
+        } else {
+            this.recoveredCount = 0;
+            file.putInt(MAGIC_OFFSET, MAGIC);
+            file.putInt(FORMAT_VERSION_OFFSET, FORMAT_VERSION);
+            file.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+            file.putLong(CAPACITY_OFFSET, capacity);
+            file.putLong(COUNT_OFFSET, 0);
+        }
+    }
+
+    /**
+     * Opens the table in the file, creating it with the given capacity if the file does not exist yet.
+     * An existing table keeps the capacity it was created with.
+     */
+    public static MappedAccountStore open(final File path, final long capacity) throws IOException {
+        if (path.exists() && path.length() >= HEADER_SIZE) {
+            return new MappedAccountStore(path, readCapacity(path));
+        }
+        return new MappedAccountStore(path, capacity);
+    }
+
+    @Override
+    public Account get(final String number) {
+        final byte[] key = number.getBytes(UTF_8);
+        final int hash = hash(number);
+        final Lock lock = locks[segment(hash)].readLock();
+        lock.lock();
+        try {
+            final long entry = probe(hash, key);
+            if (entry < 0 || file.getInt(entry + ENTRY_RECORD) == EMPTY) {
+                return null;
+            }
+            return read(recordOffset(file.getInt(entry + ENTRY_RECORD)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final Account account) {
+        final byte[] key = account.getNumber().getBytes(UTF_8);
+        final byte[] name = account.getName() == null ? null : account.getName().getBytes(UTF_8);
+        // a record with an empty number is one that is allocated but not written yet
+        checkArgument(key.length > 0, "account number must not be empty");
+        checkArgument(key.length <= MAX_NUMBER_BYTES, "account number is longer than %s bytes", MAX_NUMBER_BYTES);
+        checkArgument(name == null || name.length <= MAX_NAME_BYTES, "account name is longer than %s bytes", MAX_NAME_BYTES);
+        checkArgument(account.getBalance() == null || account.getBalance().unscaledValue().bitLength() < Long.SIZE,
+                "account balance %s does not fit in a record", account.getBalance());
+
+        final int hash = hash(account.getNumber());
+        final Lock lock = locks[segment(hash)].writeLock();
+        lock.lock();
+        try {
+            final long entry = probe(hash, key);
+            if (entry < 0) {
+                throw new IllegalStateException("account index segment is full");
+            }
+            final int existing = file.getInt(entry + ENTRY_RECORD);
+            if (existing != EMPTY) {
+                write(recordOffset(existing), key, name, account.getBalance(), account.getVersion());
+                return;
+            }
+            // the record is complete before the index points at it
+            final int record = allocate();
+            write(recordOffset(record), key, name, account.getBalance(), account.getVersion());
+            file.putInt(entry + ENTRY_HASH, hash);
+            file.putInt(entry + ENTRY_RECORD, record);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(final String number) {
+        final byte[] key = number.getBytes(UTF_8);
+        final int hash = hash(number);
+        final Lock lock = locks[segment(hash)].writeLock();
+        lock.lock();
+        try {
+            final long entry = probe(hash, key);
+            if (entry < 0 || file.getInt(entry + ENTRY_RECORD) == EMPTY) {
+                return;
+            }
+            // the index first, so that no reader reaches the record once it is marked
+            final int record = file.getInt(entry + ENTRY_RECORD);
+            file.putInt(entry + ENTRY_RECORD, REMOVED);
+            file.putShort(recordOffset(record) + NUMBER_LENGTH, REMOVED_LENGTH);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long size() {
+        synchronized (allocationLock) {
+            return count;
+        }
+    }
+
+    /**
+     * Scans in the order the accounts were first added; the cursor is the last record visited.
+     */
+    @Override
+    public String scan(final String cursor, final int limit, final AccountVisitor visitor) {
+        final long end = size();
+        int record = cursor == null ? 1 : Integer.parseInt(cursor) + 1;
+        int visited = 0;
+        for (; record <= end && visited < limit; record++) {
+            final Account account = readIndexed(record);
+            if (account != null) {
+                visitor.visit(account);
+                visited++;
+            } else if (record > recoveredCount && !isRemoved(record)) {
+                // allocated but not yet in the index: the next page picks it up
+                return String.valueOf(record - 1);
+            }
+        }
+        return record > end ? null : String.valueOf(record - 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * @return the offset of the index entry holding the key, or of the free entry where it belongs,
+     * or -1 if the segment is full and does not hold the key
+     */
+    private long probe(final int hash, final byte[] key) {
+        final long segmentOffset = HEADER_SIZE + (long) segment(hash) * slotsPerSegment * INDEX_ENTRY_SIZE;
+        final int mask = slotsPerSegment - 1;
+        int slot = (hash >>> SEGMENT_BITS) & mask;
+        for (int probes = 0; probes < slotsPerSegment; probes++) {
+            final long entry = segmentOffset + (long) slot * INDEX_ENTRY_SIZE;
+            final int record = file.getInt(entry + ENTRY_RECORD);
+            if (record == EMPTY || record != REMOVED
+                    && file.getInt(entry + ENTRY_HASH) == hash && keyMatches(recordOffset(record), key)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the account in the record, or null if the index does not point at the record (yet)
+     */
+    private Account readIndexed(final int record) {
+        final long offset = recordOffset(record);
+        // read without the lock only to find out which lock to take; a record still being written can be garbage
+        final short length = file.getShort(offset + NUMBER_LENGTH);
+        if (length <= 0 || length > MAX_NUMBER_BYTES) {
+            return null;
+        }
+        final byte[] key = new byte[length];
+        file.get(offset + NUMBER, key, length);
+        final String number = new String(key, UTF_8);
+        final int hash = hash(number);
+        final Lock lock = locks[segment(hash)].readLock();
+        lock.lock();
+        try {
+            final long entry = probe(hash, key);
+            if (entry < 0 || file.getInt(entry + ENTRY_RECORD) != record) {
+                return null;
+            }
+            return read(offset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isRemoved(final int record) {
+        return file.getShort(recordOffset(record) + NUMBER_LENGTH) == REMOVED_LENGTH;
+    }
+
+    private boolean keyMatches(final long record, final byte[] key) {
+        return file.getShort(record + NUMBER_LENGTH) == key.length && file.matches(record + NUMBER, key, key.length);
+    }
+
+    private int allocate() {
+        synchronized (allocationLock) {
+            if (count >= capacity) {
+                throw new IllegalStateException("account table is full at " + capacity + " accounts");
+            }
+            count++;
+            file.putLong(COUNT_OFFSET, count);
+            return (int) count;
+        }
+    }
+
+    private void write(final long record, final byte[] number, final byte[] name, final BigDecimal balance,
+                       final long version) {
+        file.putShort(record + NUMBER_LENGTH, (short) number.length);
+        file.put(record + NUMBER, number, number.length);
+        if (name == null) {
+            file.putShort(record + NAME_LENGTH, NULL_LENGTH);
+        } else {
+            file.putShort(record + NAME_LENGTH, (short) name.length);
+            file.put(record + NAME, name, name.length);
+        }
+        if (balance == null) {
+            file.put(record + BALANCE_PRESENT, (byte) 0);
+        } else {
+            file.putInt(record + BALANCE_SCALE, balance.scale());
+            file.putLong(record + BALANCE_UNSCALED, balance.unscaledValue().longValue());
+            file.put(record + BALANCE_PRESENT, (byte) 1);
+        }
+        file.putLong(record + VERSION, version);
+    }
+
+    private Account read(final long record) {
+        final String number = readString(record + NUMBER_LENGTH, record + NUMBER);
+        final String name = readString(record + NAME_LENGTH, record + NAME);
+        final BigDecimal balance = file.get(record + BALANCE_PRESENT) == 0
+                ? null
+                : BigDecimal.valueOf(file.getLong(record + BALANCE_UNSCALED), file.getInt(record + BALANCE_SCALE));
+        return new Account(number, name, balance, file.getLong(record + VERSION));
+    }
+
+    private String readString(final long lengthOffset, final long offset) {
+        final short length = file.getShort(lengthOffset);
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        file.get(offset, bytes, length);
+        return new String(bytes, UTF_8);
+    }
+
+    private long recordOffset(final int record) {
+        return recordsOffset + (long) (record - 1) * RECORD_SIZE;
+    }
+
+    private void checkHeader(final File path) {
+        if (file.getInt(MAGIC_OFFSET) != MAGIC
+                || file.getInt(FORMAT_VERSION_OFFSET) != FORMAT_VERSION
+                || file.getInt(RECORD_SIZE_OFFSET) != RECORD_SIZE) {
+            throw new IllegalStateException(path + " is not an account table this version can read");
+        }
+    }
+
+    private static long readCapacity(final File path) throws IOException {
+        final DataInputStream in = new DataInputStream(new FileInputStream(path));
+        try {
+            in.skipBytes(CAPACITY_OFFSET);
+            return in.readLong();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int segment(final int hash) {
+        return hash & (SEGMENTS - 1);
+    }
+}
@@ -0,0 +1,153 @@
+package com.codebreeze.rest.server.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * A file mapped into memory as a sequence of 1GB chunks, so it can grow past the 2GB limit of a single
+ * {@link MappedByteBuffer}. Callers lay out their data so that no value straddles a chunk boundary.
+ * Only absolute accessors are used, so the buffers can be shared between threads; visibility between
+ * threads is the caller's responsibility.
+ */
+class MappedFile implements Closeable {
+    static final int CHUNK_SHIFT = 30;
+    static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer[] chunks;
+    private final boolean existed;
+
+    MappedFile(final File path, final long length) throws IOException {
+        this.existed = path.exists() && path.length() > 0;
+        this.file = new RandomAccessFile(path, "rw");
+        if (file.length() < length) {
+            file.setLength(length);
+        }
+        final long mappedLength = file.length();
+        final int chunkCount = (int) ((mappedLength + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+        this.chunks = new MappedByteBuffer[chunkCount];
+        final FileChannel channel = file.getChannel();
+        for (int i = 0; i < chunkCount; i++) {
+            final long position = (long) i << CHUNK_SHIFT;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(CHUNK_SIZE, mappedLength - position));
+        }
+    }
+
+    /**
+     * @return true if the file already had content before it was opened
+     */
+    boolean existed() {
+        return existed;
+    }
+
+    long length() {
+        return (long) (chunks.length - 1) * CHUNK_SIZE + chunks[chunks.length - 1].capacity();
+    }
+
+    byte get(final long offset) {
+        return chunk(offset).get(index(offset));
+    }
+
+    void put(final long offset, final byte value) {
+        chunk(offset).put(index(offset), value);
+    }
+
+    short getShort(final long offset) {
+        return chunk(offset).getShort(index(offset));
+    }
+
+    void putShort(final long offset, final short value) {
+        chunk(offset).putShort(index(offset), value);
+    }
+
+    int getInt(final long offset) {
+        return chunk(offset).getInt(index(offset));
+    }
+
+    void putInt(final long offset, final int value) {
+        chunk(offset).putInt(index(offset), value);
+    }
+
+    long getLong(final long offset) {
+        return chunk(offset).getLong(index(offset));
+    }
+
+    void putLong(final long offset, final long value) {
+        chunk(offset).putLong(index(offset), value);
+    }
+
+    void get(final long offset, final byte[] destination, final int length) {
+        final MappedByteBuffer chunk = chunk(offset);
+        final int index = index(offset);
+        for (int i = 0; i < length; i++) {
+            destination[i] = chunk.get(index + i);
+        }
+    }
+
+    void put(final long offset, final byte[] source, final int length) {
+        final MappedByteBuffer chunk = chunk(offset);
+        final int index = index(offset);
+        for (int i = 0; i < length; i++) {
+            chunk.put(index + i, source[i]);
+        }
+    }
+
+    /**
+     * @return true if the bytes at the offset are exactly the given bytes
+     */
+    boolean matches(final long offset, final byte[] expected, final int length) {
+        final MappedByteBuffer chunk = chunk(offset);
+        final int index = index(offset);
+        for (int i = 0; i < length; i++) {
+            if (chunk.get(index + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the CRC32 of the bytes between the offsets
+     */
+    long crc(final long from, final long to) {
+        final CRC32 crc = new CRC32();
+        long offset = from;
+        while (offset < to) {
+            final ByteBuffer bytes = chunk(offset).duplicate();
+            final int start = index(offset);
+            final int end = (int) Math.min(bytes.capacity(), start + (to - offset));
+            bytes.limit(end);
+            bytes.position(start);
+            crc.update(bytes);
+            offset += end - start;
+        }
+        return crc.getValue();
+    }
+
+    void force() {
+        for (final MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        file.close();
+    }
+
+    private MappedByteBuffer chunk(final long offset) {
+        return chunks[(int) (offset >>> CHUNK_SHIFT)];
+    }
+
+    private static int index(final long offset) {
+        return (int) (offset & CHUNK_MASK);
+    }
+}
@@ -0,0 +1,236 @@
+package com.codebreeze.rest.server.store;
+
+import com.codebreeze.rest.server.model.Account;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A heap store layered over the latest {@link SnapshotImage}, so that a restart maps the image instead of
+ * loading it, and only the write-ahead log written since the image needs replaying.
+ * <p>
+ * Writes go to a live heap overlay. {@link #freeze} turns the live overlay into a frozen one and starts a new
+ * live overlay, so the frozen overlay over the image is a stable view that a snapshot can be written from while
+ * writers carry on. {@link #install} then replaces the frozen overlay and the old image with the new image.
+ * Readers look through the live overlay, the frozen overlay and the image, in that order, without locking.
+ * All three are kept in account number order, so a scan merges them and a snapshot is written sorted.
+ */
+public class SnapshotAccountStore implements AccountStore {
+    private static final String SUFFIX = ".snapshot";
+
+    private final File directory;
+    private final AtomicLong size;
+    private volatile Layers layers;
+
+    private SnapshotAccountStore(final File directory, final SnapshotImage image) {
+        this.directory = directory;
+        this.size = new AtomicLong(image == null ? 0 : image.size());
+        this.layers = new Layers(new ConcurrentSkipListMap<String, Account>(), new TreeMap<String, Account>(), image);
+    }
+
+    /**
+     * Opens the store on the newest intact image in the directory, if there is one.
+     */
+    public static SnapshotAccountStore open(final File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create snapshot directory " + directory);
+        }
+        for (final File file : snapshots(directory)) {
+            try {
+                return new SnapshotAccountStore(directory, SnapshotImage.open(file));
+            } catch (final IOException e) {
+                // fall back to the previous image; the log since then is still there
+            }
+        }
+        return new SnapshotAccountStore(directory, null);
+    }
+
+    @Override
+    public Account get(final String number) {
+        final Layers current = layers;
+        Account account = current.live.get(number);
+        if (account == null) {
+            account = current.frozen.get(number);
+        }
+        if (account == null && current.image != null) {
+            account = current.image.get(number);
+        }
+        return account;
+    }
+
+    /**
+     * Callers must not put the same account number concurrently.
+     */
+    @Override
+    public void put(final Account account) {
+        final Layers current = layers;
+        if (current.live.put(account.getNumber(), account) == null
+                && current.frozen.get(account.getNumber()) == null
+                && (current.image == null || current.image.get(account.getNumber()) == null)) {
+            size.incrementAndGet();
+        }
+    }
+
+    /**
+     * The account was just added, so it is only in the live overlay: a freeze waits for writes in progress.
+     */
+    @Override
+    public void remove(final String number) {
+        if (layers.live.remove(number) != null) {
+            size.decrementAndGet();
+        }
+    }
+
+    @Override
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * Scans in account number order; the cursor is the last number visited.
+     */
+    @Override
+    public String scan(final String cursor, final int limit, final AccountVisitor visitor) {
+        final Layers current = layers;
+        final Iterator<Account> accounts;
+        if (cursor == null) {
+            accounts = SortedMerge.merge(
+                    current.live.values().iterator(),
+                    current.frozen.values().iterator(),
+                    current.image == null ? Collections.<Account>emptyIterator() : current.image.iterator());
+        } else {
+            accounts = SortedMerge.merge(
+                    current.live.tailMap(cursor, false).values().iterator(),
+                    current.frozen.tailMap(cursor, false).values().iterator(),
+                    current.image == null ? Collections.<Account>emptyIterator() : current.image.iteratorAfter(cursor));
+        }
+        String last = null;
+        for (int visited = 0; visited < limit; visited++) {
+            if (!accounts.hasNext()) {
+                return null;
+            }
+            final Account account = accounts.next();
+            visitor.visit(account);
+            last = account.getNumber();
+        }
+        return accounts.hasNext() ? last : null;
+    }
+
+    /**
+     * @return the write-ahead log position the current image is current to, 0 if there is no image
+     */
+    public long getWalPosition() {
+        final SnapshotImage image = layers.image;
+        return image == null ? 0 : image.getWalPosition();
+    }
+
+    /**
+     * Starts a new live overlay. Must be called while no write is in progress.
+     *
+     * @return every account written before the call in account number order, which stays unchanged until
+     * {@link #install}
+     */
+    public Iterable<Account> freeze() {
+        final Layers current = layers;
+        final NavigableMap<String, Account> frozen;
+        if (current.frozen.isEmpty()) {
+            frozen = current.live;
+        } else {
+            // the last snapshot was never installed
+            frozen = new TreeMap<String, Account>(current.frozen);
+            frozen.putAll(current.live);
+        }
+        layers = new Layers(new ConcurrentSkipListMap<String, Account>(), frozen, current.image);
+        final SnapshotImage image = current.image;
+        return new Iterable<Account>() {
+            @Override
+            public Iterator<Account> iterator() {
+                return image == null
+                        ? frozen.values().iterator()
+                        : SortedMerge.merge(frozen.values().iterator(), image.iterator());
+            }
+        };
+    }
+
+    /**
+     * @return the file the image of the accounts returned by {@link #freeze} at the log position should be
+     * written to
+     */
+    public File snapshotFile(final long walPosition) {
+        return new File(directory, String.format("accounts-%020d%s", walPosition, SUFFIX));
+    }
+
+    /**
+     * Replaces the frozen overlay and the current image with an image written from {@link #freeze}, and deletes
+     * all but the previous image.
+     */
+    public void install(final SnapshotImage image) throws IOException {
+        final Layers current = layers;
+        checkState(current.image == null || current.image.getWalPosition() <= image.getWalPosition(),
+                "snapshot at %s is older than the one in use", image.getWalPosition());
+        layers = new Layers(current.live, new TreeMap<String, Account>(), image);
+        if (current.image != null) {
+            // the mapping stays valid for readers still holding the old layers
+            current.image.close();
+        }
+        final File[] snapshots = snapshots(directory);
+        for (int i = 2; i < snapshots.length; i++) {
+            snapshots[i].delete();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        final SnapshotImage image = layers.image;
+        if (image != null) {
+            image.close();
+        }
+    }
+
+    /**
+     * @return the images in the directory, newest first
+     */
+    private static File[] snapshots(final File directory) {
+        final File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith("accounts-") && name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File left, final File right) {
+                return right.getName().compareTo(left.getName());
+            }
+        });
+        return files;
+    }
+
+    private static final class Layers {
+        private final ConcurrentNavigableMap<String, Account> live;
+        private final NavigableMap<String, Account> frozen;
+        private final SnapshotImage image;
+
+        private Layers(final ConcurrentNavigableMap<String, Account> live, final NavigableMap<String, Account> frozen,
+                       final SnapshotImage image) {
+            this.live = live;
+            this.frozen = frozen;
+            this.image = image;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.codebreeze.rest.server.store;
+
+import com.codebreeze.rest.server.model.Account;
+import com.google.common.collect.AbstractIterator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Iterator;
+
+import static com.codebreeze.rest.server.store.AccountHash.hash;
+import static com.codebreeze.rest.server.store.AccountHash.nextPowerOfTwo;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A read-only, checksummed image of every account, written by the snapshotter and served straight from a
+ * memory mapping: opening one costs a checksum pass over the file, not a parse of every record.
+ * <p>
+ * Layout: a 4KB header, an open-addressing hash index of 8-byte entries (hash of the number and record
+ * offset in 8-byte units), the record offsets in account number order, then variable-length records aligned
+ * to 8 bytes. A record never straddles one of the 1GB chunks of the mapping, and the file may have unused room
+ * past the length in its header. The image is immutable, so lookups take no locks.
+ * <p>
+ * A record is the number and the name, each a 2-byte length and UTF-8 bytes, the balance, and the account
+ * version. Images of the previous format, without versions, are still read, as version 0.
+ */
+public class SnapshotImage implements Iterable<Account>, Closeable {
+    private static final int MAGIC = 0x534e4150;
+    private static final int FORMAT_VERSION = 3;
+    private static final int UNVERSIONED_FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 4096;
+    private static final int MIN_INDEX_SLOTS = 16;
+
+    // header
+    private static final int MAGIC_OFFSET = 0;
+    private static final int FORMAT_VERSION_OFFSET = 4;
+    private static final int WAL_POSITION_OFFSET = 8;
+    private static final int COUNT_OFFSET = 16;
+    private static final int INDEX_SLOTS_OFFSET = 24;
+    private static final int LENGTH_OFFSET = 32;
+    private static final int CRC_OFFSET = 40;
+
+    private static final int INDEX_ENTRY_SIZE = 8;
+    private static final int ORDER_ENTRY_SIZE = 4;
+    private static final int ALIGNMENT = 8;
+    private static final short NULL_LENGTH = -1;
+    private static final byte NO_BALANCE = 0;
+    private static final byte LONG_BALANCE = 1;
+    private static final byte BIG_BALANCE = 2;
+
+    private final File path;
+    private final MappedFile file;
+    private final long walPosition;
+    private final long count;
+    private final long indexSlots;
+    private final long orderOffset;
+    private final boolean versioned;
+
+    private SnapshotImage(final File path, final MappedFile file) {
+        this.path = path;
+        this.file = file;
+        this.walPosition = file.getLong(WAL_POSITION_OFFSET);
+        this.count = file.getLong(COUNT_OFFSET);
+        this.indexSlots = file.getLong(INDEX_SLOTS_OFFSET);
+        this.orderOffset = HEADER_SIZE + indexSlots * INDEX_ENTRY_SIZE;
+        this.versioned = file.getInt(FORMAT_VERSION_OFFSET) == FORMAT_VERSION;
+    }
+
+    /**
+     * Maps an image and checks it is complete and intact.
+     *
+     * @throws IOException if the file is not an image, or is truncated or corrupt
+     */
+    public static SnapshotImage open(final File path) throws IOException {
+        if (path.length() < HEADER_SIZE) {
+            throw new IOException(path + " is too short to be a snapshot");
+        }
+        final MappedFile file = new MappedFile(path, 0);
+        final int formatVersion = file.getInt(FORMAT_VERSION_OFFSET);
+        if (file.getInt(MAGIC_OFFSET) != MAGIC
+                || formatVersion != FORMAT_VERSION && formatVersion != UNVERSIONED_FORMAT_VERSION) {
+            file.close();
+            throw new IOException(path + " is not a snapshot this version can read");
+        }
+        final long length = file.getLong(LENGTH_OFFSET);
+        if (length > file.length() || file.crc(HEADER_SIZE, length) != file.getLong(CRC_OFFSET)) {
+            file.close();
+            throw new IOException(path + " is truncated or corrupt");
+        }
+        return new SnapshotImage(path, file);
+    }
+
+    /**
+     * Writes an image of the accounts. The accounts are iterated twice, so they must not change meanwhile,
+     * and they must come in strictly ascending account number order.
+     *
+     * @param walPosition the write-ahead log position the accounts are current to
+     */
+    public static void write(final File path, final long walPosition, final Iterable<Account> accounts) throws IOException {
+        long count = 0;
+        long dataLength = 0;
+        long largestRecord = 0;
+        String previous = null;
+        for (final Account account : accounts) {
+            if (previous != null && previous.compareTo(account.getNumber()) >= 0) {
+                throw new IllegalArgumentException("accounts are not in ascending order at " + account.getNumber());
+            }
+            previous = account.getNumber();
+            final long size = align(recordSize(account));
+            dataLength += size;
+            largestRecord = Math.max(largestRecord, size);
+            count++;
+        }
+        final long indexSlots = Math.max(MIN_INDEX_SLOTS, nextPowerOfTwo(count * 2));
+        final long orderOffset = HEADER_SIZE + indexSlots * INDEX_ENTRY_SIZE;
+        final long dataOffset = orderOffset + align(count * ORDER_ENTRY_SIZE);
+        // room for what is skipped at the end of each chunk so that no record straddles two
+        final long capacity = dataOffset + dataLength + (dataLength / MappedFile.CHUNK_SIZE + 2) * largestRecord;
+        if (capacity / ALIGNMENT > Integer.MAX_VALUE) {
+            throw new IOException("snapshot of " + count + " accounts is too large");
+        }
+
+        if (path.exists() && !path.delete()) {
+            throw new IOException("cannot replace " + path);
+        }
+        final MappedFile file = new MappedFile(path, capacity);
+        try {
+            long record = dataOffset;
+            long order = orderOffset;
+            for (final Account account : accounts) {
+                final long size = recordSize(account);
+                if ((record & (MappedFile.CHUNK_SIZE - 1)) + size > MappedFile.CHUNK_SIZE) {
+                    record = (record / MappedFile.CHUNK_SIZE + 1) * MappedFile.CHUNK_SIZE;
+                }
+                writeRecord(file, record, account);
+                index(file, indexSlots, account.getNumber(), record);
+                file.putInt(order, (int) (record / ALIGNMENT));
+                order += ORDER_ENTRY_SIZE;
+                record = align(record + size);
+            }
+            file.putLong(WAL_POSITION_OFFSET, walPosition);
+            file.putLong(COUNT_OFFSET, count);
+            file.putLong(INDEX_SLOTS_OFFSET, indexSlots);
+            file.putLong(LENGTH_OFFSET, record);
+            file.putLong(CRC_OFFSET, file.crc(HEADER_SIZE, record));
+            file.putInt(FORMAT_VERSION_OFFSET, FORMAT_VERSION);
+            file.putInt(MAGIC_OFFSET, MAGIC);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return the account stored under the number, or null if there is none
+     */
+    public Account get(final String number) {
+        final byte[] key = number.getBytes(UTF_8);
+        final int hash = hash(number);
+        final long mask = indexSlots - 1;
+        long slot = hash & mask;
+        for (long probes = 0; probes < indexSlots; probes++) {
+            final long entry = HEADER_SIZE + slot * INDEX_ENTRY_SIZE;
+            final int reference = file.getInt(entry + 4);
+            if (reference == 0) {
+                return null;
+            }
+            final long record = (long) reference * ALIGNMENT;
+            if (file.getInt(entry) == hash
+                    && file.getShort(record) == key.length
+                    && file.matches(record + 2, key, key.length)) {
+                return readRecord(record);
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return the write-ahead log position this image is current to; replay resumes from there
+     */
+    public long getWalPosition() {
+        return walPosition;
+    }
+
+    public long size() {
+        return count;
+    }
+
+    public File getPath() {
+        return path;
+    }
+
+    /**
+     * iterates in account number order, materialising one account at a time
+     */
+    @Override
+    public Iterator<Account> iterator() {
+        return iterator(0);
+    }
+
+    /**
+     * @return the accounts with numbers after the given one, in account number order
+     */
+    public Iterator<Account> iteratorAfter(final String number) {
+        long low = 0;
+        long high = count;
+        while (low < high) {
+            final long middle = (low + high) >>> 1;
+            if (readString(recordAt(middle)).compareTo(number) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return iterator(low);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private Iterator<Account> iterator(final long from) {
+        return new AbstractIterator<Account>() {
+            private long position = from;
+
+            @Override
+            protected Account computeNext() {
+                return position < count ? readRecord(recordAt(position++)) : endOfData();
+            }
+        };
+    }
+
+    private long recordAt(final long position) {
+        return (long) file.getInt(orderOffset + position * ORDER_ENTRY_SIZE) * ALIGNMENT;
+    }
+
+    private Account readRecord(final long record) {
+        long offset = record;
+        final String number = readString(offset);
+        offset += 2 + Math.max(0, file.getShort(offset));
+        final String name = readString(offset);
+        offset += 2 + Math.max(0, file.getShort(offset));
+        final byte kind = file.get(offset);
+        BigDecimal balance = null;
+        if (kind == LONG_BALANCE) {
+            balance = BigDecimal.valueOf(file.getLong(offset + 5), file.getInt(offset + 1));
+            offset += 1 + 4 + 8;
+        } else if (kind == BIG_BALANCE) {
+            final byte[] unscaled = new byte[file.getShort(offset + 5)];
+            file.get(offset + 7, unscaled, unscaled.length);
+            balance = new BigDecimal(new BigInteger(unscaled), file.getInt(offset + 1));
+            offset += 1 + 4 + 2 + unscaled.length;
+        } else {
+            offset += 1;
+        }
+        return new Account(number, name, balance, versioned ? file.getLong(offset) : 0);
+    }
+
+    private String readString(final long offset) {
+        final short length = file.getShort(offset);
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        file.get(offset + 2, bytes, length);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeRecord(final MappedFile file, final long record, final Account account) {
+        long offset = record;
+        offset = writeString(file, offset, account.getNumber());
+        offset = writeString(file, offset, account.getName());
+        final BigDecimal balance = account.getBalance();
+        if (balance == null) {
+            file.put(offset, NO_BALANCE);
+            offset += 1;
+        } else if (fitsInLong(balance)) {
+            file.put(offset, LONG_BALANCE);
+            file.putInt(offset + 1, balance.scale());
+            file.putLong(offset + 5, balance.unscaledValue().longValue());
+            offset += 1 + 4 + 8;
+        } else {
+            final byte[] unscaled = balance.unscaledValue().toByteArray();
+            file.put(offset, BIG_BALANCE);
+            file.putInt(offset + 1, balance.scale());
+            file.putShort(offset + 5, (short) unscaled.length);
+            file.put(offset + 7, unscaled, unscaled.length);
+            offset += 1 + 4 + 2 + unscaled.length;
+        }
+        file.putLong(offset, account.getVersion());
+    }
+
+    private static long writeString(final MappedFile file, final long offset, final String value) {
+        if (value == null) {
+            file.putShort(offset, NULL_LENGTH);
+            return offset + 2;
+        }
+        final byte[] bytes = value.getBytes(UTF_8);
+        file.putShort(offset, (short) bytes.length);
+        file.put(offset + 2, bytes, bytes.length);
+        return offset + 2 + bytes.length;
+    }
+
+    private static void index(final MappedFile file, final long indexSlots, final String number, final long record) {
+        final int hash = hash(number);
+        final long mask = indexSlots - 1;
+        long slot = hash & mask;
+        while (file.getInt(HEADER_SIZE + slot * INDEX_ENTRY_SIZE + 4) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        file.putInt(HEADER_SIZE + slot * INDEX_ENTRY_SIZE, hash);
+        file.putInt(HEADER_SIZE + slot * INDEX_ENTRY_SIZE + 4, (int) (record / ALIGNMENT));
+    }
+
+    private static long recordSize(final Account account) {
+        long size = 2 + utf8Length(account.getNumber()) + 2 + utf8Length(account.getName()) + 1 + 8;
+        final BigDecimal balance = account.getBalance();
+        if (balance != null) {
+            size += fitsInLong(balance) ? 4 + 8 : 4 + 2 + balance.unscaledValue().toByteArray().length;
+        }
+        return size;
+    }
+
+    private static int utf8Length(final String value) {
+        return value == null ? 0 : value.getBytes(UTF_8).length;
+    }
+
+    private static boolean fitsInLong(final BigDecimal balance) {
+        return balance.unscaledValue().bitLength() < Long.SIZE;
+    }
+
+    private static long align(final long offset) {
+        return (offset + ALIGNMENT - 1) & ~(ALIGNMENT - 1L);
+    }
+}
@@ -0,0 +1,55 @@
+package com.codebreeze.rest.server.store;
+
+import com.codebreeze.rest.server.model.Account;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Merges layers of accounts that are each in account number order into one sequence in that order. Where
+ * layers hold the same number, the account from the earliest layer wins and the others are skipped.
+ */
+final class SortedMerge extends AbstractIterator<Account> {
+    private final List<PeekingIterator<Account>> layers;
+
+    private SortedMerge(final List<PeekingIterator<Account>> layers) {
+        this.layers = layers;
+    }
+
+    /**
+     * @param layers newest first
+     */
+    @SafeVarargs
+    static Iterator<Account> merge(final Iterator<Account>... layers) {
+        final List<PeekingIterator<Account>> peeking = new ArrayList<PeekingIterator<Account>>(layers.length);
+        for (final Iterator<Account> layer : layers) {
+            peeking.add(Iterators.peekingIterator(layer));
+        }
+        return new SortedMerge(peeking);
+    }
+
+    @Override
+    protected Account computeNext() {
+        PeekingIterator<Account> lowest = null;
+        for (final PeekingIterator<Account> layer : layers) {
+            if (layer.hasNext() && (lowest == null
+                    || layer.peek().getNumber().compareTo(lowest.peek().getNumber()) < 0)) {
+                lowest = layer;
+            }
+        }
+        if (lowest == null) {
+            return endOfData();
+        }
+        final Account next = lowest.next();
+        for (final PeekingIterator<Account> layer : layers) {
+            if (layer.hasNext() && layer.peek().getNumber().equals(next.getNumber())) {
+                layer.next();
+            }
+        }
+        return next;
+    }
+}
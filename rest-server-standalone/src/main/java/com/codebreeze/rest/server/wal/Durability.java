@@ -0,0 +1,27 @@
+package com.codebreeze.rest.server.wal;
+
+/**
+ * When {@link com.codebreeze.rest.server.services.AccountService#addAccount} may return, relative to the fsync
+ * of the write-ahead log.
+ */
+public enum Durability {
+    /**
+     * every write is forced to disk on its own before it returns
+     */
+    PER_WRITE,
+    /**
+     * writes that arrive together share one fsync, and each returns once its batch is on disk
+     */
+    PER_BATCH,
+    /**
+     * writes return immediately; the log is forced in the background at a fixed interval
+     */
+    ASYNC;
+
+    /**
+     * parses the command line spelling, e.g. per-batch
+     */
+    public static Durability parse(final String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+}
@@ -0,0 +1,395 @@
+package com.codebreeze.rest.server.wal;
+
+import com.codebreeze.rest.server.model.Account;
+import com.codebreeze.rest.server.store.AccountStore;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Append-only log of every account written, replayed into the store on restart.
+ * <p>
+ * Each record is its payload length, a CRC32 of the payload, and the payload. Callers encode their own record,
+ * so the only serial work is the write itself. Apart from {@link Durability#PER_WRITE}, records are queued into
+ * the current {@link Batch} and a single flusher thread writes and forces whole batches: while one fsync is in
+ * progress the next batch fills up, so concurrent writers share fsyncs (group commit).
+ */
+public class WriteAheadLog implements Closeable {
+    private static final int HEADER_SIZE = 8;
+
+    private final File path;
+    private final Durability durability;
+    private final long flushIntervalMillis;
+    private final FileChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pending = lock.newCondition();
+    private final Thread flusher;
+    private Batch current = new Batch();
+    // the batch the flusher took last
+    private Batch taken;
+    private boolean closed;
+    // the offset just past the last record appended, whether or not it has been written yet
+    private long end;
+    private volatile IOException failure;
+
+    public WriteAheadLog(final File path, final Durability durability, final long flushIntervalMillis) throws IOException {
+        this.path = path;
+        this.durability = durability;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.channel = new RandomAccessFile(path, "rw").getChannel();
+        this.channel.position(channel.size());
+        this.end = channel.size();
+        this.flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushUntilClosed();
+            }
+        }, "wal-flusher");
+        this.flusher.setDaemon(true);
+        if (durability != Durability.PER_WRITE) {
+            this.flusher.start();
+        }
+    }
+
+    /**
+     * Puts every intact record of the log into the store. A torn record at the tail, left by a crash in the middle
+     * of a write, is cut off so that new records are appended after the last intact one.
+     * Must be called before the first {@link #append}.
+     *
+     * @return the number of records replayed
+     */
+    public int replay(final AccountStore store) throws IOException {
+        return replay(store, 0);
+    }
+
+    /**
+     * Like {@link #replay(AccountStore)}, but skips the records before a {@link #position}, such as the one
+     * a snapshot is current to.
+     */
+    public int replay(final AccountStore store, final long from) throws IOException {
+        int replayed = 0;
+        long valid = Math.min(from, channel.size());
+        final FileInputStream file = new FileInputStream(path);
+        file.getChannel().position(valid);
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(file));
+        try {
+            while (true) {
+                final byte[] payload = readRecord(in);
+                if (payload == null) {
+                    break;
+                }
+                for (final Account account : decode(payload)) {
+                    store.put(account);
+                }
+                valid += HEADER_SIZE + payload.length;
+                replayed++;
+            }
+        } finally {
+            in.close();
+        }
+        if (valid < channel.size()) {
+            channel.truncate(valid);
+        }
+        channel.position(valid);
+        lock.lock();
+        try {
+            end = valid;
+        } finally {
+            lock.unlock();
+        }
+        return replayed;
+    }
+
+    /**
+     * @return the offset just past the last record appended so far
+     */
+    public long position() {
+        lock.lock();
+        try {
+            return end;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until every record appended so far is forced to disk, whatever the durability.
+     */
+    public void sync() {
+        if (durability == Durability.PER_WRITE) {
+            // every append was forced before it returned
+            return;
+        }
+        final Batch batch;
+        lock.lock();
+        try {
+            // batches are written in order, so the newest one covers everything before it
+            batch = current.isEmpty() ? taken : current;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (batch != null) {
+            batch.await();
+        }
+    }
+
+    /**
+     * Queues the accounts for the log, as one record, so that replay applies all of them or none.
+     * Records reach the file in the order this method is called.
+     *
+     * @return the batch holding the record, to be passed to {@link #awaitDurable}
+     * @throws IllegalArgumentException if an account number or name is over the 65535 bytes a record holds
+     * @throws IllegalStateException    if the log is closed, or failed to write
+     */
+    public Batch append(final Account... accounts) {
+        final byte[] record = encode(accounts);
+        lock.lock();
+        try {
+            checkState(!closed, "write-ahead log %s is closed", path);
+            checkHealthy();
+            end += record.length;
+            if (durability == Durability.PER_WRITE) {
+                return writeNow(record);
+            }
+            current.add(record);
+            if (durability == Durability.PER_BATCH) {
+                pending.signal();
+            }
+            return current;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the batch is as durable as this log is configured to make it.
+     */
+    public void awaitDurable(final Batch batch) {
+        if (durability != Durability.ASYNC) {
+            batch.await();
+        }
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Writes and forces whatever is still queued, then closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            if (flusher.isAlive()) {
+                flusher.join();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private Batch writeNow(final byte[] record) {
+        final Batch batch = new Batch();
+        batch.add(record);
+        write(batch);
+        return batch;
+    }
+
+    private void flushUntilClosed() {
+        while (true) {
+            final Batch batch;
+            lock.lock();
+            try {
+                if (durability == Durability.ASYNC && !closed) {
+                    pending.await(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                }
+                while (current.isEmpty() && !closed) {
+                    pending.await(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                }
+                if (current.isEmpty()) {
+                    return;
+                }
+                batch = current;
+                current = new Batch();
+                taken = batch;
+            } catch (final InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            write(batch);
+        }
+    }
+
+    private void write(final Batch batch) {
+        try {
+            final ByteBuffer[] buffers = batch.buffers();
+            long remaining = batch.bytes;
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+            channel.force(false);
+            batch.complete(null);
+        } catch (final IOException e) {
+            failure = e;
+            batch.complete(e);
+        }
+    }
+
+    private void checkHealthy() {
+        if (failure != null) {
+            throw new IllegalStateException("write-ahead log " + path + " failed", failure);
+        }
+    }
+
+    private static byte[] encode(final Account... accounts) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * accounts.length);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeInt(0);
+            for (final Account account : accounts) {
+                out.writeUTF(account.getNumber());
+                out.writeBoolean(account.getName() != null);
+                if (account.getName() != null) {
+                    out.writeUTF(account.getName());
+                }
+                out.writeBoolean(account.getBalance() != null);
+                if (account.getBalance() != null) {
+                    final byte[] unscaled = account.getBalance().unscaledValue().toByteArray();
+                    out.writeInt(account.getBalance().scale());
+                    out.writeShort(unscaled.length);
+                    out.write(unscaled);
+                }
+                out.writeLong(account.getVersion());
+            }
+            final byte[] record = bytes.toByteArray();
+            final CRC32 crc = new CRC32();
+            crc.update(record, HEADER_SIZE, record.length - HEADER_SIZE);
+            final ByteBuffer header = ByteBuffer.wrap(record);
+            header.putInt(0, record.length - HEADER_SIZE);
+            header.putInt(4, (int) crc.getValue());
+            return record;
+        } catch (final UTFDataFormatException e) {
+            throw new IllegalArgumentException("account number or name is too long for the write-ahead log", e);
+        } catch (final IOException e) {
+            throw new IllegalStateException("cannot encode account " + accounts[0].getNumber(), e);
+        }
+    }
+
+    private static List<Account> decode(final byte[] payload) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        final List<Account> accounts = new ArrayList<Account>(1);
+        do {
+            final String number = in.readUTF();
+            final String name = in.readBoolean() ? in.readUTF() : null;
+            BigDecimal balance = null;
+            if (in.readBoolean()) {
+                final int scale = in.readInt();
+                final byte[] unscaled = new byte[in.readShort()];
+                in.readFully(unscaled);
+                balance = new BigDecimal(new BigInteger(unscaled), scale);
+            }
+            // records written before accounts had versions hold one account and end at the balance
+            final long version = in.available() >= 8 ? in.readLong() : 0;
+            accounts.add(new Account(number, name, balance, version));
+        } while (in.available() > 0);
+        return accounts;
+    }
+
+    /**
+     * @return the payload of the next record, or null at the end of the log or at a torn or corrupt record
+     */
+    private static byte[] readRecord(final DataInputStream in) throws IOException {
+        try {
+            final int length = in.readInt();
+            final int checksum = in.readInt();
+            if (length <= 0) {
+                return null;
+            }
+            final byte[] payload = new byte[length];
+            in.readFully(payload);
+            final CRC32 crc = new CRC32();
+            crc.update(payload);
+            return (int) crc.getValue() == checksum ? payload : null;
+        } catch (final EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Records that are written and forced together.
+     */
+    public static final class Batch {
+        private final List<byte[]> records = new ArrayList<byte[]>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private long bytes;
+        private volatile IOException failure;
+
+        private void add(final byte[] record) {
+            records.add(record);
+            bytes += record.length;
+        }
+
+        private boolean isEmpty() {
+            return records.isEmpty();
+        }
+
+        private ByteBuffer[] buffers() {
+            final ByteBuffer[] buffers = new ByteBuffer[records.size()];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = ByteBuffer.wrap(records.get(i));
+            }
+            return buffers;
+        }
+
+        private void complete(final IOException failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+
+        private void await() {
+            try {
+                done.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for the write-ahead log", e);
+            }
+            if (failure != null) {
+                throw new IllegalStateException("account was not written to the write-ahead log", failure);
+            }
+        }
+    }
+}
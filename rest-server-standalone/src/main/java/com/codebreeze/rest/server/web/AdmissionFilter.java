@@ -0,0 +1,212 @@
+package com.codebreeze.rest.server.web;
+
+import com.codebreeze.rest.server.model.AdmissionStats;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.RateLimiter;
+import org.eclipse.jetty.server.Request;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestWrapper;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Admission control in front of the CXF servlet. At most maxInFlight requests are served at once; a request that
+ * does not get a slot within its queue-time budget is turned away with 503 and Retry-After, rather than left to
+ * wait behind work the server cannot finish in time. Optionally each client, by remote address, is held to a
+ * token-bucket rate, with a second's worth of burst, and is turned away with 429 beyond it.
+ * <p>
+ * Turning a request away costs no more than a status line: its body is not read and CXF never sees it. An async
+ * request holds its slot until it completes, not just until the servlet returns. The change stream stays open for
+ * as long as its client wants it, on a request thread, so it takes no slot but one of at most maxSubscribers, and
+ * a subscriber beyond those is turned away with 503 at once. It is the request path, not the Accept header, that
+ * tells a subscription apart, so no other request gets past the slots by asking for an event stream.
+ */
+public class AdmissionFilter implements Filter {
+    /**
+     * the servlet context attribute the filter is published under, for {@link #getStats}
+     */
+    public static final String ATTRIBUTE = AdmissionFilter.class.getName();
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final String RETRY_AFTER_SECONDS = "1";
+    private static final byte[] OVERLOADED = "server is overloaded, retry later".getBytes(UTF_8);
+    private static final byte[] RATE_LIMITED = "too many requests from this client, retry later".getBytes(UTF_8);
+    private static final byte[] TOO_MANY_SUBSCRIBERS = "too many change stream subscribers, retry later"
+            .getBytes(UTF_8);
+    private static final String CHANGE_STREAM_PATH = "/api/account/changes";
+    private static final int MAX_CLIENTS = 100000;
+    private static final long CLIENT_IDLE_MINUTES = 10;
+
+    private final int maxInFlight;
+    // null when requests in flight are not capped
+    private final Semaphore slots;
+    private final long queueTimeoutMillis;
+    private final int maxSubscribers;
+    // null when subscribers are not capped
+    private final Semaphore subscriptions;
+    // null when clients are not rate limited
+    private final LoadingCache<String, RateLimiter> clients;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong shedQueueTimeout = new AtomicLong();
+    private final AtomicLong shedRateLimited = new AtomicLong();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final AtomicLong shedSubscribers = new AtomicLong();
+    private final Completion.Task release = new Completion.Task() {
+        @Override
+        public void run(final boolean thrown) {
+            inFlight.decrementAndGet();
+            if (slots != null) {
+                slots.release();
+            }
+        }
+    };
+    private final Completion.Task unsubscribe = new Completion.Task() {
+        @Override
+        public void run(final boolean thrown) {
+            subscribers.decrementAndGet();
+            if (subscriptions != null) {
+                subscriptions.release();
+            }
+        }
+    };
+
+    /**
+     * @param maxInFlight        how many requests may be served at once, 0 for no cap
+     * @param queueTimeoutMillis how long a request may wait, counted from when jetty received it, before it is shed
+     * @param ratePerClient      how many requests a second each client may make, 0 for no limit
+     * @param maxSubscribers     how many change streams may be open at once, 0 for no cap
+     */
+    public AdmissionFilter(final int maxInFlight, final long queueTimeoutMillis, final double ratePerClient,
+                           final int maxSubscribers) {
+        checkArgument(maxInFlight >= 0, "max in flight must not be negative");
+        checkArgument(queueTimeoutMillis >= 0, "queue timeout must not be negative");
+        checkArgument(ratePerClient >= 0, "rate limit must not be negative");
+        checkArgument(maxSubscribers >= 0, "max subscribers must not be negative");
+        this.maxInFlight = maxInFlight;
+        this.slots = maxInFlight == 0 ? null : new Semaphore(maxInFlight);
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.maxSubscribers = maxSubscribers;
+        this.subscriptions = maxSubscribers == 0 ? null : new Semaphore(maxSubscribers);
+        this.clients = ratePerClient == 0 ? null : CacheBuilder.newBuilder()
+                .maximumSize(MAX_CLIENTS)
+                .expireAfterAccess(CLIENT_IDLE_MINUTES, TimeUnit.MINUTES)
+                .build(new CacheLoader<String, RateLimiter>() {
+                    @Override
+                    public RateLimiter load(final String client) {
+                        return RateLimiter.create(ratePerClient);
+                    }
+                });
+    }
+
+    /**
+     * @return whether there is anything for the filter to do
+     */
+    public boolean isEnabled() {
+        return slots != null || clients != null || subscriptions != null;
+    }
+
+    public AdmissionStats getStats() {
+        return new AdmissionStats(maxInFlight, inFlight.get(), admitted.get(), shedQueueTimeout.get(),
+                shedRateLimited.get(), maxSubscribers, subscribers.get(), shedSubscribers.get());
+    }
+
+    @Override
+    public void init(final FilterConfig filterConfig) {
+        filterConfig.getServletContext().setAttribute(ATTRIBUTE, this);
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+            throws IOException, ServletException {
+        if (clients != null && !clients.getUnchecked(request.getRemoteAddr()).tryAcquire()) {
+            shedRateLimited.incrementAndGet();
+            reject((HttpServletResponse) response, TOO_MANY_REQUESTS, RATE_LIMITED);
+            return;
+        }
+        if (isChangeStream(request)) {
+            if (subscriptions != null && !subscriptions.tryAcquire()) {
+                shedSubscribers.incrementAndGet();
+                reject((HttpServletResponse) response, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                        TOO_MANY_SUBSCRIBERS);
+                return;
+            }
+            admitted.incrementAndGet();
+            subscribers.incrementAndGet();
+            Completion.doFilter(request, response, chain, unsubscribe);
+            return;
+        }
+        if (slots != null && !acquire(request)) {
+            shedQueueTimeout.incrementAndGet();
+            reject((HttpServletResponse) response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, OVERLOADED);
+            return;
+        }
+        admitted.incrementAndGet();
+        inFlight.incrementAndGet();
+        Completion.doFilter(request, response, chain, release);
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * Waits for a slot for what is left of the queue-time budget. A request that has used it up already is
+     * shed without waiting, since its client has likely given up on it.
+     */
+    private boolean acquire(final ServletRequest request) throws ServletException {
+        final long remaining = queueTimeoutMillis - queuedMillis(request);
+        try {
+            return remaining > 0 && slots.tryAcquire(remaining, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException("interrupted waiting to admit a request", e);
+        }
+    }
+
+    /**
+     * by the decoded path within the context, as the servlet resolves it
+     */
+    private static boolean isChangeStream(final ServletRequest request) {
+        final HttpServletRequest http = (HttpServletRequest) request;
+        final String pathInfo = http.getPathInfo();
+        return CHANGE_STREAM_PATH.equals(pathInfo == null ? http.getServletPath() : http.getServletPath() + pathInfo);
+    }
+
+    private static long queuedMillis(final ServletRequest request) {
+        // the metrics filter ahead of this one wraps the request
+        ServletRequest unwrapped = request;
+        while (unwrapped instanceof ServletRequestWrapper) {
+            unwrapped = ((ServletRequestWrapper) unwrapped).getRequest();
+        }
+        if (unwrapped instanceof Request) {
+            return Math.max(0, System.currentTimeMillis() - ((Request) unwrapped).getTimeStamp());
+        }
+        return 0;
+    }
+
+    private static void reject(final HttpServletResponse response, final int status, final byte[] message)
+            throws IOException {
+        response.setStatus(status);
+        response.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+        response.setContentType("text/plain");
+        response.setContentLength(message.length);
+        response.getOutputStream().write(message);
+    }
+}
@@ -0,0 +1,99 @@
+package com.codebreeze.rest.server.web;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a task once when a request is over: when the servlet returns, or, if the request went async, when its
+ * async context completes. The listener is added as the request is suspended, so a request that another thread
+ * completes before the servlet returns is not missed.
+ */
+final class Completion implements AsyncListener {
+    private final Task task;
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    private Completion(final Task task) {
+        this.task = task;
+    }
+
+    /**
+     * Passes the request down the chain and runs the task once it is over, even if the chain throws.
+     */
+    static void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain,
+                         final Task task) throws IOException, ServletException {
+        final Completion completion = new Completion(task);
+        boolean thrown = true;
+        try {
+            chain.doFilter(new ListenedRequest((HttpServletRequest) request, completion), response);
+            thrown = false;
+        } finally {
+            if (thrown || !request.isAsyncStarted()) {
+                completion.run(thrown);
+            }
+        }
+    }
+
+    private void run(final boolean thrown) {
+        if (done.compareAndSet(false, true)) {
+            task.run(thrown);
+        }
+    }
+
+    @Override
+    public void onComplete(final AsyncEvent event) {
+        run(false);
+    }
+
+    @Override
+    public void onTimeout(final AsyncEvent event) {
+    }
+
+    @Override
+    public void onError(final AsyncEvent event) {
+    }
+
+    @Override
+    public void onStartAsync(final AsyncEvent event) {
+        // a listener is dropped when the request is suspended again, so it has to come along
+        event.getAsyncContext().addListener(this);
+    }
+
+    interface Task {
+        /**
+         * @param thrown whether the request ended with the chain throwing, rather than with a response
+         */
+        void run(boolean thrown);
+    }
+
+    private static final class ListenedRequest extends HttpServletRequestWrapper {
+        private final Completion completion;
+
+        private ListenedRequest(final HttpServletRequest request, final Completion completion) {
+            super(request);
+            this.completion = completion;
+        }
+
+        @Override
+        public AsyncContext startAsync() {
+            final AsyncContext context = super.startAsync();
+            context.addListener(completion);
+            return context;
+        }
+
+        @Override
+        public AsyncContext startAsync(final ServletRequest request, final ServletResponse response) {
+            final AsyncContext context = super.startAsync(request, response);
+            context.addListener(completion);
+            return context;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.codebreeze.rest.server.web;
+
+import com.google.common.collect.ImmutableSet;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keeps a follower's accounts the leader's: reads are served here, and anything else is sent to the same path on
+ * the leader with 307 Temporary Redirect, which a client that follows redirects repeats there, body and all.
+ * Nothing is read from a redirected request's body. Reads are GET, HEAD and OPTIONS, and the POSTs that only
+ * read, such as the batched lookup, whose numbers do not fit a URL.
+ */
+public class FollowerFilter implements Filter {
+    private static final int TEMPORARY_REDIRECT = 307;
+    private static final byte[] FOLLOWING = "this server is a follower; write to the leader".getBytes(UTF_8);
+    // by the decoded path within the context, as the servlet resolves it
+    private static final Set<String> READ_ONLY_POSTS = ImmutableSet.of("/api/account/lookup");
+
+    private final String leader;
+
+    /**
+     * @param leader the leader's base address, e.g. http://localhost:8080
+     */
+    public FollowerFilter(final String leader) {
+        this.leader = leader.endsWith("/") ? leader.substring(0, leader.length() - 1) : leader;
+    }
+
+    @Override
+    public void init(final FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+            throws IOException, ServletException {
+        final HttpServletRequest httpRequest = (HttpServletRequest) request;
+        final String method = httpRequest.getMethod();
+        if ("GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method)
+                || "POST".equals(method) && READ_ONLY_POSTS.contains(path(httpRequest))) {
+            chain.doFilter(request, response);
+            return;
+        }
+        final String query = httpRequest.getQueryString();
+        final HttpServletResponse httpResponse = (HttpServletResponse) response;
+        httpResponse.setStatus(TEMPORARY_REDIRECT);
+        httpResponse.setHeader("Location",
+                leader + httpRequest.getRequestURI() + (query == null ? "" : "?" + query));
+        httpResponse.setContentType("text/plain");
+        httpResponse.setContentLength(FOLLOWING.length);
+        httpResponse.getOutputStream().write(FOLLOWING);
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private static String path(final HttpServletRequest request) {
+        final String pathInfo = request.getPathInfo();
+        return pathInfo == null ? request.getServletPath() : request.getServletPath() + pathInfo;
+    }
+}
@@ -0,0 +1,83 @@
+package com.codebreeze.rest.server.web;
+
+import org.eclipse.jetty.server.Server;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Takes the server out of service without failing the requests it is serving, as a shutdown hook, so on SIGTERM.
+ * Readiness fails at once, change streams end, for their clients to resume from another server, and every
+ * response from then on closes its connection, so that load balancers and keep-alive clients move on. After the
+ * drain delay, for load balancers to notice, the server is stopped: Jetty closes the listening socket, waits up to
+ * its stop timeout for the requests in flight, as the StatisticsHandler in front of the context counts them, and
+ * then the spring context closes, which forces the write-ahead log to disk, takes a last snapshot and stops
+ * replication and migration.
+ * <p>
+ * As a filter it has to come first, so that it sees every response.
+ */
+public class GracefulShutdown implements Filter, Runnable {
+    /**
+     * the servlet context attribute the shutdown is published under, for readiness and for change streams
+     */
+    public static final String ATTRIBUTE = GracefulShutdown.class.getName();
+    private static final Logger LOGGER = Logger.getLogger(GracefulShutdown.class.getName());
+
+    private final Server server;
+    private final long delayMillis;
+    private volatile boolean draining;
+
+    /**
+     * @param delayMillis how long to keep accepting requests once readiness fails
+     */
+    public GracefulShutdown(final Server server, final long delayMillis) {
+        this.server = server;
+        this.delayMillis = delayMillis;
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    @Override
+    public void run() {
+        draining = true;
+        final long start = System.nanoTime();
+        LOGGER.info("draining, stopping in " + delayMillis + " ms");
+        try {
+            Thread.sleep(delayMillis);
+            server.stop();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final Exception e) {
+            LOGGER.log(Level.WARNING, "could not stop the server", e);
+        }
+        LOGGER.info("stopped after " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    @Override
+    public void init(final FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+            throws IOException, ServletException {
+        if (draining) {
+            ((HttpServletResponse) response).setHeader("Connection", "close");
+        }
+        chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,131 @@
+package com.codebreeze.rest.server.web;
+
+import com.codebreeze.rest.server.metrics.Metrics;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+
+/**
+ * Times each request from when it reaches the servlet until its response is complete, async or not, and counts
+ * it, its failures and its bytes under the resource method that served it. The method is named by
+ * {@link #ENDPOINT}, which CXF sets once it has matched the request; requests it never matched, including those
+ * shed by admission control, are counted as {@link Metrics#UNMATCHED}. Response bytes are those written to the
+ * response's output stream, as CXF and the filters write them; a body written through its writer is not counted.
+ */
+public class MetricsFilter implements Filter {
+    /**
+     * the request attribute holding the {@link Metrics.Endpoint} a request is counted under
+     */
+    public static final String ENDPOINT = MetricsFilter.class.getName() + ".endpoint";
+
+    private final Metrics metrics;
+    private final Metrics.Endpoint unmatched;
+
+    public MetricsFilter(final Metrics metrics) {
+        this.metrics = metrics;
+        this.unmatched = metrics.endpoint(Metrics.UNMATCHED);
+    }
+
+    @Override
+    public void init(final FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+            throws IOException, ServletException {
+        final CountingResponse counting = new CountingResponse((HttpServletResponse) response);
+        Completion.doFilter(request, counting, chain, new Timing(request, counting));
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private final class Timing implements Completion.Task {
+        private final long start = System.nanoTime();
+        private final ServletRequest request;
+        private final CountingResponse response;
+
+        private Timing(final ServletRequest request, final CountingResponse response) {
+            this.request = request;
+            this.response = response;
+        }
+
+        @Override
+        public void run(final boolean thrown) {
+            final Object endpoint = request.getAttribute(ENDPOINT);
+            ((Metrics.Endpoint) (endpoint == null ? unmatched : endpoint)).record(
+                    System.nanoTime() - start,
+                    thrown || response.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                    request.getContentLength(),
+                    response.written);
+        }
+    }
+
+    private static final class CountingResponse extends HttpServletResponseWrapper {
+        // written by one thread at a time, and read once the response is complete
+        private volatile long written;
+        private ServletOutputStream out;
+
+        private CountingResponse(final HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (out == null) {
+                out = new CountingOutputStream(super.getOutputStream());
+            }
+            return out;
+        }
+
+        private final class CountingOutputStream extends ServletOutputStream {
+            private final ServletOutputStream delegate;
+
+            private CountingOutputStream(final ServletOutputStream delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public void write(final int b) throws IOException {
+                delegate.write(b);
+                written++;
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                delegate.write(b, off, len);
+                written += len;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                delegate.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                delegate.close();
+            }
+
+            @Override
+            public boolean isReady() {
+                return delegate.isReady();
+            }
+
+            @Override
+            public void setWriteListener(final WriteListener writeListener) {
+                delegate.setWriteListener(writeListener);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.codebreeze.rest.server.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestThreadsTest {
+    @Test
+    public void rejectsWhatThePlatformPoolAndItsQueueHaveNoRoomFor() throws InterruptedException {
+        final ExecutorService executor = RequestThreads.PLATFORM.newExecutor("test", 2, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        final Runnable blocked = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        };
+        try {
+            // two running and one waiting
+            executor.execute(blocked);
+            executor.execute(blocked);
+            executor.execute(blocked);
+            try {
+                executor.execute(blocked);
+                fail("a fourth task was accepted");
+            } catch (final RejectedExecutionException expected) {
+                // the resources answer 503
+            }
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void queuesNothingWithoutAQueue() {
+        final ExecutorService executor = RequestThreads.PLATFORM.newExecutor("test", 1, 0);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                    }
+                });
+                fail("a second task was accepted");
+            } catch (final RejectedExecutionException expected) {
+                // the resources answer 503
+            }
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.codebreeze.rest.server.partition;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The owners here are pinned, and the client's HashRingTest pins the same ones: a change to how either ring
+ * hashes fails one of the two, instead of sending requests to nodes that do not own their accounts.
+ */
+public class HashRingTest {
+    private static final String[][] OWNERS = {
+            {"1", "http://a:8080"},
+            {"2", "http://a:8080"},
+            {"3", "http://c:8080"},
+            {"42", "http://c:8080"},
+            {"1000", "http://b:8080"},
+            {"GB29NWBK60161331926819", "http://c:8080"},
+            {"DE89370400440532013000", "http://b:8080"},
+            {"FR1420041010050500013M02606", "http://a:8080"},
+            {"alice", "http://b:8080"},
+            {"\u00fcn\u00efc\u00f6d\u00e9", "http://c:8080"},
+    };
+
+    @Test
+    public void placesNumbersWhereTheClientDoes() {
+        final HashRing ring = new HashRing(Arrays.asList("http://a:8080", "http://b:8080/", "http://c:8080"), 128);
+        for (final String[] owner : OWNERS) {
+            assertEquals(owner[0], owner[1], ring.owner(owner[0]));
+        }
+    }
+
+    @Test
+    public void dependsOnlyOnTheSetOfNodes() {
+        final HashRing ring = new HashRing(Arrays.asList("http://c:8080", "http://a:8080/", "http://b:8080",
+                "http://a:8080"), 128);
+        assertEquals(Arrays.asList("http://a:8080", "http://b:8080", "http://c:8080"), ring.getNodes());
+        for (final String[] owner : OWNERS) {
+            assertEquals(owner[0], owner[1], ring.owner(owner[0]));
+        }
+    }
+
+    @Test
+    public void movesOnlyTheNumbersOfANodeThatLeaves() {
+        final HashRing three = new HashRing(Arrays.asList("http://a:8080", "http://b:8080", "http://c:8080"), 128);
+        final HashRing two = new HashRing(Arrays.asList("http://a:8080", "http://b:8080"), 128);
+        for (int i = 0; i < 10000; i++) {
+            final String number = String.valueOf(i);
+            final String owner = three.owner(number);
+            if (!owner.equals("http://c:8080")) {
+                assertEquals(number, owner, two.owner(number));
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.codebreeze.rest.server.replication;
+
+import com.codebreeze.rest.server.rs.ReplicationRestService;
+import com.codebreeze.rest.server.services.AccountService;
+import com.codebreeze.rest.server.store.HeapAccountStore;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FollowerTest {
+    private static final String EPOCH = "7";
+
+    private final AtomicInteger snapshots = new AtomicInteger();
+    private final AtomicInteger streams = new AtomicInteger();
+    // what the leader streams first, before a change the follower can apply
+    private volatile String malformed;
+    private HttpServer leader;
+    private AccountService accounts;
+    private Follower follower;
+
+    @Before
+    public void setUp() throws IOException {
+        leader = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        leader.createContext("/api/replication/snapshot", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                snapshots.incrementAndGet();
+                exchange.getResponseHeaders().add(ReplicationRestService.EPOCH_HEADER, EPOCH);
+                exchange.getResponseHeaders().add(ReplicationRestService.FROM_HEADER, "0");
+                send(exchange, "{\"version\":\"1\",\"account\":{\"number\":\"1\",\"name\":\"one\",\"balance\":1}}\n");
+            }
+        });
+        leader.createContext("/api/account/changes", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add(ReplicationRestService.EPOCH_HEADER, EPOCH);
+                if (streams.incrementAndGet() == 1) {
+                    send(exchange, malformed);
+                } else {
+                    send(exchange, "id: 0\nevent: account\ndata: {\"version\":\"2\",\"time\":0,"
+                            + "\"account\":{\"number\":\"2\",\"name\":\"two\",\"balance\":2}}\n\n");
+                }
+            }
+        });
+        leader.start();
+        accounts = new AccountService(new HeapAccountStore());
+        follower = new Follower("http://127.0.0.1:" + leader.getAddress().getPort(), accounts);
+    }
+
+    @After
+    public void tearDown() {
+        follower.close();
+        leader.stop(0);
+    }
+
+    @Test
+    public void resyncsAfterAChangeWithoutASequenceNumber() throws InterruptedException {
+        assertResyncsAfter("id: x\nevent: account\ndata: {}\n\n");
+    }
+
+    @Test
+    public void resyncsAfterAnEmptyChange() throws InterruptedException {
+        assertResyncsAfter("id: 0\nevent: account\ndata: {}\n\n");
+    }
+
+    @Test
+    public void resyncsAfterAChangeThatIsNotJson() throws InterruptedException {
+        assertResyncsAfter("id: 0\nevent: account\ndata: {\"version\":\n\n");
+    }
+
+    @Test
+    public void resyncsAfterAChangeWithoutItsAccount() throws InterruptedException {
+        assertResyncsAfter("id: 0\nevent: account\ndata: {\"version\":\"2\",\"time\":0}\n\n");
+    }
+
+    private void assertResyncsAfter(final String first) throws InterruptedException {
+        malformed = first;
+        follower.start();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (accounts.getAccount("2").getNumber() == null && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(new BigDecimal("2"), accounts.getAccount("2").getBalance());
+        assertEquals(new BigDecimal("1"), accounts.getAccount("1").getBalance());
+        // once at the start, and once more after the malformed change
+        assertEquals(2, snapshots.get());
+        assertTrue(streams.get() >= 2);
+    }
+
+    private static void send(final HttpExchange exchange, final String body) throws IOException {
+        final byte[] bytes = body.getBytes(UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        final OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.codebreeze.rest.server.rs;
+
+import com.codebreeze.rest.server.model.Account;
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class AccountBinaryFormatTest {
+    @Test
+    public void decodesWhatItEncodes() throws IOException {
+        final Account[] accounts = {
+                new Account("1", "one", new BigDecimal("12.34")),
+                new Account("2", null, null),
+                new Account("3", "drei ü €", new BigDecimal("-1.5E+40")),
+                new Account(null, Strings.repeat("x", Short.MAX_VALUE), BigDecimal.ZERO),
+        };
+        for (final Account account : accounts) {
+            final byte[] bytes = AccountBinaryFormat.encode(account);
+            assertEquals(AccountBinaryFormat.size(account), bytes.length);
+            final Account decoded = decode(bytes);
+            assertEquals(account.getNumber(), decoded.getNumber());
+            assertEquals(account.getName(), decoded.getName());
+            assertEquals(account.getBalance(), decoded.getBalance());
+        }
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void refusesToEncodeANameLongerThanAShort() {
+        AccountBinaryFormat.encode(new Account("1", Strings.repeat("x", Short.MAX_VALUE + 1), null));
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void refusesToEncodeANameLongerThanAShortInUtf8() {
+        AccountBinaryFormat.encode(new Account("1", Strings.repeat("ü", Short.MAX_VALUE / 2 + 1), null));
+    }
+
+    @Test
+    public void reportsTruncatedInputAsEndOfFile() throws IOException {
+        final byte[] bytes = AccountBinaryFormat.encode(new Account("1", "one", new BigDecimal("-1.5E+40")));
+        for (int length = 0; length < bytes.length; length++) {
+            try {
+                decode(Arrays.copyOf(bytes, length));
+                fail("decoded " + length + " of " + bytes.length + " bytes");
+            } catch (final EOFException expected) {
+                // the provider answers 400
+            }
+        }
+    }
+
+    @Test
+    public void reportsLengthsOutOfRange() {
+        final byte[][] malformed = {
+                // number length -2
+                {AccountBinaryFormat.FORMAT_VERSION, (byte) 0xff, (byte) 0xfe},
+                // null number and name, big balance of no bytes
+                {AccountBinaryFormat.FORMAT_VERSION, -1, -1, -1, -1, 2, 0, 0, 0, 0, 0, 0},
+                // big balance of -1 bytes
+                {AccountBinaryFormat.FORMAT_VERSION, -1, -1, -1, -1, 2, 0, 0, 0, 0, -1, -1},
+                // unknown balance kind
+                {AccountBinaryFormat.FORMAT_VERSION, -1, -1, -1, -1, 3},
+                // unknown format version
+                {AccountBinaryFormat.FORMAT_VERSION + 1, -1, -1, -1, -1, 0},
+        };
+        for (final byte[] bytes : malformed) {
+            try {
+                decode(bytes);
+                fail("decoded " + Arrays.toString(bytes));
+            } catch (final IOException expected) {
+                // the provider answers 400
+            }
+        }
+    }
+
+    @Test
+    public void decodesNulls() throws IOException {
+        final Account account = decode(new byte[]{AccountBinaryFormat.FORMAT_VERSION, -1, -1, -1, -1, 0});
+        assertNull(account.getNumber());
+        assertNull(account.getName());
+        assertNull(account.getBalance());
+    }
+
+    private static Account decode(final byte[] bytes) throws IOException {
+        return AccountBinaryFormat.decode(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+}
@@ -0,0 +1,82 @@
+package com.codebreeze.rest.server.rs;
+
+import com.codebreeze.rest.server.model.Account;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AccountTextFormatTest {
+    private static final String[] STRINGS = {
+            null, "", "1", "0000012345", "Jane Holder", "Zoë Ångström", "名前", "emoji 😀", "<null>",
+            "a, b = [c]",
+    };
+
+    private static final BigDecimal[] BALANCES = {
+            null,
+            BigDecimal.ZERO,
+            new BigDecimal("0.00"),
+            new BigDecimal("1234.56"),
+            new BigDecimal("-1234.56"),
+            new BigDecimal("0.005"),
+            new BigDecimal("-0.000001"),
+            // BigDecimal prints these with an exponent
+            new BigDecimal("0.0000001"),
+            new BigDecimal("1E+3"),
+            new BigDecimal("-1.5E+40"),
+            new BigDecimal("1E-10"),
+            new BigDecimal(BigInteger.ZERO, -2),
+            // 18 digits and one more than that
+            new BigDecimal("999999999999999999"),
+            new BigDecimal("-99999999999999999.9"),
+            new BigDecimal("1000000000000000000"),
+            new BigDecimal("9223372036854775807"),
+            new BigDecimal("123456789012345678901234567890.12"),
+            BigDecimal.valueOf(Long.MIN_VALUE, 2),
+    };
+
+    @Test
+    public void rendersAsReflectionToStringDoes() throws IOException {
+        for (final String number : STRINGS) {
+            for (final String name : STRINGS) {
+                for (final BigDecimal balance : BALANCES) {
+                    assertRendering(new Account(number, name, balance));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void growsItsBufferForLongStrings() throws IOException {
+        final StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            name.append("ü名");
+        }
+        assertRendering(new Account("1", name.toString(), new BigDecimal("1.00")));
+        assertRendering(new Account("2", "short", new BigDecimal("2.00")));
+    }
+
+    @Test
+    public void supportsOnlyAccountsItself() {
+        assertTrue(AccountTextFormat.supports(new Account("1", "one", BigDecimal.ONE)));
+        assertFalse(AccountTextFormat.supports(null));
+        assertFalse(AccountTextFormat.supports("text"));
+        assertFalse(AccountTextFormat.supports(new Account("1", "one", BigDecimal.ONE) {
+        }));
+    }
+
+    private static void assertRendering(final Account account) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AccountTextFormat.write(account, out);
+        final String expected = account.toString();
+        assertEquals(expected, new String(out.toByteArray(), UTF_8));
+        assertEquals(expected, expected.getBytes(UTF_8).length, AccountTextFormat.length(account));
+    }
+}
@@ -0,0 +1,323 @@
+package com.codebreeze.rest.server.services;
+
+import com.codebreeze.rest.server.model.Account;
+import com.codebreeze.rest.server.model.TransferResult;
+import com.codebreeze.rest.server.store.HeapAccountStore;
+import com.codebreeze.rest.server.store.MappedAccountStore;
+import com.codebreeze.rest.server.wal.Durability;
+import com.codebreeze.rest.server.wal.WriteAheadLog;
+import com.google.common.base.Strings;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AccountServiceTest {
+    private static final BigDecimal MAX_BALANCE = BigDecimal.valueOf(Long.MAX_VALUE, 2);
+    private static final BigDecimal MIN_BALANCE = BigDecimal.valueOf(Long.MIN_VALUE, 2);
+
+    private AccountService accounts;
+
+    @Before
+    public void setUp() {
+        accounts = new AccountService(new HeapAccountStore(), null, true, true, new ChangeLog(1024));
+    }
+
+    @Test
+    public void movesMoneyBetweenAccounts() {
+        accounts.addAccount(new Account("1", "one", new BigDecimal("10.00")));
+        accounts.addAccount(new Account("2", "two", new BigDecimal("0.50")));
+        final long before = accounts.getAccount("1").getVersion();
+
+        final TransferResult result = accounts.transfer("1", "2", 250);
+
+        assertEquals(new BigDecimal("7.50"), result.getFrom().getBalance());
+        assertEquals(new BigDecimal("3.00"), result.getTo().getBalance());
+        assertEquals(new BigDecimal("7.50"), accounts.getAccount("1").getBalance());
+        assertEquals(new BigDecimal("3.00"), accounts.getAccount("2").getBalance());
+        assertEquals("one", accounts.getAccount("1").getName());
+        assertTrue(accounts.getAccount("1").getVersion() > before);
+        assertTrue(accounts.getAccount("2").getVersion() > accounts.getAccount("1").getVersion());
+    }
+
+    @Test
+    public void changesNeitherAccountWhenEitherSideFails() {
+        accounts.addAccount(new Account("1", "one", new BigDecimal("10.00")));
+        accounts.addAccount(new Account("full", "full", MAX_BALANCE));
+        accounts.addAccount(new Account("owing", "owing", MIN_BALANCE));
+        accounts.addAccount(new Account("fraction", "fraction", new BigDecimal("1.005")));
+
+        assertRefused(IllegalArgumentException.class, "1", "2", 1);
+        assertRefused(IllegalArgumentException.class, "2", "1", 1);
+        // less than the amount
+        assertRefused(IllegalStateException.class, "1", "full", 1001);
+        // the credit overflows a long of cents
+        assertRefused(IllegalStateException.class, "1", "full", 1);
+        // the debit overflows a long of cents the other way
+        assertRefused(IllegalStateException.class, "owing", "1", 1);
+        // not whole cents
+        assertRefused(IllegalStateException.class, "fraction", "1", 1);
+        assertRefused(IllegalStateException.class, "1", "fraction", 1);
+        assertRefused(IllegalArgumentException.class, "1", "1", 1);
+        assertRefused(IllegalArgumentException.class, "1", "full", 0);
+        assertRefused(IllegalArgumentException.class, "1", "full", -1);
+
+        assertEquals(new BigDecimal("10.00"), accounts.getAccount("1").getBalance());
+        assertEquals(MAX_BALANCE, accounts.getAccount("full").getBalance());
+        assertEquals(MIN_BALANCE, accounts.getAccount("owing").getBalance());
+        assertEquals(new BigDecimal("1.005"), accounts.getAccount("fraction").getBalance());
+    }
+
+    @Test
+    public void keepsTheTotalUnderConcurrentTransfersBothWays() throws Exception {
+        final int accountCount = 8;
+        for (int i = 0; i < accountCount; i++) {
+            accounts.addAccount(new Account(String.valueOf(i), "account " + i, new BigDecimal("1000.00")));
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < 8; t++) {
+                final int seed = t;
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int refused = 0;
+                        for (int i = 0; i < 10000; i++) {
+                            final int from = (seed + i) % accountCount;
+                            final int to = (seed * 3 + i * 7 + 1) % accountCount;
+                            if (from == to) {
+                                continue;
+                            }
+                            try {
+                                accounts.transfer(String.valueOf(from), String.valueOf(to), 1 + i % 5000);
+                            } catch (final IllegalStateException e) {
+                                refused++;
+                            }
+                        }
+                        return refused;
+                    }
+                }));
+            }
+            for (final Future<Integer> result : results) {
+                result.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < accountCount; i++) {
+            final BigDecimal balance = accounts.getAccount(String.valueOf(i)).getBalance();
+            assertTrue(balance.signum() >= 0);
+            total = total.add(balance);
+        }
+        assertEquals(new BigDecimal("8000.00"), total);
+        assertEquals(0, new BigDecimal("8000.00").compareTo(accounts.getStats(1).getTotal()));
+    }
+
+    @Test
+    public void logsBothSidesOfATransferAsOneRecord() throws IOException {
+        final File path = File.createTempFile("accounts", ".wal");
+        try {
+            WriteAheadLog log = new WriteAheadLog(path, Durability.PER_WRITE, 10);
+            log.replay(new HeapAccountStore());
+            final AccountService logged = new AccountService(new HeapAccountStore(), log);
+            logged.addAccount(new Account("1", "one", new BigDecimal("10.00")));
+            logged.addAccount(new Account("2", "two", new BigDecimal("0.00")));
+            final long beforeTransfer = log.position();
+            logged.transfer("1", "2", 400);
+            logged.close();
+
+            final HeapAccountStore restarted = new HeapAccountStore();
+            log = new WriteAheadLog(path, Durability.PER_WRITE, 10);
+            try {
+                assertEquals(1, log.replay(restarted, beforeTransfer));
+            } finally {
+                log.close();
+            }
+            assertEquals(new BigDecimal("6.00"), restarted.get("1").getBalance());
+            assertEquals(new BigDecimal("4.00"), restarted.get("2").getBalance());
+        } finally {
+            path.delete();
+        }
+    }
+
+    @Test
+    public void keepsAWriteMadeAfterAMigrationOverAnOlderCopy() {
+        // versions given by a server whose clock is a day ahead of this one's
+        final long ahead = (System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)) << 20;
+        final Account moved = new Account("1", "one", new BigDecimal("10.00"), ahead);
+        final Account movedToo = new Account("2", "two", new BigDecimal("0.00"), ahead + 1);
+        assertEquals(2, accounts.receive(asList(moved, movedToo)));
+
+        accounts.addAccount(new Account("1", "renamed", new BigDecimal("10.00")));
+        accounts.transfer("1", "2", 100);
+        assertTrue(accounts.getAccount("1").getVersion() > ahead);
+        assertTrue(accounts.getAccount("2").getVersion() > ahead + 1);
+
+        // the previous owner copies the accounts again, e.g. as it restarts
+        assertEquals(0, accounts.receive(asList(moved, movedToo)));
+        assertEquals("renamed", accounts.getAccount("1").getName());
+        assertEquals(new BigDecimal("9.00"), accounts.getAccount("1").getBalance());
+        assertEquals(new BigDecimal("1.00"), accounts.getAccount("2").getBalance());
+    }
+
+    @Test
+    public void writesAboveTheVersionAnAccountWasStoredWith() {
+        final long ahead = (System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)) << 20;
+        final HeapAccountStore store = new HeapAccountStore();
+        store.put(new Account("1", "one", new BigDecimal("10.00"), ahead));
+        // as after a restart, with the account already in the store
+        final AccountService restarted = new AccountService(store);
+
+        assertTrue(restarted.addAccount(new Account("1", "renamed", BigDecimal.ONE)).getVersion() > ahead);
+        assertFalse(restarted.replicate(new Account("1", "one", new BigDecimal("10.00"), ahead)));
+        assertEquals("renamed", restarted.getAccount("1").getName());
+    }
+
+    @Test
+    public void logsTheAccountsItReceives() throws IOException {
+        final File path = File.createTempFile("accounts", ".wal");
+        try {
+            WriteAheadLog log = new WriteAheadLog(path, Durability.PER_BATCH, 10);
+            log.replay(new HeapAccountStore());
+            final AccountService logged = new AccountService(new HeapAccountStore(), log);
+            assertEquals(2, logged.receive(asList(
+                    new Account("1", "one", new BigDecimal("10.00"), 5),
+                    new Account("2", "two", new BigDecimal("0.00"), 7))));
+            logged.close();
+
+            final HeapAccountStore restarted = new HeapAccountStore();
+            log = new WriteAheadLog(path, Durability.PER_BATCH, 10);
+            try {
+                assertEquals(2, log.replay(restarted));
+            } finally {
+                log.close();
+            }
+            assertEquals(5, restarted.get("1").getVersion());
+            assertEquals(7, restarted.get("2").getVersion());
+        } finally {
+            path.delete();
+        }
+    }
+
+    @Test
+    public void takesBackWritesTheLogRefuses() throws IOException {
+        final File path = File.createTempFile("accounts", ".wal");
+        try {
+            final WriteAheadLog log = new WriteAheadLog(path, Durability.PER_WRITE, 10);
+            log.replay(new HeapAccountStore());
+            final HeapAccountStore store = new HeapAccountStore();
+            final ChangeLog changes = new ChangeLog(16);
+            final AccountService logged = new AccountService(store, log, true, true, changes);
+            logged.addAccount(new Account("1", "one", new BigDecimal("10.00")));
+            logged.addAccount(new Account("2", "two", new BigDecimal("0.00")));
+            final long head = changes.head();
+
+            // over the 64KB a record holds for a name
+            final String longName = Strings.repeat("x", 70000);
+            assertWriteRefused(logged, IllegalArgumentException.class, new Account("3", longName, BigDecimal.ONE));
+            assertWriteRefused(logged, IllegalArgumentException.class, new Account("1", longName, BigDecimal.ONE));
+            log.close();
+            assertWriteRefused(logged, IllegalStateException.class, new Account("3", "three", BigDecimal.ONE));
+            assertWriteRefused(logged, IllegalStateException.class, new Account("1", "uno", BigDecimal.ONE));
+            try {
+                logged.transfer("1", "2", 100);
+                fail("transferred with the log closed");
+            } catch (final IllegalStateException expected) {
+                // the log is closed
+            }
+
+            assertNull(store.get("3"));
+            assertEquals(2, store.size());
+            assertEquals("one", logged.getAccount("1").getName());
+            assertEquals(new BigDecimal("10.00"), logged.getAccount("1").getBalance());
+            assertEquals(new BigDecimal("0.00"), logged.getAccount("2").getBalance());
+            assertEquals(head, changes.head());
+            assertEquals(1, logged.findByName("one", 10).size());
+            assertEquals(0, logged.findByName("x", 10).size());
+            assertEquals(0, logged.findByName("uno", 10).size());
+            assertEquals(2, logged.getStats(10).getCount());
+            assertEquals(0, new BigDecimal("10.00").compareTo(logged.getStats(10).getTotal()));
+        } finally {
+            path.delete();
+        }
+    }
+
+    @Test
+    public void reportsEachAccountAFullStoreRefuses() throws IOException {
+        final File path = File.createTempFile("accounts", ".wal");
+        final File table = File.createTempFile("accounts", ".db");
+        table.delete();
+        final MappedAccountStore store = MappedAccountStore.open(table, 2);
+        try {
+            WriteAheadLog log = new WriteAheadLog(path, Durability.PER_BATCH, 10);
+            log.replay(new HeapAccountStore());
+            final AccountService logged = new AccountService(store, log);
+
+            final Map<Integer, String> failures = logged.addAccounts(asList(
+                    new Account("1", "one", BigDecimal.ONE),
+                    new Account("2", "two", BigDecimal.ONE),
+                    new Account("3", "three", BigDecimal.ONE),
+                    new Account("", "none", BigDecimal.ONE),
+                    new Account("1", "uno", BigDecimal.ONE)));
+            logged.close();
+
+            assertEquals(2, failures.size());
+            assertTrue(failures.get(2), failures.get(2).contains("full"));
+            assertEquals("account number is required", failures.get(3));
+            assertEquals("uno", store.get("1").getName());
+            assertNull(store.get("3"));
+            final HeapAccountStore replayed = new HeapAccountStore();
+            log = new WriteAheadLog(path, Durability.PER_BATCH, 10);
+            try {
+                assertEquals(3, log.replay(replayed));
+            } finally {
+                log.close();
+            }
+            assertEquals("uno", replayed.get("1").getName());
+            assertNull(replayed.get("3"));
+        } finally {
+            store.close();
+            table.delete();
+            path.delete();
+        }
+    }
+
+    private static void assertWriteRefused(final AccountService service,
+                                           final Class<? extends RuntimeException> expected, final Account account) {
+        try {
+            service.addAccount(account);
+            fail("wrote account " + account.getNumber());
+        } catch (final RuntimeException e) {
+            assertEquals(expected, e.getClass());
+        }
+    }
+
+    private void assertRefused(final Class<? extends RuntimeException> expected, final String from,
+                               final String to, final long cents) {
+        try {
+            accounts.transfer(from, to, cents);
+            fail("transferred " + cents + " from " + from + " to " + to);
+        } catch (final RuntimeException e) {
+            assertEquals(from + " to " + to, expected, e.getClass());
+        }
+    }
+}
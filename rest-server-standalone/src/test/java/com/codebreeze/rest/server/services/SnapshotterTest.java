@@ -0,0 +1,181 @@
+package com.codebreeze.rest.server.services;
+
+import com.codebreeze.rest.server.model.Account;
+import com.codebreeze.rest.server.store.SnapshotAccountStore;
+import com.codebreeze.rest.server.store.SnapshotImage;
+import com.codebreeze.rest.server.wal.Durability;
+import com.codebreeze.rest.server.wal.WriteAheadLog;
+import com.google.common.collect.Iterables;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotterTest {
+    private static final int FORMAT_VERSION_OFFSET = 4;
+    private static final int UNVERSIONED_FORMAT_VERSION = 2;
+
+    private File directory;
+    private File snapshots;
+    private File wal;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("snapshotter").toFile();
+        snapshots = new File(directory, "snapshots");
+        wal = new File(directory, "accounts.wal");
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = snapshots.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        snapshots.delete();
+        wal.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void restartsFromTheSnapshotAndTheLogWrittenSince() throws IOException {
+        Server server = new Server();
+        server.accounts.addAccount(new Account("1", "one", new BigDecimal("1.00")));
+        server.accounts.addAccount(new Account("2", "two", new BigDecimal("2.00")));
+        final File image = server.snapshotter.snapshot();
+        server.accounts.addAccount(new Account("1", "uno", new BigDecimal("1.50")));
+        server.accounts.addAccount(new Account("3", null, null));
+        final Account one = server.accounts.getAccount("1");
+        server.close();
+
+        server = new Server();
+        try {
+            assertEquals(SnapshotImage.open(image).getWalPosition(), server.store.getWalPosition());
+            // only what was written after the snapshot
+            assertEquals(2, server.replayed);
+            assertEquals(3, server.store.size());
+            assertEquals(one.getVersion(), server.accounts.getAccount("1").getVersion());
+            assertEquals("uno", server.accounts.getAccount("1").getName());
+            assertEquals(new BigDecimal("2.00"), server.accounts.getAccount("2").getBalance());
+            assertEquals(Account.NULL_ACCOUNT, server.accounts.getAccount("4"));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void keepsTheTwoNewestSnapshotsAndFallsBackToTheOlder() throws IOException {
+        Server server = new Server();
+        File newest = null;
+        for (int i = 0; i < 4; i++) {
+            server.accounts.addAccount(new Account(String.valueOf(i), "account " + i, BigDecimal.valueOf(i)));
+            newest = server.snapshotter.snapshot();
+        }
+        server.accounts.addAccount(new Account("4", "account 4", BigDecimal.TEN));
+        server.close();
+        assertEquals(2, snapshots.list().length);
+        assertTrue(newest.exists());
+
+        // a torn newest image: the previous one, and more of the log, make up for it
+        final RandomAccessFile file = new RandomAccessFile(newest, "rw");
+        try {
+            file.setLength(file.length() / 2);
+        } finally {
+            file.close();
+        }
+        server = new Server();
+        try {
+            assertEquals(2, server.replayed);
+            assertEquals(5, server.store.size());
+            for (int i = 0; i < 5; i++) {
+                assertEquals("account " + i, server.accounts.getAccount(String.valueOf(i)).getName());
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void readsImagesWrittenBeforeAccountsHadVersions() throws IOException {
+        snapshots.mkdirs();
+        final File image = new File(snapshots, "accounts-00000000000000000000.snapshot");
+        SnapshotImage.write(image, 0, asList(
+                new Account("1", "one", new BigDecimal("1.00"), 7),
+                new Account("2", null, new BigDecimal("123456789012345678901234567890"), 8)));
+        // a format 2 record ends at its balance, so the version a format 3 record has after it goes unread
+        final RandomAccessFile file = new RandomAccessFile(image, "rw");
+        try {
+            file.seek(FORMAT_VERSION_OFFSET);
+            file.writeInt(UNVERSIONED_FORMAT_VERSION);
+        } finally {
+            file.close();
+        }
+
+        final SnapshotAccountStore store = SnapshotAccountStore.open(snapshots);
+        try {
+            assertEquals(2, store.size());
+            assertEquals(0, store.get("1").getVersion());
+            assertEquals(new BigDecimal("1.00"), store.get("1").getBalance());
+            assertEquals(0, store.get("2").getVersion());
+            assertEquals(new BigDecimal("123456789012345678901234567890"), store.get("2").getBalance());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void freezingTwiceWithoutInstallingKeepsBothOverlays() throws IOException {
+        final SnapshotAccountStore store = SnapshotAccountStore.open(snapshots);
+        try {
+            store.put(new Account("1", "one", BigDecimal.ONE, 1));
+            store.freeze();
+            store.put(new Account("2", "two", BigDecimal.ONE, 2));
+            assertEquals(2, Iterables.size(store.freeze()));
+            store.put(new Account("3", "three", BigDecimal.ONE, 3));
+            SnapshotImage.write(store.snapshotFile(10), 10, asList(
+                    new Account("1", "one", BigDecimal.ONE, 1),
+                    new Account("2", "two", BigDecimal.ONE, 2)));
+            store.install(SnapshotImage.open(store.snapshotFile(10)));
+            assertEquals(3, store.size());
+            assertEquals(10, store.getWalPosition());
+            assertEquals("three", store.get("3").getName());
+            assertEquals("one", store.get("1").getName());
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * the store, log and snapshotter as the server puts them together
+     */
+    private final class Server {
+        private final SnapshotAccountStore store;
+        private final AccountService accounts;
+        private final Snapshotter snapshotter;
+        private final int replayed;
+
+        private Server() throws IOException {
+            store = SnapshotAccountStore.open(snapshots);
+            final WriteAheadLog log = new WriteAheadLog(wal, Durability.PER_BATCH, 10);
+            replayed = log.replay(store, store.getWalPosition());
+            accounts = new AccountService(store, log, true, true, null);
+            snapshotter = new Snapshotter(accounts, store, 3600);
+        }
+
+        private void close() throws IOException {
+            accounts.close();
+            store.close();
+        }
+    }
+}
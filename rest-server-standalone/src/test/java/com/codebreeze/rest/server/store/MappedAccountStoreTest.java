@@ -0,0 +1,169 @@
+package com.codebreeze.rest.server.store;
+
+import com.codebreeze.rest.server.model.Account;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class MappedAccountStoreTest {
+    private static final int COUNT_OFFSET = 24;
+
+    private File path;
+
+    @Before
+    public void setUp() throws IOException {
+        path = File.createTempFile("accounts", ".db");
+        path.delete();
+    }
+
+    @After
+    public void tearDown() {
+        path.delete();
+    }
+
+    @Test
+    public void keepsAccountsAcrossReopen() throws IOException {
+        MappedAccountStore store = MappedAccountStore.open(path, 100);
+        store.put(new Account("1", "one", new BigDecimal("1.50"), 1));
+        store.put(new Account("2", null, null, 2));
+        store.put(new Account("1", "uno", new BigDecimal("-3"), 3));
+        store.close();
+
+        store = MappedAccountStore.open(path, 10);
+        try {
+            assertEquals(2, store.size());
+            assertEquals("uno", store.get("1").getName());
+            assertEquals(new BigDecimal("-3"), store.get("1").getBalance());
+            assertEquals(3, store.get("1").getVersion());
+            assertNull(store.get("2").getName());
+            assertNull(store.get("2").getBalance());
+            assertNull(store.get("3"));
+            assertEquals(asList("1", "2"), numbers(store, 10));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void scansPastAnAccountWithAnEmptyNumber() throws IOException {
+        final MappedAccountStore store = MappedAccountStore.open(path, 100);
+        try {
+            store.put(new Account("1", "one", BigDecimal.ONE));
+            try {
+                store.put(new Account("", "nobody", BigDecimal.ONE));
+                fail("an empty number was stored");
+            } catch (final IllegalArgumentException expected) {
+                // a zero-length number is what a record not written yet has
+            }
+            store.put(new Account("2", "two", BigDecimal.ONE));
+            assertEquals(asList("1", "2"), numbers(store, 1));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void scansPastARecordOrphanedByACrash() throws IOException {
+        MappedAccountStore store = MappedAccountStore.open(path, 100);
+        store.put(new Account("1", "one", BigDecimal.ONE));
+        store.put(new Account("2", "two", BigDecimal.ONE));
+        store.close();
+        // a crash after allocating a record, before writing it
+        final RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.seek(COUNT_OFFSET);
+            file.writeLong(3);
+        } finally {
+            file.close();
+        }
+
+        store = MappedAccountStore.open(path, 100);
+        try {
+            store.put(new Account("4", "four", BigDecimal.ONE));
+            store.put(new Account("5", "five", BigDecimal.ONE));
+            assertEquals(asList("1", "2", "4", "5"), numbers(store, 1));
+            assertEquals(asList("1", "2", "4", "5"), numbers(store, 100));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void takesBackAnAccountItJustAdded() throws IOException {
+        MappedAccountStore store = MappedAccountStore.open(path, 100);
+        store.put(new Account("1", "one", BigDecimal.ONE));
+        store.put(new Account("2", "two", BigDecimal.ONE));
+        store.put(new Account("3", "three", BigDecimal.ONE));
+        store.remove("2");
+        assertNull(store.get("2"));
+        assertEquals(asList("1", "3"), numbers(store, 1));
+        store.put(new Account("2", "again", BigDecimal.TEN));
+        assertEquals("again", store.get("2").getName());
+        assertEquals(asList("1", "3", "2"), numbers(store, 1));
+        store.close();
+
+        store = MappedAccountStore.open(path, 100);
+        try {
+            assertEquals("again", store.get("2").getName());
+            assertEquals(asList("1", "3", "2"), numbers(store, 1));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void findsAccountsPastRemovedOnes() throws IOException {
+        // a few thousand accounts to a segment of 64 slots, so that probes run through removed entries
+        final int count = 20000;
+        final MappedAccountStore store = MappedAccountStore.open(path, count);
+        try {
+            for (int i = 0; i < count; i++) {
+                store.put(new Account(String.valueOf(i), "account " + i, BigDecimal.ONE));
+            }
+            for (int i = 0; i < count; i += 2) {
+                store.remove(String.valueOf(i));
+            }
+            for (int i = 0; i < count; i++) {
+                final Account account = store.get(String.valueOf(i));
+                if (i % 2 == 0) {
+                    assertNull(account);
+                } else {
+                    assertEquals("account " + i, account.getName());
+                }
+            }
+            assertEquals(count / 2, numbers(store, 1000).size());
+        } finally {
+            store.close();
+        }
+    }
+
+    private static List<String> numbers(final AccountStore store, final int limit) {
+        final List<String> numbers = new ArrayList<String>();
+        final AccountVisitor visitor = new AccountVisitor() {
+            @Override
+            public void visit(final Account account) {
+                numbers.add(account.getNumber());
+            }
+        };
+        String cursor = store.scan(null, limit, visitor);
+        for (int pages = 0; cursor != null; pages++) {
+            if (pages > 100) {
+                throw new AssertionError("the scan does not end");
+            }
+            cursor = store.scan(cursor, limit, visitor);
+        }
+        return numbers;
+    }
+}
@@ -0,0 +1,212 @@
+package com.codebreeze.rest.server.wal;
+
+import com.codebreeze.rest.server.model.Account;
+import com.codebreeze.rest.server.store.HeapAccountStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class WriteAheadLogTest {
+    private static final Account ONE = new Account("1", "one", new BigDecimal("10.00"), 1);
+    private static final Account TWO = new Account("2", null, null, 1);
+    // a transfer: both accounts or neither
+    private static final Account ONE_AFTER = new Account("1", "one", new BigDecimal("7.50"), 2);
+    private static final Account TWO_AFTER = new Account("2", null, new BigDecimal("2.50"), 2);
+    private static final Account THREE = new Account("3", "drei ü", new BigDecimal("-1E+3"), 1);
+
+    private File path;
+    private File copy;
+
+    @Before
+    public void setUp() throws IOException {
+        path = File.createTempFile("accounts", ".wal");
+        copy = File.createTempFile("accounts", ".wal");
+    }
+
+    @After
+    public void tearDown() {
+        path.delete();
+        copy.delete();
+    }
+
+    @Test
+    public void replaysWhatWasAppended() throws IOException {
+        write(path);
+        final HeapAccountStore store = new HeapAccountStore();
+        final WriteAheadLog log = new WriteAheadLog(path, Durability.PER_WRITE, 10);
+        try {
+            assertEquals(4, log.replay(store));
+            assertEquals(path.length(), log.position());
+        } finally {
+            log.close();
+        }
+        assertEquals(3, store.size());
+        assertAccount(ONE_AFTER, store.get("1"));
+        assertAccount(TWO_AFTER, store.get("2"));
+        assertAccount(THREE, store.get("3"));
+    }
+
+    @Test
+    public void replaysTheIntactRecordsOfALogTruncatedAnywhere() throws IOException {
+        final long[] ends = write(path);
+        final byte[] bytes = Files.readAllBytes(path.toPath());
+        for (int length = 0; length < bytes.length; length++) {
+            int intact = 0;
+            while (intact < ends.length && ends[intact] <= length) {
+                intact++;
+            }
+            copy(bytes, length);
+            final HeapAccountStore store = new HeapAccountStore();
+            WriteAheadLog log = new WriteAheadLog(copy, Durability.PER_WRITE, 10);
+            try {
+                assertEquals("records replayed at " + length, intact, log.replay(store));
+                assertEquals("log cut at " + length, intact == 0 ? 0 : ends[intact - 1], copy.length());
+                log.append(new Account("4", "four", BigDecimal.ONE, 1));
+            } finally {
+                log.close();
+            }
+            assertAccount(intact >= 3 ? ONE_AFTER : intact >= 1 ? ONE : null, store.get("1"));
+            assertAccount(intact >= 3 ? TWO_AFTER : intact >= 2 ? TWO : null, store.get("2"));
+            assertAccount(intact >= 4 ? THREE : null, store.get("3"));
+
+            // what is appended after the cut is replayed after the intact records
+            final HeapAccountStore restarted = new HeapAccountStore();
+            log = new WriteAheadLog(copy, Durability.PER_WRITE, 10);
+            try {
+                assertEquals("records replayed after appending at " + length, intact + 1, log.replay(restarted));
+            } finally {
+                log.close();
+            }
+            assertEquals(store.size() + 1, restarted.size());
+            assertAccount(new Account("4", "four", BigDecimal.ONE, 1), restarted.get("4"));
+        }
+    }
+
+    @Test
+    public void replaysFromAPosition() throws IOException {
+        final long[] ends = write(path);
+        final HeapAccountStore store = new HeapAccountStore();
+        final WriteAheadLog log = new WriteAheadLog(path, Durability.PER_WRITE, 10);
+        try {
+            assertEquals(2, log.replay(store, ends[1]));
+        } finally {
+            log.close();
+        }
+        assertAccount(ONE_AFTER, store.get("1"));
+        assertAccount(THREE, store.get("3"));
+    }
+
+    @Test
+    public void replaysRecordsWrittenBeforeAccountsHadVersions() throws IOException {
+        final FileOutputStream out = new FileOutputStream(path);
+        try {
+            out.write(unversionedRecord("1", "one", new BigDecimal("12.34")));
+            out.write(unversionedRecord("2", null, null));
+        } finally {
+            out.close();
+        }
+        final HeapAccountStore store = new HeapAccountStore();
+        final WriteAheadLog log = new WriteAheadLog(path, Durability.PER_WRITE, 10);
+        try {
+            assertEquals(2, log.replay(store));
+            log.append(THREE);
+        } finally {
+            log.close();
+        }
+        assertAccount(new Account("1", "one", new BigDecimal("12.34"), 0), store.get("1"));
+        assertAccount(new Account("2", null, null, 0), store.get("2"));
+
+        final HeapAccountStore restarted = new HeapAccountStore();
+        final WriteAheadLog reopened = new WriteAheadLog(path, Durability.PER_WRITE, 10);
+        try {
+            assertEquals(3, reopened.replay(restarted));
+        } finally {
+            reopened.close();
+        }
+        assertAccount(THREE, restarted.get("3"));
+    }
+
+    /**
+     * @return the offset just past each record
+     */
+    private static long[] write(final File path) throws IOException {
+        final long[] ends = new long[4];
+        final WriteAheadLog log = new WriteAheadLog(path, Durability.PER_WRITE, 10);
+        try {
+            log.replay(new HeapAccountStore());
+            log.append(ONE);
+            ends[0] = log.position();
+            log.append(TWO);
+            ends[1] = log.position();
+            log.append(ONE_AFTER, TWO_AFTER);
+            ends[2] = log.position();
+            log.append(THREE);
+            ends[3] = log.position();
+        } finally {
+            log.close();
+        }
+        return ends;
+    }
+
+    private void copy(final byte[] bytes, final int length) throws IOException {
+        final FileOutputStream out = new FileOutputStream(copy);
+        try {
+            out.write(Arrays.copyOf(bytes, length));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * a record as the log wrote it before accounts had versions: one account, ending at its balance
+     */
+    private static byte[] unversionedRecord(final String number, final String name, final BigDecimal balance)
+            throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeUTF(number);
+        payload.writeBoolean(name != null);
+        if (name != null) {
+            payload.writeUTF(name);
+        }
+        payload.writeBoolean(balance != null);
+        if (balance != null) {
+            final byte[] unscaled = balance.unscaledValue().toByteArray();
+            payload.writeInt(balance.scale());
+            payload.writeShort(unscaled.length);
+            payload.write(unscaled);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(bytes.size());
+        out.writeInt((int) crc.getValue());
+        bytes.writeTo(out);
+        return record.toByteArray();
+    }
+
+    private static void assertAccount(final Account expected, final Account actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertEquals(expected.getNumber(), actual.getNumber());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getBalance(), actual.getBalance());
+        assertEquals(expected.getVersion(), actual.getVersion());
+    }
+}
@@ -0,0 +1,171 @@
+package com.codebreeze.rest.server.web;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdmissionFilterTest {
+    private static final int SHED = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+    private static final int SERVED = HttpServletResponse.SC_OK;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void askingForAnEventStreamDoesNotGetPastTheSlots() throws Exception {
+        final AdmissionFilter filter = new AdmissionFilter(1, 50, 0, 0);
+        final CountDownLatch admitted = new CountDownLatch(1);
+        final Future<Integer> held = hold(filter, "/api/account/number/1", admitted);
+        admitted.await();
+
+        assertEquals(SHED, serve(filter, "/api/account/number/2", "text/event-stream"));
+        assertEquals(SHED, serve(filter, "/api/account/lookup", "application/json, text/event-stream"));
+        // the change stream takes no slot
+        assertEquals(SERVED, serve(filter, "/api/account/changes", "text/event-stream"));
+
+        release.countDown();
+        assertEquals(SERVED, (int) held.get(10, TimeUnit.SECONDS));
+        assertEquals(SERVED, serve(filter, "/api/account/number/2", "text/event-stream"));
+        assertEquals(0, filter.getStats().getInFlight());
+    }
+
+    @Test
+    public void turnsAwaySubscribersBeyondTheCap() throws Exception {
+        final AdmissionFilter filter = new AdmissionFilter(0, 0, 0, 2);
+        final CountDownLatch subscribed = new CountDownLatch(2);
+        final Future<Integer> first = hold(filter, "/api/account/changes", subscribed);
+        final Future<Integer> second = hold(filter, "/api/account/changes", subscribed);
+        subscribed.await();
+
+        assertEquals(SHED, serve(filter, "/api/account/changes", "text/event-stream"));
+        assertEquals(2, filter.getStats().getSubscribers());
+        assertEquals(1, filter.getStats().getShedSubscribers());
+        // other requests are not held up by the streams
+        assertEquals(SERVED, serve(filter, "/api/account/number/1", "text/plain"));
+
+        release.countDown();
+        assertEquals(SERVED, (int) first.get(10, TimeUnit.SECONDS));
+        assertEquals(SERVED, (int) second.get(10, TimeUnit.SECONDS));
+        assertEquals(0, filter.getStats().getSubscribers());
+        assertEquals(SERVED, serve(filter, "/api/account/changes", "text/event-stream"));
+    }
+
+    /**
+     * @return the status of a request that the chain holds until the test releases it
+     */
+    private Future<Integer> hold(final AdmissionFilter filter, final String path, final CountDownLatch admitted) {
+        return executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                final int[] status = {SERVED};
+                filter.doFilter(request(path, "text/plain"), response(status), new FilterChain() {
+                    @Override
+                    public void doFilter(final ServletRequest request, final ServletResponse response)
+                            throws IOException, ServletException {
+                        admitted.countDown();
+                        try {
+                            release.await();
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+                return status[0];
+            }
+        });
+    }
+
+    private static int serve(final AdmissionFilter filter, final String path, final String accept)
+            throws IOException, ServletException {
+        final int[] status = {SERVED};
+        filter.doFilter(request(path, accept), response(status), new FilterChain() {
+            @Override
+            public void doFilter(final ServletRequest request, final ServletResponse response) {
+            }
+        });
+        return status[0];
+    }
+
+    /**
+     * a request as the servlet mapped to /* sees it
+     */
+    private static HttpServletRequest request(final String path, final String accept) {
+        return proxy(HttpServletRequest.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                final String name = method.getName();
+                if (name.equals("getServletPath")) {
+                    return "";
+                } else if (name.equals("getPathInfo")) {
+                    return path;
+                } else if (name.equals("getHeader")) {
+                    return "Accept".equalsIgnoreCase((String) args[0]) ? accept : null;
+                } else if (name.equals("getRemoteAddr")) {
+                    return "127.0.0.1";
+                } else if (name.equals("isAsyncStarted")) {
+                    return false;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static HttpServletResponse response(final int[] status) {
+        final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public void write(final int b) {
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(final WriteListener listener) {
+            }
+        };
+        return proxy(HttpServletResponse.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if (method.getName().equals("setStatus")) {
+                    status[0] = (Integer) args[0];
+                } else if (method.getName().equals("getOutputStream")) {
+                    return out;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(AdmissionFilterTest.class.getClassLoader(), new Class<?>[]{type},
+                handler));
+    }
+}
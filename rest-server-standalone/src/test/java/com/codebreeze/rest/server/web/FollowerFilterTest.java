@@ -0,0 +1,123 @@
+package com.codebreeze.rest.server.web;
+
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FollowerFilterTest {
+    private static final int SERVED = HttpServletResponse.SC_OK;
+    private static final int REDIRECTED = 307;
+
+    private final FollowerFilter filter = new FollowerFilter("http://leader:8080/");
+
+    @Test
+    public void servesReadsHere() throws IOException, ServletException {
+        assertEquals(SERVED, serve("GET", "/api/account/number/1", null).status);
+        assertEquals(SERVED, serve("HEAD", "/api/account/number/1", null).status);
+        // a batched read, with the numbers in its body
+        assertEquals(SERVED, serve("POST", "/api/account/lookup", null).status);
+    }
+
+    @Test
+    public void sendsWritesToTheLeader() throws IOException, ServletException {
+        final Served added = serve("POST", "/api/account", null);
+        assertEquals(REDIRECTED, added.status);
+        assertEquals("http://leader:8080/api/account", added.headers.get("Location"));
+        final Served transfer = serve("POST", "/api/account/transfer", "from=1&to=2&amount=1");
+        assertEquals(REDIRECTED, transfer.status);
+        assertEquals("http://leader:8080/api/account/transfer?from=1&to=2&amount=1", transfer.headers.get("Location"));
+        assertEquals(REDIRECTED, serve("POST", "/api/account/bulk", null).status);
+        assertEquals(REDIRECTED, serve("PUT", "/api/account/lookup", null).status);
+        assertEquals(REDIRECTED, serve("DELETE", "/api/account/number/1", null).status);
+        assertNull(serve("GET", "/api/account/number/1", null).headers.get("Location"));
+    }
+
+    private Served serve(final String method, final String path, final String query)
+            throws IOException, ServletException {
+        final Served served = new Served();
+        filter.doFilter(request(method, path, query), served.response(), new FilterChain() {
+            @Override
+            public void doFilter(final ServletRequest request, final ServletResponse response) {
+            }
+        });
+        return served;
+    }
+
+    /**
+     * a request as the servlet mapped to /* sees it
+     */
+    private static HttpServletRequest request(final String method, final String path, final String query) {
+        return proxy(HttpServletRequest.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method invoked, final Object[] args) {
+                final String name = invoked.getName();
+                if (name.equals("getMethod")) {
+                    return method;
+                } else if (name.equals("getServletPath")) {
+                    return "";
+                } else if (name.equals("getPathInfo") || name.equals("getRequestURI")) {
+                    return path;
+                } else if (name.equals("getQueryString")) {
+                    return query;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static final class Served {
+        private int status = SERVED;
+        private final Map<String, String> headers = new HashMap<String, String>();
+
+        private HttpServletResponse response() {
+            final ServletOutputStream out = new ServletOutputStream() {
+                @Override
+                public void write(final int b) {
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(final WriteListener listener) {
+                }
+            };
+            return proxy(HttpServletResponse.class, new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                    if (method.getName().equals("setStatus")) {
+                        status = (Integer) args[0];
+                    } else if (method.getName().equals("setHeader")) {
+                        headers.put((String) args[0], (String) args[1]);
+                    } else if (method.getName().equals("getOutputStream")) {
+                        return out;
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(FollowerFilterTest.class.getClassLoader(), new Class<?>[]{type},
+                handler));
+    }
+}
@@ -0,0 +1,92 @@
+package com.codebreeze.rest.server.web;
+
+import com.codebreeze.rest.server.metrics.Metrics;
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsFilterTest {
+    @Test
+    public void countsTheBytesWrittenToTheResponse() throws IOException, ServletException {
+        final Metrics metrics = new Metrics();
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        new MetricsFilter(metrics).doFilter(request(), response(written), new FilterChain() {
+            @Override
+            public void doFilter(final ServletRequest request, final ServletResponse response) throws IOException {
+                final ServletOutputStream out = response.getOutputStream();
+                out.write("hello".getBytes(UTF_8), 0, 5);
+                out.write('!');
+                response.getOutputStream().write(" and more".getBytes(UTF_8), 5, 4);
+            }
+        });
+
+        assertArrayEquals("hello!more".getBytes(UTF_8), written.toByteArray());
+        final String exposed = metrics.expose(null);
+        assertTrue(exposed, exposed.contains("http_server_response_bytes_total{endpoint=\"unmatched\"} 10\n"));
+        assertTrue(exposed, exposed.contains("http_server_request_bytes_total{endpoint=\"unmatched\"} 3\n"));
+    }
+
+    private static HttpServletRequest request() {
+        return proxy(HttpServletRequest.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if (method.getName().equals("getContentLength")) {
+                    return 3;
+                } else if (method.getName().equals("isAsyncStarted")) {
+                    return false;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static HttpServletResponse response(final ByteArrayOutputStream written) {
+        final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public void write(final int b) {
+                written.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(final WriteListener listener) {
+            }
+        };
+        return proxy(HttpServletResponse.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if (method.getName().equals("getOutputStream")) {
+                    return out;
+                } else if (method.getName().equals("getStatus")) {
+                    return HttpServletResponse.SC_OK;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(MetricsFilterTest.class.getClassLoader(), new Class<?>[]{type},
+                handler));
+    }
+}